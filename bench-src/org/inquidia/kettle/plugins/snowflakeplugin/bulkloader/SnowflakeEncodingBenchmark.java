@@ -0,0 +1,354 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the bulk loader encoding path on synthetic rows, without a Snowflake connection.  Rows are encoded by
+ * SnowflakeRowEncoder, the same encoder the step writes its temp files with, into a sink that only counts the bytes.
+ *
+ * The primary score is rows per second.  The bytes counter reports the encoded bytes per second, before compression.
+ * Run with -prof gc for the allocation rate.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class SnowflakeEncodingBenchmark {
+
+  private static final int ROWS = 1000;
+
+  /**
+   * The shape of the rows:
+   * narrow - 5 mixed fields, all stream fields written
+   * wide - 60 mixed fields, all stream fields written
+   * strings - 10 string fields, some needing enclosure and escaping, and some multi-byte characters
+   * dates - 8 timestamp, date and time fields, written through the column plan as for specified fields
+   * json - a JSON document per row
+   * jsonbinary - a JSON document per row, stored as the bytes read from the input as with lazy conversion
+   */
+  @Param( { "narrow", "wide", "strings", "dates", "json", "jsonbinary" } )
+  public String shape;
+
+  private RowMetaInterface rowMeta;
+  private Object[][] rows;
+  private SnowflakeRowEncoder encoder;
+  private ExecutorService compressionExecutor;
+  private SnowflakeStreamPool streamPool;
+
+  /**
+   * The number of encoded bytes, reported by JMH as bytes per second
+   */
+  @State( Scope.Thread )
+  @AuxCounters( AuxCounters.Type.OPERATIONS )
+  public static class Bytes {
+    public long bytes;
+
+    @Setup( Level.Iteration )
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Setup( Level.Trial )
+  public void setUp() throws Exception {
+    Random random = new Random( 42 );
+    rowMeta = new RowMeta();
+    encoder = new SnowflakeRowEncoder( SnowflakeBulkLoaderMeta.CSV_DELIMITER.getBytes( "UTF-8" ),
+      SnowflakeBulkLoaderMeta.ENCLOSURE.getBytes( "UTF-8" ), SnowflakeBulkLoaderMeta.CSV_ESCAPE_CHAR.getBytes( "UTF-8" ),
+      SnowflakeBulkLoaderMeta.CSV_RECORD_DELIMITER.getBytes( "UTF-8" ), new byte[0] );
+
+    switch ( shape ) {
+      case "narrow":
+        addMixedFields( 5 );
+        break;
+      case "wide":
+        addMixedFields( 60 );
+        break;
+      case "strings":
+        for ( int i = 0; i < 10; i++ ) {
+          rowMeta.addValueMeta( new ValueMetaString( "s" + i ) );
+        }
+        break;
+      case "dates":
+        addDateFields();
+        break;
+      case "json":
+        rowMeta.addValueMeta( new ValueMetaString( "json" ) );
+        break;
+      case "jsonbinary":
+        ValueMetaString json = new ValueMetaString( "json" );
+        json.setStorageType( ValueMetaInterface.STORAGE_TYPE_BINARY_STRING );
+        json.setStorageMetadata( new ValueMetaString( "json" ) );
+        rowMeta.addValueMeta( json );
+        break;
+      default:
+        throw new IllegalArgumentException( "Unknown shape " + shape );
+    }
+
+    rows = new Object[ROWS][];
+    for ( int r = 0; r < ROWS; r++ ) {
+      rows[r] = buildRow( random );
+    }
+
+    compressionExecutor = Executors.newFixedThreadPool( 4 );
+    streamPool = new SnowflakeStreamPool( SnowflakeStreamPool.DEFAULT_MAX_BYTES );
+  }
+
+  @TearDown( Level.Trial )
+  public void tearDown() {
+    compressionExecutor.shutdownNow();
+  }
+
+  /**
+   * Encodes the rows without compression
+   */
+  @Benchmark
+  @OperationsPerInvocation( ROWS )
+  public long encode( Bytes counter ) throws Exception {
+    CountingSink sink = new CountingSink();
+    encodeRows( sink );
+    counter.bytes += sink.count;
+    return sink.count;
+  }
+
+  /**
+   * Encodes the rows and gzips them on the benchmark thread, as the step does with one compression thread
+   */
+  @Benchmark
+  @OperationsPerInvocation( ROWS )
+  public long encodeGzip( Bytes counter ) throws Exception {
+    CountingSink sink = new CountingSink();
+    PooledGZIPOutputStream gzip = new PooledGZIPOutputStream( sink, streamPool );
+    CountingSink uncompressed = new CountingSink( gzip );
+    encodeRows( uncompressed );
+    gzip.close();
+    counter.bytes += uncompressed.count;
+    return sink.count;
+  }
+
+  /**
+   * Encodes the rows and gzips them on four compression threads
+   */
+  @Benchmark
+  @OperationsPerInvocation( ROWS )
+  public long encodeParallelGzip( Bytes counter ) throws Exception {
+    CountingSink sink = new CountingSink();
+    ParallelGZIPOutputStream gzip = new ParallelGZIPOutputStream( sink, compressionExecutor, 4,
+      ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE, streamPool );
+    CountingSink uncompressed = new CountingSink( gzip );
+    encodeRows( uncompressed );
+    gzip.close();
+    counter.bytes += uncompressed.count;
+    return sink.count;
+  }
+
+  private void encodeRows( OutputStream out ) throws Exception {
+    for ( Object[] row : rows ) {
+      switch ( shape ) {
+        case "dates":
+          encoder.writeMappedRow( out, row );
+          break;
+        case "json":
+        case "jsonbinary":
+          encoder.writeJson( out, rowMeta, row, 0 );
+          break;
+        default:
+          encoder.writeRow( out, rowMeta, row );
+          break;
+      }
+    }
+  }
+
+  private void addMixedFields( int count ) {
+    for ( int i = 0; i < count; i++ ) {
+      switch ( i % 5 ) {
+        case 0:
+          rowMeta.addValueMeta( new ValueMetaInteger( "f" + i ) );
+          break;
+        case 1:
+          rowMeta.addValueMeta( new ValueMetaString( "f" + i ) );
+          break;
+        case 2:
+          rowMeta.addValueMeta( new ValueMetaNumber( "f" + i ) );
+          break;
+        case 3:
+          rowMeta.addValueMeta( new ValueMetaBigNumber( "f" + i ) );
+          break;
+        default:
+          rowMeta.addValueMeta( new ValueMetaString( "f" + i ) );
+          break;
+      }
+    }
+  }
+
+  /**
+   * Adds timestamp, date and time fields, and the column plan mapping each one to a table field of the same type
+   */
+  private void addDateFields() {
+    int count = 8;
+    int[] streamIndexes = new int[count];
+    ValueMetaInterface[] converters = new ValueMetaInterface[count];
+    ValueMetaInterface[] sources = new ValueMetaInterface[count];
+    int[] dateFormats = new int[count];
+    String[] masks = { "yyyy-MM-dd HH:mm:ss.SSS", "yyyy-MM-dd", "HH:mm:ss.SSS" };
+
+    for ( int i = 0; i < count; i++ ) {
+      ValueMetaDate source = new ValueMetaDate( "d" + i );
+      rowMeta.addValueMeta( source );
+      int format = i % 3;
+      ValueMetaDate converter = new ValueMetaDate();
+      converter.setConversionMask( masks[format] );
+      streamIndexes[i] = i;
+      converters[i] = converter;
+      sources[i] = source;
+      dateFormats[i] = format == 0 ? SnowflakeDateWriter.FORMAT_TIMESTAMP
+        : format == 1 ? SnowflakeDateWriter.FORMAT_DATE : SnowflakeDateWriter.FORMAT_TIME;
+    }
+    encoder.setColumnPlan( streamIndexes, converters, sources, dateFormats );
+  }
+
+  private Object[] buildRow( Random random ) {
+    Object[] row = new Object[rowMeta.size()];
+    for ( int i = 0; i < row.length; i++ ) {
+      ValueMetaInterface v = rowMeta.getValueMeta( i );
+      if ( !shape.startsWith( "json" ) && random.nextInt( 20 ) == 0 ) {
+        continue; // Leave some nulls
+      }
+      switch ( v.getType() ) {
+        case ValueMetaInterface.TYPE_INTEGER:
+          row[i] = random.nextLong() % 1000000000L;
+          break;
+        case ValueMetaInterface.TYPE_NUMBER:
+          row[i] = random.nextDouble() * 100000;
+          break;
+        case ValueMetaInterface.TYPE_BIGNUMBER:
+          row[i] = BigDecimal.valueOf( random.nextLong() % 100000000000L, 4 );
+          break;
+        case ValueMetaInterface.TYPE_DATE:
+          row[i] = new Date( 946684800000L + ( random.nextLong() & 0xffffffffffL ) );
+          break;
+        default:
+          row[i] = shape.startsWith( "json" ) ? buildJson( random ) : buildString( random );
+          if ( v.isStorageBinaryString() ) {
+            row[i] = ( (String) row[i] ).getBytes( StandardCharsets.UTF_8 );
+          }
+          break;
+      }
+    }
+    return row;
+  }
+
+  private String buildString( Random random ) {
+    StringBuilder value = new StringBuilder();
+    int length = 5 + random.nextInt( 40 );
+    for ( int i = 0; i < length; i++ ) {
+      value.append( (char) ( 'a' + random.nextInt( 26 ) ) );
+    }
+    if ( "strings".equals( shape ) ) {
+      switch ( random.nextInt( 4 ) ) {
+        case 0:
+          value.append( ", with a separator" );
+          break;
+        case 1:
+          value.append( " \"quoted\" \\ escaped" );
+          break;
+        case 2:
+          value.append( " café über 日本" );
+          break;
+        default:
+          break;
+      }
+    }
+    return value.toString();
+  }
+
+  private String buildJson( Random random ) {
+    return "{\"id\":" + random.nextInt( 1000000 ) + ",\"name\":\"" + buildString( random ) + "\",\"amount\":"
+      + random.nextDouble() * 1000 + ",\"tags\":[\"" + buildString( random ) + "\",\"" + buildString( random )
+      + "\"],\"active\":" + random.nextBoolean() + "}";
+  }
+
+  /**
+   * Counts the bytes written, passing them on to another stream if there is one
+   */
+  private static class CountingSink extends OutputStream {
+    private final OutputStream out;
+    private long count;
+
+    private CountingSink() {
+      this( null );
+    }
+
+    private CountingSink( OutputStream out ) {
+      this.out = out;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      count++;
+      if ( out != null ) {
+        out.write( b );
+      }
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      count += len;
+      if ( out != null ) {
+        out.write( b, off, len );
+      }
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An output stream that writes to another stream on a separate thread.  The bytes written are collected in fixed
+ * size batches, and each full batch is handed to the writer thread, which writes it to the target stream.  The
+ * batches are recycled through a bounded ring, so the thread writing to this stream only waits when every batch is
+ * waiting to be written.
+ *
+ * This lets the step thread keep encoding rows while the compression and disk writes happen on the writer thread.
+ * Closing the stream waits for the remaining batches to be written, but does not close the target stream.
+ */
+public class AsyncBatchOutputStream extends OutputStream {
+
+  /**
+   * The default size of each batch
+   */
+  public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+  /**
+   * The default number of batches in the ring
+   */
+  public static final int DEFAULT_BATCHES = 16;
+
+  // Handed to the writer thread to tell it there are no more batches
+  private static final byte[] END = new byte[0];
+
+  private final OutputStream out;
+
+  // Full batches waiting to be written, and empty batches waiting to be filled
+  private final BlockingQueue<Batch> full;
+  private final BlockingQueue<Batch> free;
+
+  private final Future<?> writerTask;
+
+  // Provides the batch buffers, null to allocate them
+  private final SnowflakeStreamPool pool;
+
+  // The batch currently being filled
+  private Batch batch;
+
+  // The first error encountered by the writer thread
+  private volatile Exception error;
+
+  private boolean closed;
+
+  /**
+   * @param out The stream to write to on the writer thread
+   * @param executor Runs the writer thread
+   */
+  public AsyncBatchOutputStream( OutputStream out, ExecutorService executor ) {
+    this( out, executor, DEFAULT_BATCH_SIZE, DEFAULT_BATCHES );
+  }
+
+  /**
+   * @param out The stream to write to on the writer thread
+   * @param executor Runs the writer thread
+   * @param batchSize The size of each batch
+   * @param batches The number of batches in the ring, at least 2
+   */
+  public AsyncBatchOutputStream( OutputStream out, ExecutorService executor, int batchSize, int batches ) {
+    this( out, executor, batchSize, batches, null );
+  }
+
+  /**
+   * @param out The stream to write to on the writer thread
+   * @param executor Runs the writer thread
+   * @param pool The pool the batch buffers are taken from and returned to on close, null to allocate them
+   */
+  public AsyncBatchOutputStream( OutputStream out, ExecutorService executor, SnowflakeStreamPool pool ) {
+    this( out, executor, DEFAULT_BATCH_SIZE, DEFAULT_BATCHES, pool );
+  }
+
+  /**
+   * @param out The stream to write to on the writer thread
+   * @param executor Runs the writer thread
+   * @param batchSize The size of each batch
+   * @param batches The number of batches in the ring, at least 2
+   * @param pool The pool the batch buffers are taken from and returned to on close, null to allocate them
+   */
+  public AsyncBatchOutputStream( OutputStream out, ExecutorService executor, int batchSize, int batches,
+                                 SnowflakeStreamPool pool ) {
+    this.out = out;
+    this.pool = pool;
+    batches = Math.max( 2, batches );
+    this.full = new ArrayBlockingQueue<>( batches + 1 );
+    this.free = new ArrayBlockingQueue<>( batches );
+    for ( int i = 1; i < batches; i++ ) {
+      free.add( new Batch( takeBuffer( batchSize ) ) );
+    }
+    this.batch = new Batch( takeBuffer( batchSize ) );
+    this.writerTask = executor.submit( new Runnable() {
+      @Override
+      public void run() {
+        writeBatches();
+      }
+    } );
+  }
+
+  @Override
+  public void write( int b ) throws IOException {
+    ensureOpen();
+    if ( batch.length == batch.data.length ) {
+      handOff();
+    }
+    batch.data[batch.length++] = (byte) b;
+  }
+
+  @Override
+  public void write( byte[] b, int off, int len ) throws IOException {
+    ensureOpen();
+    while ( len > 0 ) {
+      if ( batch.length == batch.data.length ) {
+        handOff();
+      }
+      int count = Math.min( len, batch.data.length - batch.length );
+      System.arraycopy( b, off, batch.data, batch.length, count );
+      batch.length += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+  /**
+   * Hands the bytes written so far to the writer thread, without waiting for them to be written.
+   */
+  @Override
+  public void flush() throws IOException {
+    if ( batch.length > 0 ) {
+      handOff();
+    }
+  }
+
+  /**
+   * Waits for everything written to be written to the target stream, and stops the writer thread.  The target
+   * stream is flushed but not closed.  The writer thread is stopped even when the last batch can't be handed to it.
+   */
+  @Override
+  public void close() throws IOException {
+    if ( closed ) {
+      return;
+    }
+    try {
+      flush();
+    } finally {
+      closed = true;
+      // The full queue has room for every batch and the end, so this only fails if something is badly wrong
+      if ( !full.offer( new Batch( END ) ) ) {
+        writerTask.cancel( true );
+      }
+    }
+    try {
+      writerTask.get();
+    } catch ( InterruptedException e ) {
+      writerTask.cancel( true );
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting for the file to be written" );
+    } catch ( ExecutionException e ) {
+      throw new IOException( "Error writing file", e.getCause() );
+    }
+    checkError();
+
+    // Every batch is back in the free ring or is the current batch, nothing else refers to them
+    if ( pool != null ) {
+      pool.releaseBuffer( batch.data );
+      for ( Batch b : free ) {
+        pool.releaseBuffer( b.data );
+      }
+      free.clear();
+    }
+  }
+
+  private byte[] takeBuffer( int size ) {
+    return pool == null ? new byte[size] : pool.takeBuffer( size );
+  }
+
+  /**
+   * Hands the current batch to the writer thread and takes an empty one, waiting if every batch is full.
+   */
+  private void handOff() throws IOException {
+    checkError();
+    ensureOpen();
+    put( batch );
+    try {
+      batch = free.take();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting for the file to be written" );
+    }
+    batch.length = 0;
+  }
+
+  private void put( Batch b ) throws IOException {
+    try {
+      full.put( b );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting for the file to be written" );
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    // After closing, the batches may have been returned to the pool
+    if ( closed ) {
+      throw new IOException( "Stream closed" );
+    }
+  }
+
+  private void checkError() throws IOException {
+    if ( error != null ) {
+      throw new IOException( "Error writing file", error );
+    }
+  }
+
+  /**
+   * Runs on the writer thread.  After an error the remaining batches are discarded, so the step thread never
+   * waits on a batch that will not be written.
+   */
+  private void writeBatches() {
+    try {
+      while ( true ) {
+        Batch b = full.take();
+        if ( b.data == END ) {
+          break;
+        }
+        if ( error == null ) {
+          try {
+            out.write( b.data, 0, b.length );
+          } catch ( IOException | RuntimeException e ) {
+            error = e;
+          }
+        }
+        free.put( b );
+      }
+      if ( error == null ) {
+        out.flush();
+      }
+    } catch ( IOException | RuntimeException e ) {
+      error = e;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class Batch {
+    private final byte[] data;
+    private int length;
+
+    private Batch( byte[] data ) {
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,327 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream that compresses on several threads.  The data is cut into fixed size blocks and each block
+ * is compressed into its own complete gzip member.  The members are written in order, and the concatenated members
+ * form a valid multi-member gzip file that Snowflake and standard gzip tools can read.
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+  /**
+   * The default amount of uncompressed data in each gzip member
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  private static final int GZIP_TRAILER_SIZE = 8;
+
+  private final OutputStream out;
+  private final ExecutorService executor;
+  private final int blockSize;
+
+  // Provides the block buffers and Deflaters, null to allocate them
+  private final SnowflakeStreamPool pool;
+
+  // Where the compression threads add the time they spend compressing, null to not time them
+  private final SnowflakeLoadMetrics metrics;
+
+  // The maximum number of blocks being compressed before the writer waits for the oldest one
+  private final int maxPending;
+
+  // Blocks being compressed, in the order they must be written
+  private final Deque<Future<Block>> pending = new ArrayDeque<>();
+
+  // Blocks that have been written and can be reused
+  private final Deque<Block> free = new ArrayDeque<>();
+
+  private Block current;
+  private boolean memberWritten;
+  private boolean closed;
+
+  /**
+   * A block of uncompressed input and the gzip member it compresses to
+   */
+  private static class Block {
+    private final byte[] input;
+    private int inputLength;
+    private byte[] output;
+    private int outputLength;
+
+    private Block( int blockSize, SnowflakeStreamPool pool ) {
+      int outputSize = blockSize + ( blockSize >> 3 ) + GZIP_HEADER.length + GZIP_TRAILER_SIZE;
+      input = pool == null ? new byte[blockSize] : pool.takeBuffer( blockSize );
+      output = pool == null ? new byte[outputSize] : pool.takeBuffer( outputSize );
+    }
+  }
+
+  /**
+   * @param out The stream to write the compressed data to
+   * @param executor The threads to compress on
+   * @param threads The number of threads available in the executor
+   */
+  public ParallelGZIPOutputStream( OutputStream out, ExecutorService executor, int threads ) {
+    this( out, executor, threads, DEFAULT_BLOCK_SIZE );
+  }
+
+  /**
+   * @param out The stream to write the compressed data to
+   * @param executor The threads to compress on
+   * @param threads The number of threads available in the executor
+   * @param blockSize The amount of uncompressed data in each gzip member
+   */
+  public ParallelGZIPOutputStream( OutputStream out, ExecutorService executor, int threads, int blockSize ) {
+    this( out, executor, threads, blockSize, null );
+  }
+
+  /**
+   * @param out The stream to write the compressed data to
+   * @param executor The threads to compress on
+   * @param threads The number of threads available in the executor
+   * @param blockSize The amount of uncompressed data in each gzip member
+   * @param pool The pool the block buffers and Deflaters are taken from and returned to, null to allocate them
+   */
+  public ParallelGZIPOutputStream( OutputStream out, ExecutorService executor, int threads, int blockSize,
+                                   SnowflakeStreamPool pool ) {
+    this( out, executor, threads, blockSize, pool, null );
+  }
+
+  /**
+   * @param out The stream to write the compressed data to
+   * @param executor The threads to compress on
+   * @param threads The number of threads available in the executor
+   * @param blockSize The amount of uncompressed data in each gzip member
+   * @param pool The pool the block buffers and Deflaters are taken from and returned to, null to allocate them
+   * @param metrics The load metrics each compression thread adds its compression time to, null to not time them
+   */
+  public ParallelGZIPOutputStream( OutputStream out, ExecutorService executor, int threads, int blockSize,
+                                   SnowflakeStreamPool pool, SnowflakeLoadMetrics metrics ) {
+    this.out = out;
+    this.executor = executor;
+    this.blockSize = blockSize;
+    this.maxPending = Math.max( 1, threads ) * 2;
+    this.pool = pool;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void write( int b ) throws IOException {
+    ensureOpen();
+    if ( current == null ) {
+      current = nextBlock();
+    }
+    current.input[current.inputLength++] = (byte) b;
+    if ( current.inputLength == blockSize ) {
+      submitCurrent();
+    }
+  }
+
+  @Override
+  public void write( byte[] b, int off, int len ) throws IOException {
+    ensureOpen();
+    while ( len > 0 ) {
+      if ( current == null ) {
+        current = nextBlock();
+      }
+      int count = Math.min( len, blockSize - current.inputLength );
+      System.arraycopy( b, off, current.input, current.inputLength, count );
+      current.inputLength += count;
+      off += count;
+      len -= count;
+      if ( current.inputLength == blockSize ) {
+        submitCurrent();
+      }
+    }
+  }
+
+  /**
+   * Writes any blocks that have finished compressing.  A partially filled block is not compressed until it is full
+   * or the stream is closed, so flushing does not create undersized gzip members.
+   * @throws IOException
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    while ( !pending.isEmpty() && pending.peekFirst().isDone() ) {
+      writeBlock( pending.removeFirst() );
+    }
+    out.flush();
+  }
+
+  /**
+   * Compresses the remaining data, waits for all blocks to be written, and closes the underlying stream.
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    if ( closed ) {
+      return;
+    }
+    try {
+      if ( current != null && current.inputLength > 0 ) {
+        submitCurrent();
+      } else if ( !memberWritten && pending.isEmpty() ) {
+        // An empty file still needs one gzip member to be a valid gzip file
+        current = nextBlock();
+        submitCurrent();
+      }
+      while ( !pending.isEmpty() ) {
+        writeBlock( pending.removeFirst() );
+      }
+      out.flush();
+    } finally {
+      closed = true;
+      for ( Future<Block> future : pending ) {
+        future.cancel( true );
+      }
+      pending.clear();
+      // Blocks still being compressed after an error are left to the garbage collector
+      if ( pool != null ) {
+        for ( Block block : free ) {
+          pool.releaseBuffer( block.input );
+          pool.releaseBuffer( block.output );
+        }
+      }
+      free.clear();
+      current = null;
+      out.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if ( closed ) {
+      throw new IOException( "Stream closed" );
+    }
+  }
+
+  private Block nextBlock() {
+    Block block = free.pollFirst();
+    if ( block == null ) {
+      block = new Block( blockSize, pool );
+    }
+    block.inputLength = 0;
+    block.outputLength = 0;
+    return block;
+  }
+
+  /**
+   * Hands the current block to the compression threads, first writing the oldest block if too many are pending.
+   * @throws IOException
+   */
+  private void submitCurrent() throws IOException {
+    if ( pending.size() >= maxPending ) {
+      writeBlock( pending.removeFirst() );
+    }
+    final Block block = current;
+    current = null;
+    pending.addLast( executor.submit( new Callable<Block>() {
+      @Override
+      public Block call() {
+        long start = System.nanoTime();
+        compress( block, pool );
+        if ( metrics != null ) {
+          metrics.addCompress( block.inputLength, System.nanoTime() - start );
+        }
+        return block;
+      }
+    } ) );
+  }
+
+  /**
+   * Waits for a block to be compressed and writes it to the output stream
+   * @param future The block being compressed
+   * @throws IOException
+   */
+  private void writeBlock( Future<Block> future ) throws IOException {
+    Block block;
+    try {
+      block = future.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting for compression" );
+    } catch ( ExecutionException e ) {
+      throw new IOException( "Error compressing data", e.getCause() );
+    }
+    out.write( block.output, 0, block.outputLength );
+    memberWritten = true;
+    free.addLast( block );
+  }
+
+  /**
+   * Compresses the input of a block into a complete gzip member in the output of the block.
+   * @param block The block to compress
+   * @param pool The pool to take the Deflater from, null to allocate one
+   */
+  private static void compress( Block block, SnowflakeStreamPool pool ) {
+    System.arraycopy( GZIP_HEADER, 0, block.output, 0, GZIP_HEADER.length );
+    int length = GZIP_HEADER.length;
+
+    Deflater deflater = pool == null ? new Deflater( Deflater.DEFAULT_COMPRESSION, true ) : pool.takeDeflater();
+    try {
+      deflater.setInput( block.input, 0, block.inputLength );
+      deflater.finish();
+      while ( !deflater.finished() ) {
+        if ( length == block.output.length - GZIP_TRAILER_SIZE ) {
+          byte[] grown = new byte[block.output.length * 2];
+          System.arraycopy( block.output, 0, grown, 0, length );
+          block.output = grown;
+        }
+        length += deflater.deflate( block.output, length, block.output.length - GZIP_TRAILER_SIZE - length );
+      }
+    } finally {
+      if ( pool == null ) {
+        deflater.end();
+      } else {
+        pool.releaseDeflater( deflater );
+      }
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update( block.input, 0, block.inputLength );
+    length = writeInt( block.output, length, (int) crc.getValue() );
+    length = writeInt( block.output, length, block.inputLength );
+    block.outputLength = length;
+  }
+
+  /**
+   * Writes an int in the little endian order used by gzip
+   * @return The position after the int
+   */
+  private static int writeInt( byte[] buffer, int position, int value ) {
+    buffer[position] = (byte) value;
+    buffer[position + 1] = (byte) ( value >> 8 );
+    buffer[position + 2] = (byte) ( value >> 16 );
+    buffer[position + 3] = (byte) ( value >> 24 );
+    return position + 4;
+  }
+}
@@ -0,0 +1,109 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered output stream whose buffer comes from a SnowflakeStreamPool, and is returned to the pool when the
+ * stream is closed.  The compressors write in small pieces, so a large buffer in front of the temp file turns them
+ * into a few large writes, which matters on network file systems.
+ */
+public class PooledBufferedOutputStream extends OutputStream {
+
+  private final OutputStream out;
+  private final SnowflakeStreamPool pool;
+  private byte[] buffer;
+  private int count;
+
+  /**
+   * @param out The stream to write to
+   * @param pool The pool to take the buffer from
+   * @param size The size of the buffer
+   */
+  public PooledBufferedOutputStream( OutputStream out, SnowflakeStreamPool pool, int size ) {
+    this.out = out;
+    this.pool = pool;
+    this.buffer = pool.takeBuffer( size );
+  }
+
+  @Override
+  public void write( int b ) throws IOException {
+    ensureOpen();
+    if ( count == buffer.length ) {
+      flushBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write( byte[] b, int off, int len ) throws IOException {
+    ensureOpen();
+    if ( len >= buffer.length ) {
+      // Larger than the buffer, nothing is gained by copying it
+      flushBuffer();
+      out.write( b, off, len );
+      return;
+    }
+    if ( len > buffer.length - count ) {
+      flushBuffer();
+    }
+    System.arraycopy( b, off, buffer, count, len );
+    count += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    flushBuffer();
+    out.flush();
+  }
+
+  /**
+   * Writes the rest of the buffer, closes the underlying stream, and returns the buffer to the pool.
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    if ( buffer == null ) {
+      return;
+    }
+    try {
+      flushBuffer();
+      out.close();
+    } finally {
+      pool.releaseBuffer( buffer );
+      buffer = null;
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if ( count > 0 ) {
+      out.write( buffer, 0, count );
+      count = 0;
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if ( buffer == null ) {
+      throw new IOException( "Stream closed" );
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A gzip output stream compressing on the calling thread with a Deflater from a SnowflakeStreamPool.  The Deflater
+ * is returned to the pool when the stream is closed, so a new one is not allocated for every temp file.  The output
+ * is the same single member gzip file GZIPOutputStream writes.  The time spent compressing, without the time spent
+ * writing the compressed data, is added to the load metrics when the stream is closed.
+ */
+public class PooledGZIPOutputStream extends DeflaterOutputStream {
+
+  /**
+   * The size of the buffer the compressed data is written from
+   */
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  private final SnowflakeStreamPool pool;
+  private final SnowflakeLoadMetrics metrics;
+  private final CRC32 crc = new CRC32();
+  private long compressNanos;
+  private boolean released;
+
+  /**
+   * @param out The stream to write the compressed data to
+   * @param pool The pool to take the Deflater from
+   * @throws IOException The gzip header could not be written
+   */
+  public PooledGZIPOutputStream( OutputStream out, SnowflakeStreamPool pool ) throws IOException {
+    this( out, pool, null );
+  }
+
+  /**
+   * @param out The stream to write the compressed data to
+   * @param pool The pool to take the Deflater from
+   * @param metrics The load metrics the compression time is added to, null to not time it
+   * @throws IOException The gzip header could not be written
+   */
+  public PooledGZIPOutputStream( OutputStream out, SnowflakeStreamPool pool, SnowflakeLoadMetrics metrics )
+    throws IOException {
+    super( out, pool.takeDeflater(), BUFFER_SIZE );
+    this.pool = pool;
+    this.metrics = metrics;
+    out.write( GZIP_HEADER );
+  }
+
+  @Override
+  public void write( byte[] b, int off, int len ) throws IOException {
+    super.write( b, off, len );
+    long start = System.nanoTime();
+    crc.update( b, off, len );
+    compressNanos += System.nanoTime() - start;
+  }
+
+  /**
+   * Compresses the next piece of the input and writes it, timing only the compression
+   * @throws IOException
+   */
+  @Override
+  protected void deflate() throws IOException {
+    long start = System.nanoTime();
+    int length = def.deflate( buf, 0, buf.length );
+    compressNanos += System.nanoTime() - start;
+    if ( length > 0 ) {
+      out.write( buf, 0, length );
+    }
+  }
+
+  /**
+   * Finishes the compressed data and writes the gzip trailer, without closing the underlying stream
+   * @throws IOException
+   */
+  @Override
+  public void finish() throws IOException {
+    if ( def.finished() ) {
+      return;
+    }
+    def.finish();
+    while ( !def.finished() ) {
+      deflate();
+    }
+    byte[] trailer = new byte[8];
+    writeInt( trailer, 0, (int) crc.getValue() );
+    writeInt( trailer, 4, (int) def.getBytesRead() );
+    out.write( trailer );
+  }
+
+  /**
+   * Finishes the file, closes the underlying stream, and returns the Deflater to the pool
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    if ( released ) {
+      return;
+    }
+    try {
+      super.close();
+    } finally {
+      if ( metrics != null ) {
+        metrics.addCompress( def.getBytesRead(), compressNanos );
+      }
+      // Once returned the Deflater may be used by another stream, so this stream can't touch it again
+      released = true;
+      pool.releaseDeflater( def );
+    }
+  }
+
+  /**
+   * Writes an int in the little endian order used by gzip
+   */
+  private static void writeInt( byte[] buffer, int position, int value ) {
+    buffer[position] = (byte) value;
+    buffer[position + 1] = (byte) ( value >> 8 );
+    buffer[position + 2] = (byte) ( value >> 16 );
+    buffer[position + 3] = (byte) ( value >> 24 );
+  }
+}
@@ -0,0 +1,103 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bounded pool of fixed size memory blocks used to hold files being streamed to the stage.  When every block is in
+ * use, taking a block waits until an uploaded file releases its blocks.
+ */
+public class SnowflakeBufferPool {
+
+  /**
+   * The default size of each block
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  private final int blockSize;
+  private final int maxBlocks;
+
+  // Blocks that have been released and can be reused
+  private final Deque<byte[]> free = new ArrayDeque<>();
+
+  // The number of blocks allocated, both free and in use
+  private int allocated;
+
+  /**
+   * @param maxBytes The maximum amount of memory held by the pool
+   */
+  public SnowflakeBufferPool( long maxBytes ) {
+    this( maxBytes, DEFAULT_BLOCK_SIZE );
+  }
+
+  /**
+   * @param maxBytes The maximum amount of memory held by the pool
+   * @param blockSize The size of each block
+   */
+  public SnowflakeBufferPool( long maxBytes, int blockSize ) {
+    this.blockSize = blockSize;
+    this.maxBlocks = (int) Math.max( 1, Math.min( Integer.MAX_VALUE, maxBytes / blockSize ) );
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Takes a block from the pool, waiting for one to be released if every block is in use.
+   * @param held The number of blocks already held by the caller.  If the caller holds every block, none can ever be
+   * released to it, so an error is thrown instead of waiting.
+   * @return The block
+   * @throws IOException The caller holds every block, or was interrupted while waiting
+   */
+  public synchronized byte[] take( int held ) throws IOException {
+    while ( free.isEmpty() && allocated >= maxBlocks ) {
+      if ( held >= maxBlocks ) {
+        throw new IOException( "The file does not fit in the " + ( (long) maxBlocks * blockSize / ( 1024 * 1024 ) )
+          + " MB memory buffer, lower the split size or increase the memory buffer" );
+      }
+      try {
+        wait();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException( "Interrupted while waiting for a memory buffer" );
+      }
+    }
+
+    byte[] block = free.pollFirst();
+    if ( block == null ) {
+      block = new byte[blockSize];
+      allocated++;
+    }
+    return block;
+  }
+
+  /**
+   * Returns a block to the pool
+   * @param block The block taken from the pool
+   */
+  public synchronized void release( byte[] block ) {
+    free.addFirst( block );
+    notifyAll();
+  }
+}
@@ -20,16 +20,18 @@
 
 package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
 
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.vfs2.FileObject;
 import org.pentaho.di.core.Const;
-import org.pentaho.di.core.compress.CompressionProvider;
-import org.pentaho.di.core.compress.CompressionProviderFactory;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleFileException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaBigNumber;
@@ -47,13 +49,30 @@ import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 
-import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * Bulk loads data to Snowflake
@@ -62,6 +81,34 @@ import java.util.List;
 public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
   private static Class<?> PKG = SnowflakeBulkLoaderMeta.class; // for i18n purposes, needed by Translator2!!
 
+  // The precision and scale of a Snowflake NUMBER(p,s) type
+  private static final Pattern NUMBER_TYPE_PATTERN = Pattern.compile( "\\(\\s*(\\d+)\\s*,\\s*(\\d+)\\s*\\)" );
+
+  // The least number of row groups in a Parquet file split by size
+  private static final int PARQUET_ROW_GROUPS_PER_SPLIT = 4;
+
+  // The Snowflake JDBC driver connection interface, which provides the stream upload
+  private static final String SNOWFLAKE_CONNECTION_CLASS = "net.snowflake.client.jdbc.SnowflakeConnection";
+  private static final String SNOWFLAKE_RESULT_SET_CLASS = "net.snowflake.client.jdbc.SnowflakeResultSet";
+
+  // How often the Snowpipe load history is checked, and how far back it is read to allow for clock differences
+  private static final long SNOWPIPE_POLL_INTERVAL = 5000;
+  private static final long SNOWPIPE_CLOCK_SKEW = 60000;
+
+  // The number of errors found validating the first file that are included in the step's error
+  private static final int VALIDATION_ERRORS_REPORTED = 10;
+
+  /**
+   * How often, in milliseconds, the input row sets are checked for rows while waiting for the micro-batch interval
+   */
+  private static final long INPUT_POLL_INTERVAL = 50;
+
+  /**
+   * The names a table name field may hold, unquoted Snowflake identifiers.  The name is used in the copy statement and
+   * in the file names, so anything else is rejected.
+   */
+  private static final Pattern ROUTED_TABLE_PATTERN = Pattern.compile( "[A-Za-z_][A-Za-z0-9_$]{0,254}" );
+
   private SnowflakeBulkLoaderMeta meta;
 
   private SnowflakeBulkLoaderData data;
@@ -80,25 +127,33 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
    * @throws KettleException
    */
   @SuppressWarnings( "deprecation" )
-  public synchronized boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+  public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
     meta = (SnowflakeBulkLoaderMeta) smi;
     data = (SnowflakeBulkLoaderData) sdi;
 
+    // A micro-batch is loaded when its interval passes, even when no row arrives to check it
+    if ( !first && isMicroBatchWaiting( data ) ) {
+      long remaining = data.microBatchNanos - ( System.nanoTime() - data.batchStartNanos );
+      if ( remaining <= 0 || !waitForInput( getInputRowSets(), remaining ) ) {
+        closeFile();
+        stageClosedFile();
+        loadMicroBatch();
+        openNewFile( buildFilename() );
+        return true;
+      }
+    }
+
     Object[] row = getRow(); // This also waits for a row to be finished.
 
     if ( row != null && first ) {
       first = false;
+      data.hasOutputHops = !getOutputRowSets().isEmpty();
       data.outputRowMeta = getInputRowMeta().clone();
       meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
-
-      // Open a new file here
-      //
-      openNewFile( buildFilename() );
-      data.oneFileOpened = true;
       initBinaryDataFields();
 
-      if ( meta.isSpecifyFields() && meta.getDataType().equals(
-        SnowflakeBulkLoaderMeta.DATA_TYPE_CODES[SnowflakeBulkLoaderMeta.DATA_TYPE_CSV] ) ) {
+      if ( meta.isSpecifyFields() && ( meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_CSV
+        || meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_PARQUET ) ) {
         // Get input field mapping
         data.fieldnrs = new HashMap<>();
         getDbFields();
@@ -125,109 +180,1063 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
 
           data.fieldnrs.put( meta.getSnowflakeBulkLoaderFields()[i].getTableField().toUpperCase(), streamFieldLocation );
         }
+        buildColumnPlan();
       } else if ( meta.getDataType().equals(
         SnowflakeBulkLoaderMeta.DATA_TYPE_CODES[SnowflakeBulkLoaderMeta.DATA_TYPE_JSON] ) ) {
-        data.fieldnrs = new HashMap<>();
-        int streamFieldLocation = data.outputRowMeta.indexOfValue(  meta.getJsonField() );
-        if ( streamFieldLocation < 0 ) {
+        data.jsonFieldIndex = data.outputRowMeta.indexOfValue(  meta.getJsonField() );
+        if ( data.jsonFieldIndex < 0 ) {
           throw new KettleStepException( "Field [" + meta.getJsonField()
             + "] couldn't be found in the input stream!" );
         }
-        data.fieldnrs.put( "json", streamFieldLocation );
       }
 
+      if ( meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_PARQUET ) {
+        buildParquetColumns();
+      }
+
+      if ( data.routes != null ) {
+        // Each table's first file is opened with the first row routed to it
+        data.targetTableFieldIndex = data.outputRowMeta.indexOfValue(
+          environmentSubstitute( meta.getTargetTableField() ) );
+        if ( data.targetTableFieldIndex < 0 ) {
+          throw new KettleStepException( "Field [" + meta.getTargetTableField()
+            + "] couldn't be found in the input stream!" );
+        }
+      } else {
+        // Open a new file here, after the Parquet columns are known
+        //
+        startNextFile();
+      }
+      data.oneFileOpened = true;
+      data.batchStartNanos = System.nanoTime();
+    }
+
+    if ( data.routes != null ) {
+      return processRoutedRow( row );
     }
 
+    // Resuming a failed load, is the row in a file the failed run staged?
+    boolean resumedRow = isResumedRow( row );
+
+    // Load the rows written so far as a micro-batch?
+    boolean loadBatch = !resumedRow && row != null && isMicroBatchDue();
+
     // Create a new split?
-    if ( ( row != null && data.outputCount > 0 && Const.toInt( environmentSubstitute( meta.getSplitSize() ), 0 ) > 0
-      && ( data.outputCount % Const.toInt( environmentSubstitute( meta.getSplitSize() ), 0 ) ) == 0 ) ) {
+    if ( !resumedRow && ( loadBatch || ( row != null && isSplitDue() ) ) ) {
 
       // Done with this part or with everything.
       closeFile();
+      stageClosedFile();
+
+      if ( loadBatch ) {
+        loadMicroBatch();
+      }
 
       // Not finished: open another file...
       openNewFile( buildFilename() );
     }
 
-    if ( row == null ) {
-      // no more input to be expected...
-      closeFile();
-      loadDatabase();
-      setOutputDone();
-      return false;
+    if ( row == null ) {
+      // no more input to be expected...
+      closeFile();
+      stageClosedFile();
+      loadDatabase( true );
+      data.metrics.report( log );
+      setOutputDone();
+      return false;
+    }
+
+    long encodeStart = System.nanoTime();
+    writeRowToFile( data.outputRowMeta, row );
+    data.metrics.addRow( encodeStart, System.nanoTime() );
+
+    passRowOn( row );
+
+    return true;
+  }
+
+  /**
+   * Writes a row to the files of the table named by the target table field.  At the end of the stream each table
+   * the rows were routed to is loaded with its own copy statement, one table after the other on the step's
+   * connection.
+   * @param row The input row, null at the end of the stream
+   * @return Was the row successfully processed.
+   * @throws KettleException
+   */
+  private boolean processRoutedRow( Object[] row ) throws KettleException {
+    SnowflakeBulkLoaderMeta rootMeta = meta;
+    SnowflakeBulkLoaderData rootData = data;
+    try {
+      if ( row == null ) {
+        for ( String table : rootData.routes.keySet() ) {
+          meta = rootData.routeMetas.get( table );
+          data = rootData.routes.get( table );
+          if ( log.isDetailed() ) {
+            logDetailed( "Loading " + data.outputCount + " rows into " + table );
+          }
+          closeFile();
+          stageClosedFile();
+          loadDatabase( true );
+        }
+      } else if ( !selectRoute( row ) ) {
+        // The row was sent to the error hop
+        return true;
+      } else {
+        if ( isSplitDue() ) {
+          closeFile();
+          stageClosedFile();
+          openNewFile( buildFilename() );
+        }
+        long encodeStart = System.nanoTime();
+        writeRowToFile( data.outputRowMeta, row );
+        data.metrics.addRow( encodeStart, System.nanoTime() );
+      }
+    } finally {
+      meta = rootMeta;
+      data = rootData;
+    }
+
+    if ( row == null ) {
+      data.metrics.report( log );
+      setOutputDone();
+      return false;
+    }
+
+    data.outputCount++;
+    passRowOn( row );
+
+    return true;
+  }
+
+  /**
+   * Switches the step to the metadata and data of the table named by the row's target table field.  The first row
+   * routed to a table checks the table has the columns of the target table, clones the step metadata for the table,
+   * and opens the table's first file.
+   * @param row The input row
+   * @return Was the row routed, false when the table name isn't valid and the row was sent to the error hop
+   * @throws KettleException
+   */
+  private boolean selectRoute( Object[] row ) throws KettleException {
+    String value = data.outputRowMeta.getString( row, data.targetTableFieldIndex );
+    if ( value == null || !ROUTED_TABLE_PATTERN.matcher( value ).matches() ) {
+      String message = "Field [" + meta.getTargetTableField() + "] holds [" + value + "], it must name the table "
+        + "the row is loaded into without quotes, a letter or underscore followed by letters, digits, underscores "
+        + "or dollar signs";
+      if ( getStepMeta().isDoingErrorHandling() ) {
+        putError( data.outputRowMeta, row, 1, message, meta.getTargetTableField(), "SFBL_ROUTE01" );
+        return false;
+      }
+      throw new KettleStepException( message );
+    }
+    // Unquoted identifiers are case insensitive
+    String table = value.toUpperCase();
+
+    SnowflakeBulkLoaderData route = data.routes.get( table );
+    if ( route != null ) {
+      meta = data.routeMetas.get( table );
+      data = route;
+      return true;
+    }
+
+    if ( data.routes.size() >= data.maxRoutes ) {
+      throw new KettleStepException( "Rows are routed to more than " + data.maxRoutes + " tables, [" + table
+        + "] is one too many.  Raise the maximum number of tables." );
+    }
+
+    // The fields are mapped against the target table, so a table with other columns would be loaded wrong
+    if ( data.dbFields == null ) {
+      getDbFields();
+    }
+    String schema = environmentSubstitute( meta.getTargetSchema() );
+    String tableCacheKey = SnowflakeTableCache.getKey( data.databaseMeta, schema, table );
+    List<String[]> columns = getTableColumns( tableCacheKey, schema, table );
+    if ( !sameColumns( data.dbFields, columns ) ) {
+      throw new KettleStepException( "Table [" + table + "] doesn't have the columns of the target table ["
+        + environmentSubstitute( meta.getTargetTable() ) + "], the tables rows are routed to must have the same "
+        + "columns, with the same types, in the same order" );
+    }
+
+    SnowflakeBulkLoaderMeta routeMeta = (SnowflakeBulkLoaderMeta) meta.clone();
+    routeMeta.setTargetTable( table );
+    // Every table has a file open, and each open file holds its writer thread until it is closed
+    route = data.newRoute( newWriterExecutor( getStepname() + " - file writer " + table ) );
+    route.dbFields = new ArrayList<>( columns );
+    route.tableCacheKey = tableCacheKey;
+    data.routeMetas.put( table, routeMeta );
+    data.routes.put( table, route );
+    logBasic( "Routing rows to table " + table );
+
+    meta = routeMeta;
+    data = route;
+    openNewFile( buildFilename() );
+    data.batchStartNanos = System.nanoTime();
+    return true;
+  }
+
+  /**
+   * @param expected The columns of the target table
+   * @param actual The columns of a table rows are routed to
+   * @return Do the tables have the same column names and types, in the same order
+   */
+  private static boolean sameColumns( List<String[]> expected, List<String[]> actual ) {
+    if ( expected.size() != actual.size() ) {
+      return false;
+    }
+    for ( int i = 0; i < expected.size(); i++ ) {
+      if ( !expected.get( i )[0].equals( actual.get( i )[0] )
+        || !expected.get( i )[1].equalsIgnoreCase( actual.get( i )[1] ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return Has the current file reached the split size in rows or in bytes
+   */
+  private boolean isSplitDue() {
+    int splitSize = Const.toInt( environmentSubstitute( meta.getSplitSize() ), 0 );
+    return ( data.outputCount > data.fileFirstRow && splitSize > 0 && data.outputCount % splitSize == 0 )
+      || ( data.splitFileBytes > 0 && data.fileByteCounter.getByteCount() >= data.splitFileBytes );
+  }
+
+  /**
+   * Passes the row on to the next steps, if there are any
+   * @param row The input row
+   * @throws KettleException
+   */
+  private void passRowOn( Object[] row ) throws KettleException {
+    // When the bulk loader is the last step, don't hand the row to a row set nobody reads.  Row listeners, such as
+    // preview and sniffing, can be added while the step runs, so they are checked for every row.
+    //
+    if ( data.hasOutputHops || !getRowListeners().isEmpty() ) {
+      putRow( data.outputRowMeta, row ); // in case we want it to go further...
+    } else {
+      incrementLinesWritten();
+    }
+
+    if ( checkFeedback( data.outputCount ) ) {
+      logBasic( "linenr " + data.outputCount );
+    }
+  }
+
+  /**
+   * @return The timings and byte counts of the load, for tuning the split size and warehouse size
+   */
+  public SnowflakeLoadMetrics getLoadMetrics() {
+    return data.metrics;
+  }
+
+  /**
+   * Gets the fields, and field types of the table from the table cache, running a desc table when the table is not
+   * cached.  The step copies share the cache, so the table is described once rather than by every copy.
+   * @throws KettleException
+   */
+  private void getDbFields() throws KettleException {
+    String schema = environmentSubstitute( meta.getTargetSchema() );
+    String table = environmentSubstitute( meta.getTargetTable() );
+    data.tableCacheKey = SnowflakeTableCache.getKey( data.databaseMeta, schema, table );
+    data.dbFields = new ArrayList<>( getTableColumns( data.tableCacheKey, schema, table ) );
+  }
+
+  /**
+   * Gets the columns of a table from the table cache, describing the table when it isn't cached
+   * @param key The table cache key of the table
+   * @param schema The schema of the table
+   * @param table The name of the table
+   * @return The columns of the table, each the name in upper case and the Snowflake data type
+   * @throws KettleException
+   */
+  private List<String[]> getTableColumns( String key, final String schema, final String table )
+    throws KettleException {
+    long ttl = Const.toLong( environmentSubstitute( meta.getTableCacheTtl() ), 0 ) * 1000;
+
+    return SnowflakeTableCache.getInstance().getColumns( key, ttl, new SnowflakeTableCache.Loader() {
+      @Override
+      public List<String[]> load() throws KettleException {
+        logDetailed( "Describing table " + ( Const.isEmpty( schema ) ? "" : schema + "." ) + table );
+        return SnowflakeTableCache.describeTable( data.db, schema, table );
+      }
+    } );
+  }
+
+  /**
+   * Builds the column plan used to write specified fields.  The converter for each table field is chosen from its
+   * Snowflake data type, and the stream field is looked up once, so writing a row only walks the plan arrays.
+   * @throws KettleException
+   */
+  private void buildColumnPlan() throws KettleException {
+    int columns = data.dbFields.size();
+    data.columnStreamIndexes = new int[columns];
+    data.columnConverters = new ValueMetaInterface[columns];
+    data.columnSources = new ValueMetaInterface[columns];
+    data.columnDateFormats = new int[columns];
+
+    for ( int i = 0; i < columns; i++ ) {
+      String[] field = data.dbFields.get( i );
+      String dataType = field[1].toUpperCase();
+      ValueMetaInterface v;
+      data.columnDateFormats[i] = -1;
+
+      if ( dataType.startsWith( "TIMESTAMP" ) ) {
+        v = new ValueMetaDate();
+        v.setConversionMask( "yyyy-MM-dd HH:mm:ss.SSS" );
+        data.columnDateFormats[i] = SnowflakeDateWriter.FORMAT_TIMESTAMP;
+      } else if ( dataType.startsWith( "DATE" ) ) {
+        v = new ValueMetaDate();
+        v.setConversionMask( "yyyy-MM-dd" );
+        data.columnDateFormats[i] = SnowflakeDateWriter.FORMAT_DATE;
+      } else if ( dataType.startsWith( "TIME" ) ) {
+        v = new ValueMetaDate();
+        v.setConversionMask( "HH:mm:ss.SSS" );
+        data.columnDateFormats[i] = SnowflakeDateWriter.FORMAT_TIME;
+      } else if ( dataType.startsWith( "NUMBER" ) || dataType.startsWith( "FLOAT" ) ) {
+        v = new ValueMetaBigNumber();
+      } else {
+        v = new ValueMetaString();
+        v.setLength( -1 );
+      }
+      data.columnConverters[i] = v;
+
+      Integer fieldIndex = data.fieldnrs.get( field[0] );
+      if ( fieldIndex != null ) {
+        data.columnStreamIndexes[i] = fieldIndex;
+        data.columnSources[i] = data.outputRowMeta.getValueMeta( fieldIndex );
+      } else if ( meta.isErrorColumnMismatch() ) {
+        throw new KettleException( "Error column mismatch: Database field " + field[0] + " not found on stream." );
+      } else {
+        data.columnStreamIndexes[i] = -1;
+      }
+    }
+
+    data.rowEncoder.setColumnPlan( data.columnStreamIndexes, data.columnConverters, data.columnSources,
+      data.columnDateFormats );
+  }
+
+  /**
+   * Builds the columns of the Parquet files.  When fields are specified there is a column for each table field, typed
+   * from its Snowflake data type.  Otherwise there is a column for each stream field, typed from the stream.  The
+   * columns are named after the table or stream fields, and are matched to the table by name when loading.
+   * @throws KettleException
+   */
+  private void buildParquetColumns() throws KettleException {
+    if ( meta.isSpecifyFields() ) {
+      data.parquetColumns = new SnowflakeParquetWriter.Column[data.dbFields.size()];
+      for ( int i = 0; i < data.dbFields.size(); i++ ) {
+        String[] field = data.dbFields.get( i );
+        String dataType = field[1].toUpperCase();
+
+        int type;
+        int precision = 0;
+        int scale = 0;
+        if ( dataType.startsWith( "TIMESTAMP_LTZ" ) || dataType.startsWith( "TIMESTAMP_TZ" ) ) {
+          // Written as the instant in UTC, Parquet has no place for the offset of a TZ value
+          type = SnowflakeParquetWriter.TYPE_TIMESTAMP_TZ;
+        } else if ( dataType.startsWith( "TIMESTAMP" ) ) {
+          type = SnowflakeParquetWriter.TYPE_TIMESTAMP;
+        } else if ( dataType.startsWith( "DATE" ) ) {
+          type = SnowflakeParquetWriter.TYPE_DATE;
+        } else if ( dataType.startsWith( "TIME" ) ) {
+          type = SnowflakeParquetWriter.TYPE_TIME;
+        } else if ( dataType.startsWith( "NUMBER" ) ) {
+          precision = 38;
+          Matcher matcher = NUMBER_TYPE_PATTERN.matcher( dataType );
+          if ( matcher.find() ) {
+            precision = Integer.parseInt( matcher.group( 1 ) );
+            scale = Integer.parseInt( matcher.group( 2 ) );
+          }
+          // Whole numbers that fit in a long don't need a decimal
+          type = scale == 0 && precision <= 18 ? SnowflakeParquetWriter.TYPE_INTEGER
+            : SnowflakeParquetWriter.TYPE_DECIMAL;
+        } else if ( dataType.startsWith( "FLOAT" ) || dataType.startsWith( "DOUBLE" )
+          || dataType.startsWith( "REAL" ) ) {
+          type = SnowflakeParquetWriter.TYPE_NUMBER;
+        } else if ( dataType.startsWith( "BOOLEAN" ) ) {
+          type = SnowflakeParquetWriter.TYPE_BOOLEAN;
+        } else if ( dataType.startsWith( "BINARY" ) ) {
+          type = SnowflakeParquetWriter.TYPE_BINARY;
+        } else {
+          type = SnowflakeParquetWriter.TYPE_STRING;
+        }
+        data.parquetColumns[i] = new SnowflakeParquetWriter.Column( field[0], type, precision, scale );
+      }
+    } else {
+      int columns = data.outputRowMeta.size();
+      data.parquetColumns = new SnowflakeParquetWriter.Column[columns];
+      data.columnStreamIndexes = new int[columns];
+      data.columnSources = new ValueMetaInterface[columns];
+      for ( int i = 0; i < columns; i++ ) {
+        ValueMetaInterface v = data.outputRowMeta.getValueMeta( i );
+
+        int type;
+        switch ( v.getType() ) {
+          case ValueMetaInterface.TYPE_INTEGER:
+            type = SnowflakeParquetWriter.TYPE_INTEGER;
+            break;
+          case ValueMetaInterface.TYPE_NUMBER:
+            type = SnowflakeParquetWriter.TYPE_NUMBER;
+            break;
+          case ValueMetaInterface.TYPE_BOOLEAN:
+            type = SnowflakeParquetWriter.TYPE_BOOLEAN;
+            break;
+          case ValueMetaInterface.TYPE_DATE:
+          case ValueMetaInterface.TYPE_TIMESTAMP:
+            type = SnowflakeParquetWriter.TYPE_TIMESTAMP;
+            break;
+          case ValueMetaInterface.TYPE_BINARY:
+            type = SnowflakeParquetWriter.TYPE_BINARY;
+            break;
+          default:
+            // Big numbers have no fixed scale, so they are loaded as text and converted by Snowflake
+            type = SnowflakeParquetWriter.TYPE_STRING;
+            break;
+        }
+        data.parquetColumns[i] = new SnowflakeParquetWriter.Column( v.getName(), type );
+        data.columnStreamIndexes[i] = i;
+        data.columnSources[i] = v;
+      }
+    }
+  }
+
+  /**
+   * Parquet rows reach the file a row group at a time, so a file split by size can only be split between row groups
+   * and may pass the split size by up to one row group.  Row groups are kept to a fraction of the split size.
+   * @param splitFileBytes The size files are split at in bytes, 0 when they are not split by size
+   * @return The amount of data buffered before a Parquet row group is written
+   */
+  static long getParquetRowGroupSize( long splitFileBytes ) {
+    if ( splitFileBytes <= 0 ) {
+      return SnowflakeParquetWriter.DEFAULT_ROW_GROUP_SIZE;
+    }
+    return Math.max( 1, Math.min( SnowflakeParquetWriter.DEFAULT_ROW_GROUP_SIZE,
+      splitFileBytes / PARQUET_ROW_GROUPS_PER_SPLIT ) );
+  }
+
+  /**
+   * Starts the next file.  When resuming a failed load, the next file staged by the failed run is started, and its
+   * rows are only checked against the manifest rather than written.  Otherwise a new file is opened.
+   * @throws KettleException
+   */
+  private void startNextFile() throws KettleException {
+    if ( data.resumeIndex < data.resumeEntries.size() ) {
+      data.resumeEntry = data.resumeEntries.get( data.resumeIndex++ );
+      data.fileFirstRow = data.outputCount;
+      data.rowChecksum.reset();
+      data.rowOut = new CheckedOutputStream( NullOutputStream.NULL_OUTPUT_STREAM, data.rowChecksum );
+      if ( log.isDetailed() ) {
+        logDetailed( "Skipping the " + data.resumeEntry.getRowCount() + " rows of "
+          + data.resumeEntry.getFilename() + ", staged by the failed run" );
+      }
+    } else {
+      openNewFile( buildFilename() );
+    }
+  }
+
+  /**
+   * When resuming a failed load, moves through the files staged by the failed run as their rows are read
+   * @param row The input row, null at the end of the stream
+   * @return True if the row is in a file staged by the failed run, so it is not written again
+   * @throws KettleException The rows read differ from the rows written by the failed run
+   */
+  private boolean isResumedRow( Object[] row ) throws KettleException {
+    while ( data.resumeEntry != null ) {
+      if ( row != null && data.outputCount < data.resumeEntry.getFirstRow() + data.resumeEntry.getRowCount() ) {
+        return true;
+      }
+      finishResumedFile();
+      if ( row != null ) {
+        startNextFile();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks the rows skipped for a file staged by the failed run are the rows it wrote to the file, and queues the
+   * file to be loaded if the failed run did not load it
+   * @throws KettleException The rows read differ from the rows written by the failed run
+   */
+  private void finishResumedFile() throws KettleException {
+    SnowflakeLoadManifest.Entry entry = data.resumeEntry;
+    data.resumeEntry = null;
+    if ( data.outputCount - data.fileFirstRow != entry.getRowCount()
+      || data.rowChecksum.getValue() != entry.getChecksum() ) {
+      throw new KettleException( "The rows read differ from the rows the failed run wrote to "
+        + entry.getFilename() + ".  Delete the load manifest " + data.manifest.getFilename()
+        + " to load from the beginning." );
+    }
+    if ( !entry.isLoaded() ) {
+      data.resumedFiles.add( entry.getFilename() );
+    }
+  }
+
+  /**
+   * Records a file put to the stage in the load manifest, so a rerun after a failure skips its rows.  Called by the
+   * upload threads as each file is put.
+   * @param filename The file put to the stage
+   * @throws KettleException The manifest could not be written
+   */
+  void fileStaged( String filename ) throws KettleException {
+    if ( data.manifest != null ) {
+      data.manifest.staged( Collections.singletonList( filename ) );
+    }
+  }
+
+  /**
+   * Rows of a file the failed run staged are not written, so the file is not closed until they are all read.
+   * @param data The step data
+   * @return Are rows written since the current micro-batch started waiting for the micro-batch interval to pass
+   */
+  static boolean isMicroBatchWaiting( SnowflakeBulkLoaderData data ) {
+    return data.routes == null && data.microBatchNanos > 0 && data.resumeEntry == null
+      && data.outputCount != data.batchStartCount && data.outputCount != data.fileFirstRow;
+  }
+
+  /**
+   * Waits for a row on any of the input row sets, or for every row set to be done, without reading the row.  The row
+   * is read by getRow() as usual.
+   * @param rowSets The input row sets of the step
+   * @param timeoutNanos The most time to wait, in nanoseconds
+   * @return Is there a row to read or is the input done, false when the time passed first
+   */
+  static boolean waitForInput( List<RowSet> rowSets, long timeoutNanos ) {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while ( true ) {
+      boolean done = true;
+      for ( RowSet rowSet : rowSets ) {
+        if ( rowSet.size() > 0 ) {
+          return true;
+        }
+        done &= rowSet.isDone();
+      }
+      long remaining = deadline - System.nanoTime();
+      if ( done || remaining <= 0 ) {
+        return done;
+      }
+      try {
+        Thread.sleep( Math.max( 1, Math.min( INPUT_POLL_INTERVAL, TimeUnit.NANOSECONDS.toMillis( remaining ) ) ) );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return Has the current micro-batch reached the micro-batch interval or size, with rows written since it started
+   */
+  private boolean isMicroBatchDue() {
+    if ( data.outputCount == data.batchStartCount || data.outputCount == data.fileFirstRow ) {
+      return false;
+    }
+    return ( data.microBatchNanos > 0 && System.nanoTime() - data.batchStartNanos >= data.microBatchNanos )
+      || ( data.microBatchBytes > 0 && data.batchBytes + data.fileByteCounter.getByteCount() >= data.microBatchBytes );
+  }
+
+  /**
+   * Loads the files closed since the last micro-batch, removes the temp files, and starts the next micro-batch.
+   * The connection and any upload connections stay open for the next batch.
+   * @throws KettleException
+   */
+  private void loadMicroBatch() throws KettleException {
+    if ( log.isDetailed() ) {
+      logDetailed( "Loading micro-batch of " + ( data.outputCount - data.batchStartCount ) + " rows in "
+        + data.getPreviouslyOpenedFiles().size() + " files" );
+    }
+    loadDatabase( false );
+    deleteTempFiles();
+    data.previouslyOpenedFiles.clear();
+
+    data.batchStartNanos = System.nanoTime();
+    data.batchStartCount = data.outputCount;
+    data.batchBytes = 0;
+  }
+
+  /**
+   * Runs the commands to put the data to the Snowflake stage, the copy command to load the table, and finally
+   * a commit to commit the transaction.
+   * @param lastBatch Is this the final load of the step, or a micro-batch with more to come
+   * @throws KettleException
+   */
+  private void loadDatabase( boolean lastBatch ) throws KettleException {
+    if ( data.uploader != null && !lastBatch ) {
+      // Wait for the files of this batch, the uploader is kept for the next batch
+      data.uploader.awaitUploads();
+    } else if ( data.uploader != null ) {
+      // The files were put to the stage as they were closed, wait for the last of them.
+      data.uploader.finish();
+      data.uploader = null;
+    } else if ( data.bufferPool != null ) {
+      // The files were streamed to the stage as they were closed
+      logDebug( "Files streamed to the stage from memory" );
+    } else if ( data.uploadConnections > 1 ) {
+      // Put each file with its own put statement, several at a time on separate connections
+      data.uploader = new SnowflakeStageUploader( this, data.databaseMeta, data.uploadConnections,
+        data.getPreviouslyOpenedFiles().size() );
+      for ( String filename : data.getPreviouslyOpenedFiles() ) {
+        data.uploader.submit( filename );
+      }
+      data.uploader.finish();
+      data.uploader = null;
+    } else if ( data.microBatchNanos > 0 || data.microBatchBytes > 0 ) {
+      // The files of earlier batches may still be in the work directory, so only put the files of this batch
+      for ( String filename : data.getPreviouslyOpenedFiles() ) {
+        putFiles( data.db, filename );
+      }
+    } else if ( !data.getPreviouslyOpenedFiles().isEmpty() ) {
+      boolean endsWithSlash = environmentSubstitute( meta.getWorkDirectory() ).endsWith( "\\" )
+        || environmentSubstitute( meta.getWorkDirectory() ).endsWith( "/" );
+      // When the copies are coordinated only put the files of this copy, the other copies put their own
+      putFiles( data.db, environmentSubstitute( meta.getWorkDirectory() ) + ( endsWithSlash ? "" : "/" )
+        + environmentSubstitute( meta.getTargetTable() ) + "_" + meta.getFileDate() + "_"
+        + ( data.coordinator != null ? getCopy() + "_" : "" ) + "*" );
+    }
+
+    List<String> filenames = data.getPreviouslyOpenedFiles();
+    List<SnowflakeLoadManifest> manifests = Collections.emptyList();
+    if ( data.manifest != null ) {
+      data.manifest.staged( filenames );
+      manifests = Collections.singletonList( data.manifest );
+    }
+    if ( !data.resumedFiles.isEmpty() ) {
+      // The files staged by the failed run are loaded with the first batch
+      filenames = new ArrayList<>( filenames );
+      filenames.addAll( data.resumedFiles );
+      data.resumedFiles.clear();
+    }
+
+    if ( data.coordinator != null ) {
+      // Only the last copy to finish loads the files, including the files staged by the other copies
+      SnowflakeLoadCoordinator coordinator = data.coordinator;
+      data.coordinator = null;
+      filenames = coordinator.finish( filenames, data.manifest );
+      if ( filenames == null ) {
+        logBasic( "Files staged, they will be loaded by the last copy of the step to finish" );
+        return;
+      }
+      manifests = coordinator.getManifests();
+    }
+
+    if ( filenames.isEmpty() ) {
+      // Every file was loaded by the failed run before it failed
+      logBasic( "No files to load" );
+      finishManifests( manifests, filenames, lastBatch );
+      return;
+    }
+
+    if ( meta.isSnowpipe() ) {
+      loadWithSnowpipe( filenames );
+      finishManifests( manifests, filenames, lastBatch );
+      return;
+    }
+
+    if ( meta.isMerge() ) {
+      // An empty temporary table for the batch, created before the copy as creating a table commits
+      String createSQL = meta.getCreateMergeTableStatement( this );
+      logDebug( "Executing SQL " + createSQL );
+      data.db.execStatement( createSQL );
+    }
+
+    try {
+      copyIntoTable( filenames );
+    } catch ( KettleException e ) {
+      if ( meta.isMerge() ) {
+        dropMergeTable();
+      }
+      throw e;
+    }
+
+    data.db.execStatement( "commit" );
+
+    finishManifests( manifests, filenames, lastBatch );
+  }
+
+  /**
+   * Runs the copy statement loading the files, and the merge when merging, without committing
+   * @param filenames The files to load
+   * @throws KettleException
+   */
+  private void copyIntoTable( List<String> filenames ) throws KettleException {
+    String copySQL = meta.getCopyStatement( this, filenames );
+    logDebug( "Executing SQL " + copySQL );
+    long copyStart = System.nanoTime();
+    ResultSet resultSet;
+    try {
+      resultSet = data.db.openQuery( copySQL, null, null, ResultSet.FETCH_FORWARD, false );
+    } catch ( KettleDatabaseException e ) {
+      // The table may have changed since it was described, describe it again next time
+      if ( data.tableCacheKey != null ) {
+        SnowflakeTableCache.getInstance().invalidate( data.tableCacheKey );
+      }
+      throw e;
+    }
+    RowMetaInterface rowMeta = data.db.getReturnRowMeta();
+
+    // With an error hop the rejected records are sent to it, the results of each file are only logged in detail
+    boolean errorRows = getStepMeta().isDoingErrorHandling();
+    String copyQueryId = errorRows ? getQueryId( resultSet ) : null;
+    Object[] row = data.db.getRow( resultSet );
+    int rowsLoaded = 0;
+    int rowsLoadedField = rowMeta.indexOfValue( "rows_loaded" );
+    int rowsError = 0;
+    int errorField = rowMeta.indexOfValue( "errors_seen" );
+    logResult( errorRows, "====================== Bulk Load Results======================" );
+    int rowNum = 1;
+    while ( row != null ) {
+      logResult( errorRows, "---------------------- Row " + rowNum + " ----------------------" );
+      for ( int i = 0; i < rowMeta.getFieldNames().length; i++ ) {
+        logResult( errorRows, rowMeta.getFieldNames()[i] + " = " + rowMeta.getString( row, i ) );
+      }
+
+      if ( rowsLoadedField >= 0 ) {
+        rowsLoaded += rowMeta.getInteger( row, rowsLoadedField );
+      }
+
+      if ( errorField >= 0 ) {
+        rowsError += rowMeta.getInteger( row, errorField );
+      }
+
+      rowNum++;
+      row = data.db.getRow( resultSet );
+    }
+    data.db.closeQuery( resultSet );
+    if ( errorRows && rowsError > 0 ) {
+      // Each error row sent counts as a rejected line
+      putLoadErrors( copyQueryId != null ? copyQueryId : getLastQueryId() );
+    } else {
+      setLinesRejected( getLinesRejected() + rowsError );
+    }
+    if ( meta.isMerge() ) {
+      // The copy loaded the temporary table, the rows reach the target table with the merge
+      mergeIntoTable();
+    } else {
+      // Micro-batches add to the rows loaded by the earlier batches
+      setLinesOutput( getLinesOutput() + rowsLoaded );
+    }
+    data.metrics.addCopy( System.nanoTime() - copyStart );
+  }
+
+  /**
+   * Rolls back a failed merge load and drops its temporary table, so it doesn't hold the rows of the failed batch
+   * for the rest of the session.  Dropping a table commits, so the load is rolled back first.  A failure to clean up
+   * is only logged, the load failure is the error reported.
+   */
+  private void dropMergeTable() {
+    try {
+      data.db.execStatement( "rollback" );
+      String dropSQL = meta.getDropMergeTableStatement( this );
+      logDebug( "Executing SQL " + dropSQL );
+      data.db.execStatement( dropSQL );
+    } catch ( KettleException e ) {
+      logError( "Unable to drop the temporary merge table " + meta.getMergeTable( this ), e );
+    }
+  }
+
+  /**
+   * Sends the records rejected by the copy statement to the error hop, one error row for each error.  The errors are
+   * streamed from the validate function as they are read.  The error rows have the layout of the input rows with
+   * every field empty, as the rejected record is a line of a file rather than an input row.  The error description
+   * holds the file, line and error, followed by the rejected record, the error field the column and the error code
+   * the Snowflake error code.
+   * @param queryId The query id of the copy statement
+   * @throws KettleException
+   */
+  private void putLoadErrors( String queryId ) throws KettleException {
+    String validateSQL = meta.getValidateStatement( this, queryId );
+    logDebug( "Executing SQL " + validateSQL );
+    ResultSet resultSet = data.db.openQuery( validateSQL, null, null, ResultSet.FETCH_FORWARD, false );
+    RowMetaInterface rowMeta = data.db.getReturnRowMeta();
+
+    int errorField = rowMeta.indexOfValue( "ERROR" );
+    int fileField = rowMeta.indexOfValue( "FILE" );
+    int lineField = rowMeta.indexOfValue( "LINE" );
+    int recordField = rowMeta.indexOfValue( "REJECTED_RECORD" );
+    int columnField = rowMeta.indexOfValue( "COLUMN_NAME" );
+    int codeField = rowMeta.indexOfValue( "CODE" );
+    long errors = 0;
+    Object[] row = data.db.getRow( resultSet );
+    while ( row != null ) {
+      StringBuilder description = new StringBuilder();
+      if ( fileField >= 0 ) {
+        description.append( rowMeta.getString( row, fileField ) );
+        if ( lineField >= 0 ) {
+          description.append( " line " ).append( rowMeta.getString( row, lineField ) );
+        }
+        description.append( ": " );
+      }
+      if ( errorField >= 0 ) {
+        description.append( rowMeta.getString( row, errorField ) );
+      }
+      if ( recordField >= 0 ) {
+        description.append( Const.CR ).append( rowMeta.getString( row, recordField ) );
+      }
+      putError( data.outputRowMeta, RowDataUtil.allocateRowData( data.outputRowMeta.size() ), 1,
+        description.toString(), columnField >= 0 ? rowMeta.getString( row, columnField ) : null,
+        codeField >= 0 ? rowMeta.getString( row, codeField ) : null );
+      errors++;
+      row = data.db.getRow( resultSet );
+    }
+    data.db.closeQuery( resultSet );
+    logBasic( "Sent " + errors + " rejected records to the error hop" );
+  }
+
+  /**
+   * Gets the query id of a statement from its results, when the Snowflake JDBC driver provides it
+   * @param resultSet The results of the statement
+   * @return The query id, null when the driver doesn't provide it
+   */
+  private String getQueryId( ResultSet resultSet ) {
+    try {
+      Class<?> snowflakeResultSet =
+        Class.forName( SNOWFLAKE_RESULT_SET_CLASS, true, resultSet.getClass().getClassLoader() );
+      return (String) snowflakeResultSet.getMethod( "getQueryID" ).invoke( resultSet.unwrap( snowflakeResultSet ) );
+    } catch ( Exception e ) {
+      logDebug( "The query id isn't available from the results: " + e.getMessage() );
+      return null;
+    }
+  }
+
+  /**
+   * Gets the query id of the last statement run in the session.  Only called straight after the copy statement, so
+   * the last statement is the copy.
+   * @return The query id
+   * @throws KettleException
+   */
+  private String getLastQueryId() throws KettleException {
+    ResultSet resultSet = data.db.openQuery( "SELECT LAST_QUERY_ID()", null, null, ResultSet.FETCH_FORWARD, false );
+    Object[] row = data.db.getRow( resultSet );
+    String queryId = row == null ? null : data.db.getReturnRowMeta().getString( row, 0 );
+    data.db.closeQuery( resultSet );
+    if ( Const.isEmpty( queryId ) ) {
+      throw new KettleException( "Unable to get the query id of the copy statement" );
+    }
+    return queryId;
+  }
+
+  /**
+   * Logs a line of the copy results, in detail only when the rejected records are sent to the error hop
+   */
+  private void logResult( boolean errorRows, String message ) {
+    if ( errorRows ) {
+      logDetailed( message );
+    } else {
+      logBasic( message );
+    }
+  }
+
+  /**
+   * Merges the rows copied into the temporary table into the target table, in the same transaction as the copy.
+   * Rows matching on the key fields are counted as updated, the rest as output.
+   * @throws KettleException
+   */
+  private void mergeIntoTable() throws KettleException {
+    if ( data.dbFields == null ) {
+      getDbFields();
+    }
+    String mergeSQL = meta.getMergeStatement( this, data.dbFields );
+    logDebug( "Executing SQL " + mergeSQL );
+    ResultSet resultSet;
+    try {
+      resultSet = data.db.openQuery( mergeSQL, null, null, ResultSet.FETCH_FORWARD, false );
+    } catch ( KettleDatabaseException e ) {
+      // The table may have changed since it was described, describe it again next time
+      if ( data.tableCacheKey != null ) {
+        SnowflakeTableCache.getInstance().invalidate( data.tableCacheKey );
+      }
+      throw e;
+    }
+    RowMetaInterface rowMeta = data.db.getReturnRowMeta();
+
+    long rowsInserted = 0;
+    long rowsUpdated = 0;
+    int insertedField = rowMeta.indexOfValue( "number of rows inserted" );
+    int updatedField = rowMeta.indexOfValue( "number of rows updated" );
+    Object[] row = data.db.getRow( resultSet );
+    while ( row != null ) {
+      if ( insertedField >= 0 ) {
+        rowsInserted += rowMeta.getInteger( row, insertedField );
+      }
+      if ( updatedField >= 0 ) {
+        rowsUpdated += rowMeta.getInteger( row, updatedField );
+      }
+      row = data.db.getRow( resultSet );
+    }
+    data.db.closeQuery( resultSet );
+    logBasic( "Merged into " + environmentSubstitute( meta.getTargetTable() ) + ": " + rowsInserted
+      + " rows inserted, " + rowsUpdated + " rows updated" );
+
+    setLinesOutput( getLinesOutput() + rowsInserted );
+    setLinesUpdated( getLinesUpdated() + rowsUpdated );
+  }
+
+  /**
+   * Records a successful load in the load manifests.  After the last load the manifests are deleted, so the next run
+   * starts from the beginning.  After a micro-batch the files are marked loaded, so a rerun skips them without
+   * loading them again.
+   * @param manifests The manifests of the copies of the step whose files were loaded
+   * @param filenames The files loaded
+   * @param lastBatch Was this the final load of the step
+   * @throws KettleException A manifest could not be written or deleted
+   */
+  private void finishManifests( List<SnowflakeLoadManifest> manifests, List<String> filenames, boolean lastBatch )
+    throws KettleException {
+    for ( SnowflakeLoadManifest manifest : manifests ) {
+      if ( lastBatch ) {
+        manifest.delete();
+      } else {
+        manifest.loaded( filenames );
+      }
+    }
+  }
+
+  /**
+   * Registers the staged files with the Snowpipe pipe, and waits for the pipe to load them.  No copy statement is
+   * run, so the warehouse of the connection is only used to put the files.
+   * @param filenames The files staged
+   * @throws KettleException The files could not be registered, or the pipe failed to load a file in time
+   */
+  private void loadWithSnowpipe( List<String> filenames ) throws KettleException {
+    if ( data.snowpipeClient == null ) {
+      data.snowpipeClient = createSnowpipeClient();
     }
 
-    writeRowToFile( data.outputRowMeta, row );
-    putRow( data.outputRowMeta, row ); // in case we want it to go further...
+    // The files are put to the root of the stage, so their paths are their names
+    List<String> paths = new ArrayList<>();
+    for ( String filename : filenames ) {
+      paths.add( KettleVFS.getFileObject( filename ).getName().getBaseName() );
+    }
 
-    if ( checkFeedback( data.outputCount ) ) {
-      logBasic( "linenr " + data.outputCount );
+    long loadStart = System.nanoTime();
+    long startTime = System.currentTimeMillis();
+    long timeout = TimeUnit.SECONDS.toMillis( Const.toLong( environmentSubstitute( meta.getSnowpipeTimeout() ), 600 ) );
+    logDebug( "Registering " + paths.size() + " files with pipe " + environmentSubstitute( meta.getPipeName() ) );
+    data.snowpipeClient.insertFiles( paths );
+
+    List<SnowpipeClient.FileLoad> loads = waitForSnowpipe( data.snowpipeClient, paths, startTime, timeout,
+      SNOWPIPE_POLL_INTERVAL, this::isStopped );
+
+    long rowsLoaded = 0;
+    long rowsError = 0;
+    logBasic( "====================== Snowpipe Load Results======================" );
+    for ( SnowpipeClient.FileLoad load : loads ) {
+      logBasic( load.getPath() + " = " + load.getStatus() + ", " + load.getRowsInserted() + " rows loaded, "
+        + load.getErrorsSeen() + " errors" );
+      rowsLoaded += load.getRowsInserted();
+      rowsError += load.getErrorsSeen();
     }
+    data.metrics.addCopy( System.nanoTime() - loadStart );
+    setLinesOutput( getLinesOutput() + rowsLoaded );
+    setLinesRejected( getLinesRejected() + rowsError );
 
-    return true;
+    checkSnowpipeLoads( loads );
   }
 
   /**
-   * Runs a desc table to get the fields, and field types from the database.  Uses a desc table as opposed
-   * to the select * from table limit 0 that Pentaho normally uses to get the fields and types, due to the need
-   * to handle the Time type.  The select * method through Pentaho does not give us the ability to differentiate
-   * time from timestamp.
-   * @throws KettleException
+   * Polls the load history of a pipe until the pipe has finished with every file.
+   * @param client The client of the pipe the files were registered with
+   * @param paths The paths of the files registered
+   * @param startTime The time, in milliseconds since the epoch, just before the files were registered
+   * @param timeout The most time to wait, in milliseconds
+   * @param pollInterval The time between reads of the load history, in milliseconds
+   * @param stopped Is the step stopped, checked before each read
+   * @return The loads of the files, in the order the pipe finished them
+   * @throws KettleException The load history could not be read, or the pipe did not finish in time
    */
-  private void getDbFields() throws KettleException {
-    data.dbFields = new ArrayList<>();
-    String SQL = "desc table ";
-    if ( !Const.isEmpty( environmentSubstitute( meta.getTargetSchema() ) ) ) {
-      SQL += environmentSubstitute( meta.getTargetSchema() ) + ".";
-    }
-    SQL += environmentSubstitute( meta.getTargetTable() );
-    logDetailed( "Executing SQL " + SQL );
-    try {
-      ResultSet resultSet = data.db.openQuery( SQL, null, null, ResultSet.FETCH_FORWARD, false );
+  static List<SnowpipeClient.FileLoad> waitForSnowpipe( SnowpipeClient client, Collection<String> paths,
+                                                        long startTime, long timeout, long pollInterval,
+                                                        BooleanSupplier stopped ) throws KettleException {
+    Set<String> pending = new HashSet<>( paths );
+    List<SnowpipeClient.FileLoad> loads = new ArrayList<>();
+    while ( !pending.isEmpty() ) {
+      if ( stopped.getAsBoolean() ) {
+        throw new KettleException( "Step stopped while waiting for Snowpipe to load the files" );
+      }
+      if ( System.currentTimeMillis() - startTime > timeout ) {
+        throw new KettleException( "Timed out waiting for Snowpipe to load " + pending.size() + " files "
+          + pending );
+      }
+      try {
+        Thread.sleep( pollInterval );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        throw new KettleException( "Interrupted while waiting for Snowpipe to load the files", e );
+      }
 
-      RowMetaInterface rowMeta = data.db.getReturnRowMeta();
-      int nameField = rowMeta.indexOfValue( "NAME" );
-      int typeField = rowMeta.indexOfValue( "TYPE" );
-      if ( nameField < 0 || typeField < 0 ) {
-        throw new KettleException( "Unable to get database fields" );
+      for ( SnowpipeClient.FileLoad load : client.loadHistory( startTime - SNOWPIPE_CLOCK_SKEW ) ) {
+        if ( load.isComplete() && pending.remove( load.getPath() ) ) {
+          loads.add( load );
+        }
       }
+    }
+    return loads;
+  }
 
-      Object[] row = data.db.getRow( resultSet );
-      if ( row == null ) {
-        throw new KettleException( "No fields found in table" );
+  /**
+   * Fails the load when the pipe could not load a file.  Files loaded in part are accepted, their rejected rows are
+   * counted as rejected lines.
+   * @param loads The loads of the files by the pipe
+   * @throws KettleException Listing the files the pipe failed to load, with their first error
+   */
+  static void checkSnowpipeLoads( List<SnowpipeClient.FileLoad> loads ) throws KettleException {
+    List<String> failures = new ArrayList<>();
+    for ( SnowpipeClient.FileLoad load : loads ) {
+      if ( SnowpipeClient.FileLoad.STATUS_LOAD_FAILED.equals( load.getStatus() ) ) {
+        failures.add( load.getPath() + ": " + load.getFirstError() );
       }
-      while ( row != null ) {
-        String[] field = new String[2];
-        field[0] = rowMeta.getString( row, nameField ).toUpperCase();
-        field[1] = rowMeta.getString( row, typeField );
-        data.dbFields.add( field );
-        row = data.db.getRow( resultSet );
+    }
+    if ( !failures.isEmpty() ) {
+      StringBuilder message = new StringBuilder( "Snowpipe failed to load " + failures.size() + " files" );
+      for ( String failure : failures ) {
+        message.append( Const.CR ).append( failure );
       }
-      data.db.closeQuery( resultSet );
-    } catch ( Exception ex ) {
-      throw new KettleException( "Error getting database fields", ex );
+      throw new KettleException( message.toString() );
     }
   }
 
   /**
-   * Runs the commands to put the data to the Snowflake stage, the copy command to load the table, and finally
-   * a commit to commit the transaction.
+   * Creates the client used to load files with Snowpipe.  Override to use a different client, for example a local
+   * stand-in for the Snowpipe service.
+   * @return The Snowpipe client
+   * @throws KettleException
+   */
+  protected SnowpipeClient createSnowpipeClient() throws KettleException {
+    // The account is the first part of the host name, as for the JDBC URL
+    String hostname = environmentSubstitute( data.databaseMeta.getHostname() );
+    String account = hostname.contains( "." ) ? hostname.substring( 0, hostname.indexOf( "." ) ) : hostname;
+
+    String baseUrl = environmentSubstitute( meta.getSnowpipeUrl() );
+    if ( Const.isEmpty( baseUrl ) ) {
+      baseUrl = "https://" + ( hostname.contains( "." ) ? hostname : hostname + ".snowflakecomputing.com" );
+    }
+
+    String privateKey = KettleVFS.getTextFileContent( environmentSubstitute( meta.getPrivateKeyFile() ), "UTF-8" );
+    return new SnowpipeRestClient( baseUrl, environmentSubstitute( meta.getPipeName() ), account,
+      environmentSubstitute( data.databaseMeta.getUsername() ), privateKey );
+  }
+
+  /**
+   * Runs a put statement to copy local files to the Snowflake stage.
+   * @param db The connection to run the put on
+   * @param localFiles The local file, or a file pattern, to put
    * @throws KettleDatabaseException
-   * @throws KettleFileException
    * @throws KettleValueException
    */
-  private void loadDatabase() throws KettleDatabaseException, KettleFileException, KettleValueException {
-    boolean filesUploaded = false;
-    boolean endsWithSlash = environmentSubstitute( meta.getWorkDirectory() ).endsWith( "\\" )
-      || environmentSubstitute( meta.getWorkDirectory() ).endsWith( "/" );
-    String SQL = "PUT 'file://" + environmentSubstitute( meta.getWorkDirectory() ).replaceAll( "\\\\", "/" )
-      + ( endsWithSlash ? "" : "/" ) + environmentSubstitute( meta.getTargetTable() ) + "_"
-      + meta.getFileDate() + "_*' " + meta.getStage( this ) + ";";
+  void putFiles( Database db, String localFiles ) throws KettleDatabaseException, KettleValueException {
+    String SQL = "PUT 'file://" + localFiles.replaceAll( "\\\\", "/" ) + "' " + meta.getStage( this );
+    if ( data.putParallel > 0 ) {
+      SQL += " PARALLEL = " + data.putParallel;
+    }
+    if ( meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_PARQUET ) {
+      // Parquet files are already compressed, and must keep their name for the copy
+      SQL += " AUTO_COMPRESS = FALSE";
+    }
+    SQL += ";";
 
     logDebug( "Executing SQL " + SQL );
-    ResultSet putResultSet = data.db.openQuery( SQL, null, null, ResultSet.FETCH_FORWARD, false );
-    RowMetaInterface putRowMeta = data.db.getReturnRowMeta();
-    Object[] putRow = data.db.getRow( putResultSet );
+    long putStart = System.nanoTime();
+    ResultSet putResultSet = db.openQuery( SQL, null, null, ResultSet.FETCH_FORWARD, false );
+    RowMetaInterface putRowMeta = db.getReturnRowMeta();
+    Object[] putRow = db.getRow( putResultSet );
     logDebug( "=========================Put File Results======================" );
     int fileNum = 0;
     while ( putRow != null ) {
@@ -242,45 +1251,127 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
       }
       fileNum++;
 
-      putRow = data.db.getRow( putResultSet );
+      putRow = db.getRow( putResultSet );
     }
-    data.db.closeQuery( putResultSet );
+    db.closeQuery( putResultSet );
+    data.metrics.addUpload( System.nanoTime() - putStart );
+  }
 
-    String copySQL = meta.getCopyStatement( this, data.getPreviouslyOpenedFiles() );
-    logDebug( "Executing SQL " + copySQL );
-    ResultSet resultSet = data.db.openQuery( copySQL, null, null, ResultSet.FETCH_FORWARD, false );
-    RowMetaInterface rowMeta = data.db.getReturnRowMeta();
+  /**
+   * Streams a file held in memory to the Snowflake stage, using the stream upload of the Snowflake JDBC driver.
+   * The driver is called through reflection, as it is provided by the Kettle installation and not the plugin.
+   * @param db The connection to upload the file on
+   * @param filename The name of the file, its base name is used on the stage
+   * @param memoryFile The contents of the file
+   * @throws KettleException
+   */
+  void uploadStream( Database db, String filename, SnowflakeMemoryFile memoryFile ) throws KettleException {
+    String stage = meta.getStage( this );
+    String shortFile = KettleVFS.getFileObject( filename ).getName().getBaseName();
+    logDebug( "Streaming " + memoryFile.size() + " bytes to " + stage + "/" + shortFile );
+
+    long uploadStart = System.nanoTime();
+    try ( InputStream inputStream = memoryFile.getInputStream() ) {
+      Connection connection = db.getConnection();
+      Class<?> snowflakeConnection =
+        Class.forName( SNOWFLAKE_CONNECTION_CLASS, true, connection.getClass().getClassLoader() );
+      Method uploadStream = snowflakeConnection.getMethod( "uploadStream", String.class, String.class,
+        InputStream.class, String.class, boolean.class );
+      // The files are already compressed, so the driver must not compress them again
+      uploadStream.invoke( connection.unwrap( snowflakeConnection ), stage, null, inputStream, shortFile, false );
+    } catch ( InvocationTargetException e ) {
+      throw new KettleDatabaseException( "Error streaming file " + shortFile + " to Snowflake stage", e.getCause() );
+    } catch ( ClassNotFoundException | NoSuchMethodException e ) {
+      throw new KettleDatabaseException( "The Snowflake JDBC driver does not support stream uploads, "
+        + "upgrade the driver or turn off streaming files from memory", e );
+    } catch ( Exception e ) {
+      throw new KettleDatabaseException( "Error streaming file " + shortFile + " to Snowflake stage", e );
+    }
+    data.metrics.addUpload( System.nanoTime() - uploadStart );
+  }
 
-    Object[] row = data.db.getRow( resultSet );
-    int rowsLoaded = 0;
-    int rowsLoadedField = rowMeta.indexOfValue( "rows_loaded" );
-    int rowsError = 0;
-    int errorField = rowMeta.indexOfValue( "errors_seen" );
-    logBasic( "====================== Bulk Load Results======================" );
-    int rowNum = 1;
-    while ( row != null ) {
-      logBasic( "---------------------- Row " + rowNum + " ----------------------" );
-      for ( int i = 0; i < rowMeta.getFieldNames().length; i++ ) {
-        logBasic( rowMeta.getFieldNames()[i] + " = " + rowMeta.getString( row, i ) );
+  /**
+   * Hands the file that was just closed to be uploaded.  When pipelining uploads, the file is put to the stage in
+   * the background while the next file is being written.  When streaming uploads without pipelining, the file is
+   * streamed to the stage before the next file is written.
+   * @throws KettleException
+   */
+  private void stageClosedFile() throws KettleException {
+    SnowflakeMemoryFile memoryFile = data.memoryFile;
+    data.memoryFile = null;
+    if ( data.currentFilename != null ) {
+      data.metrics.addFile();
+      data.batchBytes += data.fileByteCounter.getByteCount();
+      if ( data.manifest != null ) {
+        data.manifest.closed( data.currentFilename, data.fileFirstRow, data.outputCount - data.fileFirstRow,
+          data.rowChecksum.getValue() );
       }
-
-      if ( rowsLoadedField >= 0 ) {
-        rowsLoaded += rowMeta.getInteger( row, rowsLoadedField );
+    }
+    if ( data.uploader != null && data.currentFilename != null ) {
+      data.uploader.submit( data.currentFilename, memoryFile );
+    } else if ( memoryFile != null ) {
+      try {
+        uploadStream( data.db, data.currentFilename, memoryFile );
+      } finally {
+        memoryFile.release();
       }
+      fileStaged( data.currentFilename );
+    }
+    if ( data.validateFirstFile && data.currentFilename != null ) {
+      data.validateFirstFile = false;
+      validateFile( data.currentFilename, memoryFile != null );
+    }
+    data.currentFilename = null;
+  }
 
-      if ( errorField >= 0 ) {
-        rowsError += rowMeta.getInteger( row, errorField );
-      }
+  /**
+   * Puts a closed file to the stage if it is not already there, and validates it against the table with a copy
+   * statement that loads nothing.  Format and mapping errors fail the step before the rest of the files are written.
+   * @param filename The file to validate
+   * @param staged Was the file already streamed to the stage
+   * @throws KettleException The file could not be staged, or has errors
+   */
+  private void validateFile( String filename, boolean staged ) throws KettleException {
+    if ( data.uploader != null ) {
+      // The file is being put in the background
+      data.uploader.awaitUploads();
+    } else if ( !staged ) {
+      // The files are put when they are loaded, and that put skips this file as it is already on the stage
+      putFiles( data.db, filename );
+      fileStaged( filename );
+    }
 
-      rowNum++;
+    String validationSQL = meta.getValidationCopyStatement( this, filename );
+    logDebug( "Executing SQL " + validationSQL );
+    ResultSet resultSet = data.db.openQuery( validationSQL, null, null, ResultSet.FETCH_FORWARD, false );
+    RowMetaInterface rowMeta = data.db.getReturnRowMeta();
+
+    int errorField = rowMeta.indexOfValue( "ERROR" );
+    int lineField = rowMeta.indexOfValue( "LINE" );
+    int columnField = rowMeta.indexOfValue( "COLUMN_NAME" );
+    int errors = 0;
+    StringBuilder message = new StringBuilder();
+    Object[] row = data.db.getRow( resultSet );
+    while ( row != null ) {
+      errors++;
+      if ( errors <= VALIDATION_ERRORS_REPORTED ) {
+        message.append( Const.CR ).append( "Line " )
+          .append( lineField >= 0 ? rowMeta.getString( row, lineField ) : "?" );
+        if ( columnField >= 0 && rowMeta.getString( row, columnField ) != null ) {
+          message.append( ", " ).append( rowMeta.getString( row, columnField ) );
+        }
+        message.append( ": " ).append( errorField >= 0 ? rowMeta.getString( row, errorField ) : "" );
+      }
       row = data.db.getRow( resultSet );
     }
     data.db.closeQuery( resultSet );
-    setLinesOutput( rowsLoaded );
-    setLinesRejected( rowsError );
-
-    data.db.execStatement( "commit" );
 
+    if ( errors > 0 ) {
+      throw new KettleException( "The first file " + filename + " failed validation against the table with "
+        + errors + " errors" + ( errors > VALIDATION_ERRORS_REPORTED ? ", the first " + VALIDATION_ERRORS_REPORTED
+        + " are" : "" ) + ":" + message );
+    }
+    logBasic( "The first file " + filename + " validated against the table without errors" );
   }
 
   /**
@@ -295,66 +1386,16 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
         /*
          * Write all values in stream to text file.
          */
-        for ( int i = 0; i < rowMeta.size(); i++ ) {
-          if ( i > 0 && data.binarySeparator.length > 0 ) {
-            data.writer.write( data.binarySeparator );
-          }
-          ValueMetaInterface v = rowMeta.getValueMeta( i );
-          Object valueData = row[i];
-
-          // no special null value default was specified since no fields are specified at all
-          // As such, we pass null
-          //
-          writeField( v, valueData, null );
-        }
-        data.writer.write( data.binaryNewline );
+        data.rowEncoder.writeRow( data.rowOut, rowMeta, row );
       } else if ( meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_CSV ) {
         /*
          * Only write the fields specified!
          */
-        for ( int i = 0; i < data.dbFields.size(); i++ ) {
-          if ( data.dbFields.get( i ) != null ) {
-            if ( i > 0 && data.binarySeparator.length > 0 ) {
-              data.writer.write( data.binarySeparator );
-            }
-
-            String[] field = data.dbFields.get( i );
-            ValueMetaInterface v;
-
-            if ( field[1].toUpperCase().startsWith( "TIMESTAMP" ) ) {
-              v = new ValueMetaDate();
-              v.setConversionMask( "yyyy-MM-dd HH:mm:ss.SSS" );
-            } else if ( field[1].toUpperCase().startsWith( "DATE" ) ) {
-              v = new ValueMetaDate();
-              v.setConversionMask( "yyyy-MM-dd" );
-            } else if ( field[1].toUpperCase().startsWith( "TIME" ) ) {
-              v = new ValueMetaDate();
-              v.setConversionMask( "HH:mm:ss.SSS" );
-            } else if ( field[1].toUpperCase().startsWith( "NUMBER" ) || field[1].toUpperCase().startsWith( "FLOAT" ) ) {
-              v = new ValueMetaBigNumber();
-            } else {
-              v = new ValueMetaString();
-              v.setLength( -1 );
-            }
-
-            int fieldIndex = -1;
-            if ( data.fieldnrs.get( data.dbFields.get( i )[0] ) != null ) {
-              fieldIndex = data.fieldnrs.get( data.dbFields.get( i )[0] );
-            }
-            Object valueData = null;
-            if ( fieldIndex >= 0 ) {
-              valueData = v.convertData( rowMeta.getValueMeta( fieldIndex ), row[fieldIndex] );
-            } else if ( meta.isErrorColumnMismatch() ) {
-              throw new KettleException( "Error column mismatch: Database field " + data.dbFields.get( i )[0] + " not found on stream." );
-            }
-            writeField( v, valueData, data.binaryNullValue );
-          }
-        }
-        data.writer.write( data.binaryNewline );
+        data.rowEncoder.writeMappedRow( data.rowOut, row );
+      } else if ( meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_PARQUET ) {
+        writeParquetRow( row );
       } else {
-        int jsonField = data.fieldnrs.get( "json" );
-        data.writer.write( data.outputRowMeta.getString( row, jsonField ).getBytes( "UTF-8" ) );
-        data.writer.write( data.binaryNewline );
+        data.rowEncoder.writeJson( data.rowOut, data.outputRowMeta, row, data.jsonFieldIndex );
       }
 
       data.outputCount++;
@@ -367,191 +1408,50 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
   }
 
   /**
-   * Takes an input field and converts it to bytes to be stored in the temp file.
-   * @param v The metadata about the column
-   * @param valueData The column data
-   * @return The bytes for the value
-   * @throws KettleValueException
-   */
-  private byte[] formatField( ValueMetaInterface v, Object valueData ) throws KettleValueException {
-    if ( v.isString() ) {
-      if ( v.isStorageBinaryString() && v.getTrimType() == ValueMetaInterface.TRIM_TYPE_NONE && v.getLength() < 0
-        && Const.isEmpty( v.getStringEncoding() ) ) {
-        return (byte[]) valueData;
-      } else {
-        String svalue = ( valueData instanceof String ) ? (String) valueData : v.getString( valueData );
-
-        // trim or cut to size if needed.
-        //
-        return convertStringToBinaryString( v, Const.trimToType( svalue, v.getTrimType() ) );
-      }
-    } else {
-      return v.getBinaryString( valueData );
-    }
-  }
-
-  /**
-   * Converts an input string to the bytes for the string
-   * @param v The metadata about the column
-   * @param string The column data
-   * @return The bytes for the value
-   * @throws KettleValueException
-   */
-  private byte[] convertStringToBinaryString( ValueMetaInterface v, String string ) throws KettleValueException {
-    int length = v.getLength();
-
-    if ( string == null ) {
-      return new byte[]{};
-    }
-
-    if ( length > -1 && length < string.length() ) {
-      // we need to truncate
-      String tmp = string.substring( 0, length );
-      try {
-        return tmp.getBytes( "UTF-8" );
-      } catch ( UnsupportedEncodingException e ) {
-        throw new KettleValueException( "Unable to convert String to Binary with specified string encoding ["
-            + v.getStringEncoding() + "]", e );
-      }
-    } else {
-      byte[] text;
-      try {
-        text = string.getBytes( "UTF-8" );
-      } catch ( UnsupportedEncodingException e ) {
-        throw new KettleValueException( "Unable to convert String to Binary with specified string encoding ["
-          + v.getStringEncoding() + "]", e );
-      }
-
-      if ( length > string.length() ) {
-        // we need to pad this
-
-        int size = 0;
-        byte[] filler;
-        try {
-          filler = " ".getBytes( "UTF-8" );
-          size = text.length + filler.length * ( length - string.length() );
-        } catch ( UnsupportedEncodingException uee ) {
-          throw new KettleValueException( uee );
-        }
-        byte[] bytes = new byte[size];
-        System.arraycopy( text, 0, bytes, 0, text.length );
-        if ( filler.length == 1 ) {
-          java.util.Arrays.fill( bytes, text.length, size, filler[0] );
-        } else {
-          int currIndex = text.length;
-          for ( int i = 0; i < ( length - string.length() ); i++ ) {
-            for ( byte aFiller : filler ) {
-              bytes[currIndex++] = aFiller;
-            }
-          }
-        }
-        return bytes;
-      } else {
-        // do not need to pad or truncate
-        return text;
-      }
-    }
-  }
-
-  /**
-   * Writes an individual field to the temp file.
-   * @param v The metadata about the column
-   * @param valueData The data for the column
-   * @param nullString The bytes to put in the temp file if the value is null
-   * @throws KettleStepException
-   */
-  private void writeField( ValueMetaInterface v, Object valueData, byte[] nullString ) throws KettleStepException {
-    try {
-      byte[] str;
-
-      // First check whether or not we have a null string set
-      // These values should be set when a null value passes
-      //
-      if ( nullString != null && v.isNull( valueData ) ) {
-        str = nullString;
-      } else {
-        str = formatField( v, valueData );
-      }
-
-      if ( str != null && str.length > 0 ) {
-        List<Integer> enclosures = null;
-        boolean writeEnclosures = false;
-
-        if ( v.isString() ) {
-          if ( containsSeparatorOrEnclosure( str, data.binarySeparator, data.binaryEnclosure,
-                data.escapeCharacters ) ) {
-            writeEnclosures = true;
-          }
-        }
-
-        if ( writeEnclosures ) {
-          data.writer.write( data.binaryEnclosure );
-          enclosures = getEnclosurePositions( str );
-        }
-
-        if ( enclosures == null ) {
-          data.writer.write( str );
-        } else {
-          // Skip the enclosures, escape them instead...
-          int from = 0;
-          for ( Integer enclosure : enclosures ) {
-            // Minus one to write the escape before the enclosure
-            int position = enclosure;
-            data.writer.write( str, from, position - from );
-            data.writer.write( data.escapeCharacters ); // write enclosure a second time
-            //data.writer.write( str, position, 1 );
-            from = position;
-
-          }
-          if ( from < str.length ) {
-            data.writer.write( str, from, str.length - from );
-          }
-        }
-
-        if ( writeEnclosures ) {
-          data.writer.write( data.binaryEnclosure );
-        }
-      }
-    } catch ( Exception e ) {
-      throw new KettleStepException( "Error writing field content to file", e );
-    }
-  }
-
-  /**
-   * Gets the positions of any double quotes or backslashes in the string
-   * @param str The string to check
-   * @return The positions within the string of double quotes and backslashes.
+   * Writes an individual row to the Parquet file, converting each value to the type of its column
+   * @param row The input row
+   * @throws KettleException
+   * @throws IOException
    */
-  private List<Integer> getEnclosurePositions( byte[] str ) {
-    List<Integer> positions = null;
-    // +1 because otherwise we will not find it at the end
-    for ( int i = 0, len = str.length; i < len; i++ ) {
-      // verify if on position i there is an enclosure
-      //
-      boolean found = true;
-      for ( int x = 0; found && x < data.binaryEnclosure.length; x++ ) {
-        if ( str[i + x] != data.binaryEnclosure[x] ) {
-          found = false;
-        }
-      }
-
-      if ( !found ) {
-        found = true;
-        for ( int x = 0; found && x < data.escapeCharacters.length; x++ ) {
-          if ( str[i + x] != data.escapeCharacters[x] ) {
-            found = false;
-          }
-        }
-      }
-
-      if ( found ) {
-        if ( positions == null ) {
-          positions = new ArrayList<>();
+  private void writeParquetRow( Object[] row ) throws KettleException, IOException {
+    SnowflakeParquetWriter.Column[] columns = data.parquetColumns;
+    for ( int i = 0; i < columns.length; i++ ) {
+      int fieldIndex = data.columnStreamIndexes[i];
+      Object value = null;
+
+      if ( fieldIndex >= 0 && !data.columnSources[i].isNull( row[fieldIndex] ) ) {
+        ValueMetaInterface v = data.columnSources[i];
+        Object valueData = row[fieldIndex];
+        switch ( columns[i].getType() ) {
+          case SnowflakeParquetWriter.TYPE_BOOLEAN:
+            value = v.getBoolean( valueData );
+            break;
+          case SnowflakeParquetWriter.TYPE_INTEGER:
+            value = v.getInteger( valueData );
+            break;
+          case SnowflakeParquetWriter.TYPE_NUMBER:
+            value = v.getNumber( valueData );
+            break;
+          case SnowflakeParquetWriter.TYPE_DECIMAL:
+            value = v.getBigNumber( valueData );
+            break;
+          case SnowflakeParquetWriter.TYPE_DATE:
+          case SnowflakeParquetWriter.TYPE_TIME:
+          case SnowflakeParquetWriter.TYPE_TIMESTAMP:
+          case SnowflakeParquetWriter.TYPE_TIMESTAMP_TZ:
+            value = v.getDate( valueData );
+            break;
+          case SnowflakeParquetWriter.TYPE_BINARY:
+            value = v.getBinary( valueData );
+            break;
+          default:
+            value = v.getString( valueData );
+            break;
         }
-        positions.add( i );
       }
+      data.parquetWriter.write( i, value );
     }
-    return positions;
+    data.parquetWriter.endRow();
   }
 
   /**
@@ -577,36 +1477,56 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
     String filename = environmentSubstitute( baseFilename );
 
     try {
-      CompressionProvider compressionProvider =
-        CompressionProviderFactory.getInstance().getCompressionProviderByName( "GZip" );
-
-      if ( compressionProvider == null ) {
-        throw new KettleException( "No compression provider found with name = GZip" );
-      }
-
-      if ( !compressionProvider.supportsOutput() ) {
-        throw new KettleException( "Compression provider GZip does not support output streams!" );
-      }
-
-      if ( log.isDetailed() ) {
-        logDetailed( "Opening output stream using provider: " + compressionProvider.getName() );
-      }
-
-      if ( checkPreviouslyOpened( filename ) ) {
+      if ( data.bufferPool != null ) {
+        // Build the file in memory, it is streamed to the stage when it is closed
+        data.memoryFile = new SnowflakeMemoryFile( data.bufferPool );
+        data.fos = data.memoryFile;
+        data.previouslyOpenedFiles.add( filename );
+      } else if ( checkPreviouslyOpened( filename ) ) {
         data.fos = getOutputStream( filename, getTransMeta(), true );
       } else {
         data.fos = getOutputStream( filename, getTransMeta(), false );
         data.previouslyOpenedFiles.add( filename );
       }
+      if ( data.bufferPool == null ) {
+        // The compressors write in small pieces, collect them into a few large writes to the file
+        data.fos = new PooledBufferedOutputStream( data.fos, data.streamPool, data.writeBufferSize );
+      }
 
-      data.out = compressionProvider.createOutputStream( data.fos );
+      // Count the compressed bytes written, so the file can be split by size
+      data.fileByteCounter = new CountingOutputStream( data.metrics.fileStream( data.fos ) );
+      data.fos = data.fileByteCounter;
+
+      if ( meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_PARQUET ) {
+        // Parquet files compress their own pages, so the pages are written straight to the file
+        data.out = null;
+        data.writer = new AsyncBatchOutputStream( data.fos, data.writerExecutor, data.streamPool );
+        data.parquetWriter = new SnowflakeParquetWriter( data.writer, data.parquetColumns,
+          getParquetRowGroupSize( data.splitFileBytes ), data.metrics, data.streamPool );
+      } else if ( data.compressionExecutor != null ) {
+        if ( log.isDetailed() ) {
+          logDetailed( "Opening output stream using " + data.compressionThreads + " compression threads" );
+        }
 
-      // The compression output stream may also archive entries. For this we create the filename
-      // (with appropriate extension) and add it as an entry to the output stream. For providers
-      // that do not archive entries, they should use the default no-op implementation.
-      data.out.addEntry( filename, "gz" );
+        data.out = new ParallelGZIPOutputStream( data.fos, data.compressionExecutor, data.compressionThreads,
+          ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE, data.streamPool, data.metrics );
+      } else {
+        // Gzip on the writer thread, reusing a Deflater from the pool instead of allocating one per file
+        data.out = new PooledGZIPOutputStream( data.fos, data.streamPool, data.metrics );
+      }
+      data.currentFilename = filename;
 
-      data.writer = new BufferedOutputStream( data.out, 5000 );
+      if ( data.out != null ) {
+        // The rows are encoded on the step thread, and compressed and written on the writer thread
+        data.writer = new AsyncBatchOutputStream( data.out, data.writerExecutor, data.streamPool );
+      }
+      data.fileFirstRow = data.outputCount;
+      data.rowOut = data.writer;
+      if ( data.rowChecksum != null ) {
+        // The checksum of the rows lets a rerun check it is skipping the same rows
+        data.rowChecksum.reset();
+        data.rowOut = new CheckedOutputStream( data.writer, data.rowChecksum );
+      }
 
       if ( log.isDetailed() ) {
         logDetailed( "Opened new file with name ["
@@ -629,8 +1549,13 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
     boolean returnValue = false;
 
     try {
+      if ( data.parquetWriter != null ) {
+        data.parquetWriter.finish();
+        data.parquetWriter = null;
+      }
       if ( data.writer != null ) {
-        data.writer.flush();
+        // Waits for the writer thread to write the rest of the file
+        data.writer.close();
       }
       data.writer = null;
       if ( log.isDebug() ) {
@@ -676,6 +1601,7 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
 
     if ( super.init( smi, sdi ) ) {
       data.splitnr = 0;
+      data.metrics = new SnowflakeLoadMetrics();
 
       try {
         data.databaseMeta = meta.getDatabaseMeta();
@@ -693,6 +1619,97 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
 
         data.db.setCommit( Integer.MAX_VALUE );
 
+        data.splitFileBytes = Const.toLong( environmentSubstitute( meta.getSplitFileSize() ), 0 ) * 1024 * 1024;
+
+        data.compressionThreads = Const.toInt( environmentSubstitute( meta.getCompressionThreads() ), 1 );
+        if ( data.compressionThreads > 1 ) {
+          data.compressionExecutor = Executors.newFixedThreadPool( data.compressionThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable r ) {
+              Thread thread = new Thread( r, getStepname() + " - gzip" );
+              thread.setDaemon( true );
+              return thread;
+            }
+          } );
+        }
+
+        data.writerExecutor = newWriterExecutor( getStepname() + " - file writer" );
+
+        // Released on dispose, so the shared pool shrinks back once no step needs the memory
+        data.streamPoolBytes =
+          Math.max( 0, Const.toLong( environmentSubstitute( meta.getBufferPoolSize() ), 64 ) ) * 1024 * 1024;
+        data.streamPool = SnowflakeStreamPool.getInstance();
+        data.streamPool.reserve( data.streamPoolBytes );
+        int writeBufferMB = Const.toInt( environmentSubstitute( meta.getWriteBufferSize() ), 1 );
+        data.writeBufferSize = Math.min( 256, Math.max( 1, writeBufferMB ) ) * 1024 * 1024;
+
+        data.uploadConnections = Math.max( 1, Const.toInt( environmentSubstitute( meta.getUploadConnections() ), 1 ) );
+        data.putParallel = Const.toInt( environmentSubstitute( meta.getPutParallel() ), 0 );
+
+        if ( meta.isStreamUpload() ) {
+          data.bufferPool = new SnowflakeBufferPool(
+            Math.max( 1, Const.toLong( environmentSubstitute( meta.getMemoryBufferSize() ), 256 ) ) * 1024 * 1024 );
+        }
+
+        data.microBatchNanos =
+          TimeUnit.SECONDS.toNanos( Const.toLong( environmentSubstitute( meta.getMicroBatchInterval() ), 0 ) );
+        data.microBatchBytes = Const.toLong( environmentSubstitute( meta.getMicroBatchSize() ), 0 ) * 1024 * 1024;
+
+        if ( meta.isRouted() ) {
+          if ( meta.isSnowpipe() ) {
+            throw new KettleException( "Rows can't be routed to tables when loading with Snowpipe, a pipe loads a "
+              + "single table" );
+          }
+          // Every table has a file open, and a file holds its memory blocks until it is closed, so the tables could
+          // wait forever on each other for the blocks of the buffer
+          if ( meta.isStreamUpload() ) {
+            throw new KettleException( "Rows can't be routed to tables when streaming files to the stage, the open "
+              + "files of the tables would share the memory buffer" );
+          }
+          // Each table is loaded once, after the last row, from files put by the step
+          if ( meta.isResumable() || meta.isSingleCopyStatement() || meta.isPipelineUploads()
+            || meta.isMicroBatch( this ) ) {
+            logBasic( "Rows are routed to tables, failed loads can't be resumed, and files are not loaded by a "
+              + "single copy statement, put while they are written or loaded in micro-batches" );
+          }
+          data.routeMetas = new LinkedHashMap<>();
+          data.routes = new LinkedHashMap<>();
+          data.maxRoutes = Math.max( 1, Const.toInt( environmentSubstitute( meta.getMaxTables() ), 50 ) );
+        } else if ( meta.isResumable() && ( meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_PARQUET
+          || meta.isSnowpipe() ) ) {
+          logBasic( "Failed loads can't be resumed when loading Parquet or loading with Snowpipe" );
+        } else if ( meta.isResumable() ) {
+          // Rows are checksummed as they are written, so a rerun can check it is skipping the same rows
+          data.rowChecksum = new CRC32();
+          data.manifest = SnowflakeLoadManifest.open( meta.buildManifestFilename( this, getCopy(), getPartitionID() ),
+            environmentSubstitute( meta.getTargetSchema() ) + "." + environmentSubstitute( meta.getTargetTable() )
+              + " " + meta.getDataType() + " " + meta.getStage( this ) );
+          data.resumeEntries = data.manifest.resume();
+          if ( !data.resumeEntries.isEmpty() ) {
+            logBasic( "Resuming a failed load, the rows of the " + data.resumeEntries.size()
+              + " files staged by the failed run are skipped" );
+          }
+        }
+
+        if ( meta.isValidateFirstFile() && meta.getDataTypeId() == SnowflakeBulkLoaderMeta.DATA_TYPE_PARQUET ) {
+          logBasic( "The first file can't be validated when loading Parquet" );
+        } else {
+          data.validateFirstFile = meta.isValidateFirstFile();
+        }
+
+        if ( meta.isSingleCopyStatement() && data.routes == null && meta.isMicroBatch( this ) ) {
+          // Each micro-batch is loaded as soon as it is due, so the copies can't wait for each other
+          logBasic( "Rows are loaded in micro-batches, each copy of the step loads its own files" );
+        } else if ( meta.isSingleCopyStatement() && data.routes == null ) {
+          data.coordinator = SnowflakeLoadCoordinator.join( getTrans().getLogChannelId() + "/" + getStepname(),
+            getTrans().findStepInterfaces( getStepname() ).size() );
+        }
+
+        if ( meta.isPipelineUploads() && data.routes == null ) {
+          data.uploader = new SnowflakeStageUploader( this, data.databaseMeta, data.uploadConnections,
+            Const.toInt( environmentSubstitute( meta.getUploadQueueSize() ), 1 ) );
+        }
+
         initBinaryDataFields();
       } catch ( Exception e ) {
         logError( "Couldn't initialize binary data fields", e );
@@ -706,6 +1723,23 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
     return false;
   }
 
+  /**
+   * Creates the thread a file is compressed and written on.  The writer task of a file holds the thread until the
+   * file is closed, so files that are open at the same time each need their own.
+   * @param name The name of the thread
+   * @return The executor running the thread
+   */
+  private ExecutorService newWriterExecutor( final String name ) {
+    return Executors.newSingleThreadExecutor( new ThreadFactory() {
+      @Override
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, name );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+  }
+
   /**
    * Initialize the binary values of delimiters, enclosures, and escape characters
    * @throws KettleException
@@ -723,6 +1757,9 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
       data.escapeCharacters = SnowflakeBulkLoaderMeta.CSV_ESCAPE_CHAR.getBytes( "UTF-8" );
 
       data.binaryNullValue = "".getBytes( "UTF-8" );
+
+      data.rowEncoder = new SnowflakeRowEncoder( data.binarySeparator, data.binaryEnclosure, data.escapeCharacters,
+        data.binaryNewline, data.binaryNullValue );
     } catch ( Exception e ) {
       throw new KettleException( "Unexpected error while encoding binary fields", e );
     }
@@ -737,10 +1774,43 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
     meta = (SnowflakeBulkLoaderMeta) smi;
     data = (SnowflakeBulkLoaderData) sdi;
 
+    if ( data.uploader != null ) {
+      data.uploader.dispose();
+      data.uploader = null;
+    }
+
+    // The step ended without loading, don't let the other copies load a partial set of files
+    if ( data.coordinator != null ) {
+      data.coordinator.abandon();
+      data.coordinator = null;
+    }
+
+    if ( data.routes != null ) {
+      // Close and remove the files of each table, and stop its writer thread.  The connection and the other threads
+      // are shared with the step.
+      SnowflakeBulkLoaderData rootData = data;
+      for ( SnowflakeBulkLoaderData route : rootData.routes.values() ) {
+        data = route;
+        closeFile();
+        if ( data.memoryFile != null ) {
+          data.memoryFile.release();
+          data.memoryFile = null;
+        }
+        data.writerExecutor.shutdownNow();
+        deleteTempFiles();
+      }
+      data = rootData;
+    }
+
     if ( data.oneFileOpened ) {
       closeFile();
     }
 
+    if ( data.memoryFile != null ) {
+      data.memoryFile.release();
+      data.memoryFile = null;
+    }
+
     try {
       if ( data.fos != null ) {
         data.fos.close();
@@ -750,6 +1820,16 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
       setErrors( 1 );
     }
 
+    if ( data.writerExecutor != null ) {
+      data.writerExecutor.shutdownNow();
+      data.writerExecutor = null;
+    }
+
+    if ( data.compressionExecutor != null ) {
+      data.compressionExecutor.shutdownNow();
+      data.compressionExecutor = null;
+    }
+
     try {
       if ( data.db != null ) {
         data.db.disconnect();
@@ -759,96 +1839,44 @@ public class SnowflakeBulkLoader extends BaseStep implements StepInterface {
       setErrors( 1 );
     }
 
-    if( ! Boolean.parseBoolean( environmentSubstitute( SnowflakeBulkLoaderMeta.DEBUG_MODE_VAR ) ) ) {
-      for (String filename : data.previouslyOpenedFiles) {
-        try {
-          KettleVFS.getFileObject(filename).delete();
-          logDetailed("Deleted temp file " + filename);
-        } catch (Exception ex) {
-          logMinimal("Unable to delete temp file", ex);
-        }
+    deleteTempFiles();
+
+    // A manifest left by a failed load is compacted for the rerun, after a successful load it is already deleted
+    if ( data.manifest != null ) {
+      try {
+        data.manifest.close();
+      } catch ( KettleException e ) {
+        logError( "Unable to compact the load manifest " + data.manifest.getFilename(), e );
       }
+      data.manifest = null;
+    }
+
+    if ( data.streamPool != null ) {
+      data.streamPool.release( data.streamPoolBytes );
+      data.streamPool = null;
     }
 
     super.dispose( smi, sdi );
   }
 
   /**
-   * Check if a string contains separators or enclosures.  Can be used to determine if the string
-   * needs enclosures around it or not.
-   * @param source The string to check
-   * @param separator The separator character(s)
-   * @param enclosure The enclosure character(s)
-   * @param escape The escape character(s)
-   * @return True if the string contains separators or enclosures
-   */
-  @SuppressWarnings( "Duplicates" )
-  private boolean containsSeparatorOrEnclosure( byte[] source, byte[] separator, byte[] enclosure, byte[] escape ) {
-    boolean result = false;
-
-    boolean enclosureExists = enclosure != null && enclosure.length > 0;
-    boolean separatorExists = separator != null && separator.length > 0;
-    boolean escapeExists = escape != null && escape.length > 0;
-
-    // Skip entire test if neither separator nor enclosure exist
-    if ( separatorExists || enclosureExists || escapeExists ) {
-
-      // Search for the first occurrence of the separator or enclosure
-      for ( int index = 0; !result && index < source.length; index++ ) {
-        if ( enclosureExists && source[index] == enclosure[0] ) {
-
-          // Potential match found, make sure there are enough bytes to support a full match
-          if ( index + enclosure.length <= source.length ) {
-            // First byte of enclosure found
-            result = true; // Assume match
-            for ( int i = 1; i < enclosure.length; i++ ) {
-              if ( source[index + i] != enclosure[i] ) {
-                // Enclosure match is proven false
-                result = false;
-                break;
-              }
-            }
-          }
-
-        } else if ( separatorExists && source[index] == separator[0] ) {
-
-          // Potential match found, make sure there are enough bytes to support a full match
-          if ( index + separator.length <= source.length ) {
-            // First byte of separator found
-            result = true; // Assume match
-            for ( int i = 1; i < separator.length; i++ ) {
-              if ( source[index + i] != separator[i] ) {
-                // Separator match is proven false
-                result = false;
-                break;
-              }
-            }
-          }
-
-        } else if ( escapeExists && source[index] == escape[0] ) {
-
-          // Potential match found, make sure there are enough bytes to support a full match
-          if ( index + escape.length <= source.length ) {
-            // First byte of separator found
-            result = true; // Assume match
-            for ( int i = 1; i < escape.length; i++ ) {
-              if ( source[index + i] != escape[i] ) {
-                // Separator match is proven false
-                result = false;
-                break;
-              }
-            }
-          }
-
+   * Deletes the temp files written by the step, unless running in debug mode
+   */
+  private void deleteTempFiles() {
+    // Streamed files were never written to the work directory
+    if( data.bufferPool == null
+      && ! Boolean.parseBoolean( environmentSubstitute( SnowflakeBulkLoaderMeta.DEBUG_MODE_VAR ) ) ) {
+      for (String filename : data.previouslyOpenedFiles) {
+        try {
+          KettleVFS.getFileObject(filename).delete();
+          logDetailed("Deleted temp file " + filename);
+        } catch (Exception ex) {
+          logMinimal("Unable to delete temp file", ex);
         }
       }
-
     }
-
-    return result;
   }
 
-
   /**
    * Gets a file handle
    * @param vfsFilename The file name
@@ -18,10 +18,11 @@
 
 package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
 
-import org.pentaho.di.core.compress.CompressionOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
 
@@ -29,6 +30,8 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
 
 /**
  * @author Inquidia Consulting
@@ -43,6 +46,9 @@ public class SnowflakeBulkLoaderData extends BaseStepData implements StepDataInt
   // Maps table fields to the location of the corresponding field on the input stream.
   public Map<String, Integer> fieldnrs;
 
+  // The index of the stream field holding the JSON documents
+  public int jsonFieldIndex;
+
   // The database being used
   public Database db;
   public DatabaseMeta databaseMeta;
@@ -51,17 +57,50 @@ public class SnowflakeBulkLoaderData extends BaseStepData implements StepDataInt
   // data type
   public ArrayList<String[]> dbFields;
 
+  // The key the table is cached under in the SnowflakeTableCache, null if the table was not described
+  public String tableCacheKey;
+
+  // The column plan used when writing specified fields, built once on the first row.  There is one entry per table
+  // field, in table order.  The stream index is -1 when no stream field is mapped to the table field.  The converter
+  // holds the type and format the value is written with, and the source is the stream field metadata.
+  public int[] columnStreamIndexes;
+  public ValueMetaInterface[] columnConverters;
+  public ValueMetaInterface[] columnSources;
+
+  // The SnowflakeDateWriter format for each table field in the column plan, or -1 if the field is not a date
+  public int[] columnDateFormats;
+
+  // The columns of the Parquet files, and the writer for the file currently open when loading Parquet
+  public SnowflakeParquetWriter.Column[] parquetColumns;
+  public SnowflakeParquetWriter parquetWriter;
+
   // The number of rows output to temp files.  Incremented every time a new row is written.
   public int outputCount;
 
 
-  // The output stream being used to write files
-  public CompressionOutputStream out;
+  // The compressed output stream being used to write files
+  public OutputStream out;
+
+  // The number of threads used to compress each file, and the threads themselves when more than one is used
+  public int compressionThreads;
+  public ExecutorService compressionExecutor;
 
+  // The buffers and Deflaters shared by the bulk loaders, the memory reserved in it by the step, and the size of the
+  // buffer in front of each temp file
+  public SnowflakeStreamPool streamPool;
+  public long streamPoolBytes;
+  public int writeBufferSize;
+
+  // Collects the encoded rows, which are compressed and written to the file on the writer thread
   public OutputStream writer;
+  public ExecutorService writerExecutor;
 
   public OutputStream fos;
 
+  // Counts the bytes written to the current file, and the compressed size in bytes to split files at
+  public CountingOutputStream fileByteCounter;
+  public long splitFileBytes;
+
   // The metadata about the output row
   public RowMetaInterface outputRowMeta;
 
@@ -73,12 +112,81 @@ public class SnowflakeBulkLoaderData extends BaseStepData implements StepDataInt
 
   public byte[] binaryNullValue;
 
+  // Encodes the rows into the temp file, reusing its buffers between rows
+  public SnowflakeRowEncoder rowEncoder;
+
+  // Indicates that the step has output hops, and rows must be passed on to the next steps
+  public boolean hasOutputHops;
+
   // Indicates that at least one file has been opened by the step
   public boolean oneFileOpened;
 
   // A list of files that have been previous created by the step
   public List<String> previouslyOpenedFiles;
 
+  // The name of the file currently being written
+  public String currentFilename;
+
+  // When pipelining uploads, puts closed files to the stage in the background
+  public SnowflakeStageUploader uploader;
+
+  // The number of connections putting files at the same time, and the PARALLEL option of each put, 0 for the default
+  public int uploadConnections;
+  public int putParallel;
+
+  // When loading all copies of the step with a single copy statement, collects the files staged by each copy
+  public SnowflakeLoadCoordinator coordinator;
+
+  // The timings and byte counts of each phase of the load
+  public SnowflakeLoadMetrics metrics;
+
+  // When streaming uploads, the memory held by files waiting to be uploaded, and the file currently being written
+  public SnowflakeBufferPool bufferPool;
+  public SnowflakeMemoryFile memoryFile;
+
+  // When loading with Snowpipe, registers the staged files with the pipe
+  public SnowpipeClient snowpipeClient;
+
+  // When loading micro-batches, the interval and size that trigger a load, 0 when not used
+  public long microBatchNanos;
+  public long microBatchBytes;
+
+  // When the current micro-batch started, the rows written before it, and the bytes of its closed files
+  public long batchStartNanos;
+  public int batchStartCount;
+  public long batchBytes;
+
+  // When resuming failed loads, the manifest of the temp files written by this copy of the step
+  public SnowflakeLoadManifest manifest;
+
+  // The files staged by the failed run whose rows are skipped, the next one to skip, and the one being skipped.  The
+  // entry being skipped is null while a file is being written.
+  public List<SnowflakeLoadManifest.Entry> resumeEntries;
+  public int resumeIndex;
+  public SnowflakeLoadManifest.Entry resumeEntry;
+
+  // The files staged by the failed run that still need to be loaded
+  public List<String> resumedFiles;
+
+  // The stream rows are encoded to.  When resuming failed loads it also updates the checksum of the rows of the
+  // current file, otherwise it is the writer.
+  public OutputStream rowOut;
+  public CRC32 rowChecksum;
+
+  // The number of rows written before the current file
+  public int fileFirstRow;
+
+  // Is the first file still to be validated against the table when it is closed
+  public boolean validateFirstFile;
+
+  // When a stream field selects the table each row is loaded into, the index of the field, and the metadata and data
+  // of each table rows were routed to, by table.  Each table has its own split files and copy statement.  The number of
+  // tables is capped, as each has its files and writer thread open until the end of the stream.
+  public int targetTableFieldIndex;
+  public int maxRoutes;
+  public Map<String, SnowflakeBulkLoaderMeta> routeMetas;
+  public Map<String, SnowflakeBulkLoaderData> routes;
+
   /**
    * Sets the default values
    */
@@ -86,6 +194,8 @@ public class SnowflakeBulkLoaderData extends BaseStepData implements StepDataInt
     super();
 
     previouslyOpenedFiles = new ArrayList<>();
+    resumeEntries = new ArrayList<>();
+    resumedFiles = new ArrayList<>();
 
     oneFileOpened = false;
     outputCount = 0;
@@ -94,6 +204,46 @@ public class SnowflakeBulkLoaderData extends BaseStepData implements StepDataInt
     db = null;
   }
 
+  /**
+   * Creates the data of a table rows are routed to.  The connection, compression threads, encoders and field mapping
+   * are shared with this data, the files, their state and their writer thread are the table's own.
+   * @param writerExecutor The writer thread of the table's files
+   * @return The data of the table
+   */
+  SnowflakeBulkLoaderData newRoute( ExecutorService writerExecutor ) {
+    SnowflakeBulkLoaderData route = new SnowflakeBulkLoaderData();
+    route.db = db;
+    route.databaseMeta = databaseMeta;
+    route.fieldnrs = fieldnrs;
+    route.jsonFieldIndex = jsonFieldIndex;
+    route.columnStreamIndexes = columnStreamIndexes;
+    route.columnConverters = columnConverters;
+    route.columnSources = columnSources;
+    route.columnDateFormats = columnDateFormats;
+    route.parquetColumns = parquetColumns;
+    route.compressionThreads = compressionThreads;
+    route.compressionExecutor = compressionExecutor;
+    route.streamPool = streamPool;
+    route.writeBufferSize = writeBufferSize;
+    route.writerExecutor = writerExecutor;
+    route.splitFileBytes = splitFileBytes;
+    route.outputRowMeta = outputRowMeta;
+    route.binarySeparator = binarySeparator;
+    route.binaryEnclosure = binaryEnclosure;
+    route.escapeCharacters = escapeCharacters;
+    route.binaryNewline = binaryNewline;
+    route.binaryNullValue = binaryNullValue;
+    route.rowEncoder = rowEncoder;
+    route.hasOutputHops = hasOutputHops;
+    route.uploadConnections = uploadConnections;
+    route.putParallel = putParallel;
+    route.metrics = metrics;
+    route.bufferPool = bufferPool;
+    route.validateFirstFile = validateFirstFile;
+    route.oneFileOpened = true;
+    return route;
+  }
+
   List<String> getPreviouslyOpenedFiles() {
     return previouslyOpenedFiles;
   }
@@ -109,15 +109,16 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
    */
   private static final String[] DATA_TYPE_COMBO = new String[] {
           BaseMessages.getString( PKG, "SnowflakeBulkLoad.Dialog.DataType.CSV" ),
-          BaseMessages.getString( PKG, "SnowflakeBulkLoad.Dialog.DataType.JSON" ) };
+          BaseMessages.getString( PKG, "SnowflakeBulkLoad.Dialog.DataType.JSON" ),
+          BaseMessages.getString( PKG, "SnowflakeBulkLoad.Dialog.DataType.PARQUET" ) };
 
   //The tabs
   private CTabFolder wTabFolder;
   private FormData fdTabFolder;
 
-  private CTabItem wLoaderTab, wDataTypeTab, wFieldsTab;
+  private CTabItem wLoaderTab, wDataTypeTab, wFieldsTab, wPerformanceTab, wSnowpipeTab;
 
-  private FormData fdLoaderComp, fdDataTypeComp, fdFieldsComp;
+  private FormData fdLoaderComp, fdDataTypeComp, fdFieldsComp, fdPerformanceComp, fdSnowpipeComp;
 
   /* ********************************************************
    * Loader tab
@@ -141,6 +142,16 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
   private TextVar wTable;
   private FormData fdlTable, fdbTable, fdTable;
 
+  // Table field line
+  private Label wlTableField;
+  private CCombo wTableField;
+  private FormData fdlTableField, fdTableField;
+
+  // Maximum number of tables line
+  private Label wlMaxTables;
+  private TextVar wMaxTables;
+  private FormData fdlMaxTables, fdMaxTables;
+
   // Location Type line
   private Label wlLocationType;
   private CCombo wLocationType;
@@ -157,6 +168,11 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
   private Button wbWorkDirectory;
   private FormData fdlWorkDirectory, fdWorkDirectory, fdbWorkDirectory;
 
+  // Resumable line
+  private Label wlResumable;
+  private Button wResumable;
+  private FormData fdlResumable, fdResumable;
+
   // On Error Line
   private Label wlOnError;
   private CCombo wOnError;
@@ -172,11 +188,31 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
   private TextVar wSplitSize;
   private FormData fdlSplitSize, fdSplitSize;
 
+  // Split file size line
+  private Label wlSplitFileSize;
+  private TextVar wSplitFileSize;
+  private FormData fdlSplitFileSize, fdSplitFileSize;
+
   // Remove files line
   private Label wlRemoveFiles;
   private Button wRemoveFiles;
   private FormData fdlRemoveFiles, fdRemoveFiles;
 
+  // Merge line
+  private Label wlMerge;
+  private Button wMerge;
+  private FormData fdlMerge, fdMerge;
+
+  // Merge keys line
+  private Label wlMergeKeys;
+  private TextVar wMergeKeys;
+  private FormData fdlMergeKeys, fdMergeKeys;
+
+  // Validate first file line
+  private Label wlValidateFirstFile;
+  private Button wValidateFirstFile;
+  private FormData fdlValidateFirstFile, fdValidateFirstFile;
+
   /* *************************************************************
    * End Loader Tab
    * *************************************************************/
@@ -282,6 +318,120 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
    * End Fields tab
    * ************************************************/
 
+  /* ************************************************
+   * Start Performance tab
+   * This tab is used to tune how the temp files are
+   * written and uploaded
+   * ************************************************/
+
+  // Pipeline uploads line
+  private Label wlPipelineUploads;
+  private Button wPipelineUploads;
+  private FormData fdlPipelineUploads, fdPipelineUploads;
+
+  // Upload queue size line
+  private Label wlUploadQueueSize;
+  private TextVar wUploadQueueSize;
+  private FormData fdlUploadQueueSize, fdUploadQueueSize;
+
+  // Upload connections line
+  private Label wlUploadConnections;
+  private TextVar wUploadConnections;
+  private FormData fdlUploadConnections, fdUploadConnections;
+
+  // Put parallel line
+  private Label wlPutParallel;
+  private TextVar wPutParallel;
+  private FormData fdlPutParallel, fdPutParallel;
+
+  // Compression threads line
+  private Label wlCompressionThreads;
+  private TextVar wCompressionThreads;
+  private FormData fdlCompressionThreads, fdCompressionThreads;
+
+  // Write buffer size line
+  private Label wlWriteBufferSize;
+  private TextVar wWriteBufferSize;
+  private FormData fdlWriteBufferSize, fdWriteBufferSize;
+
+  // Buffer pool size line
+  private Label wlBufferPoolSize;
+  private TextVar wBufferPoolSize;
+  private FormData fdlBufferPoolSize, fdBufferPoolSize;
+
+  // Single copy statement line
+  private Label wlSingleCopyStatement;
+  private Button wSingleCopyStatement;
+  private FormData fdlSingleCopyStatement, fdSingleCopyStatement;
+
+  // Stream upload line
+  private Label wlStreamUpload;
+  private Button wStreamUpload;
+  private FormData fdlStreamUpload, fdStreamUpload;
+
+  // Memory buffer size line
+  private Label wlMemoryBufferSize;
+  private TextVar wMemoryBufferSize;
+  private FormData fdlMemoryBufferSize, fdMemoryBufferSize;
+
+  // Micro-batch interval line
+  private Label wlMicroBatchInterval;
+  private TextVar wMicroBatchInterval;
+  private FormData fdlMicroBatchInterval, fdMicroBatchInterval;
+
+  // Micro-batch size line
+  private Label wlMicroBatchSize;
+  private TextVar wMicroBatchSize;
+  private FormData fdlMicroBatchSize, fdMicroBatchSize;
+
+  // Table cache time to live line
+  private Label wlTableCacheTtl;
+  private TextVar wTableCacheTtl;
+  private FormData fdlTableCacheTtl, fdTableCacheTtl;
+
+  // Load metrics note line
+  private Label wlMetrics;
+  private FormData fdlMetrics;
+
+  /* ************************************************
+   * End Performance tab
+   * ************************************************/
+
+  /* ************************************************
+   * Start Snowpipe tab
+   * This tab is used to load the staged files with
+   * a Snowpipe pipe
+   * ************************************************/
+
+  // Snowpipe line
+  private Label wlSnowpipe;
+  private Button wSnowpipe;
+  private FormData fdlSnowpipe, fdSnowpipe;
+
+  // Pipe name line
+  private Label wlPipeName;
+  private TextVar wPipeName;
+  private FormData fdlPipeName, fdPipeName;
+
+  // Private key file line
+  private Label wlPrivateKeyFile;
+  private TextVar wPrivateKeyFile;
+  private FormData fdlPrivateKeyFile, fdPrivateKeyFile;
+
+  // Snowpipe URL line
+  private Label wlSnowpipeUrl;
+  private TextVar wSnowpipeUrl;
+  private FormData fdlSnowpipeUrl, fdSnowpipeUrl;
+
+  // Load timeout line
+  private Label wlSnowpipeTimeout;
+  private TextVar wSnowpipeTimeout;
+  private FormData fdlSnowpipeTimeout, fdSnowpipeTimeout;
+
+  /* ************************************************
+   * End Snowpipe tab
+   * ************************************************/
+
   private SnowflakeBulkLoaderMeta input;
 
   private Link wDevelopedBy;
@@ -465,6 +615,64 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       }
     } );
 
+    // Table field line
+    wlTableField = new Label( wLoaderComp, SWT.RIGHT );
+    wlTableField.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.TableField.Label" ) );
+    wlTableField.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.TableField.Tooltip" ) );
+    props.setLook( wlTableField );
+    fdlTableField = new FormData();
+    fdlTableField.left = new FormAttachment( 0, 0 );
+    fdlTableField.top = new FormAttachment( wTable, margin );
+    fdlTableField.right = new FormAttachment( middle, -margin );
+    wlTableField.setLayoutData( fdlTableField );
+
+    // Editable, so the field can be cleared to load every row into the table
+    wTableField = new CCombo( wLoaderComp, SWT.BORDER );
+    props.setLook( wTableField );
+    wTableField.addModifyListener( lsMod );
+    fdTableField = new FormData();
+    fdTableField.left = new FormAttachment( middle, 0 );
+    fdTableField.top = new FormAttachment( wTable, margin );
+    fdTableField.right = new FormAttachment( 100, 0 );
+    wTableField.setLayoutData( fdTableField );
+    wTableField.addFocusListener( new FocusAdapter() {
+      /**
+       * Get the fields from the previous step and populate the Table field drop down
+       * @param focusEvent The event
+       */
+      @Override
+      public void focusGained( FocusEvent focusEvent ) {
+        String tableField = wTableField.getText();
+        try {
+          RowMetaInterface row = transMeta.getPrevStepFields( stepMeta );
+          wTableField.setItems( row.getFieldNames() );
+        } catch ( Exception ex ) {
+          wTableField.setItems( new String[] {} );
+        }
+        wTableField.setText( tableField );
+      }
+    } );
+
+    // Maximum number of tables line
+    wlMaxTables = new Label( wLoaderComp, SWT.RIGHT );
+    wlMaxTables.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MaxTables.Label" ) );
+    wlMaxTables.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MaxTables.Tooltip" ) );
+    props.setLook( wlMaxTables );
+    fdlMaxTables = new FormData();
+    fdlMaxTables.left = new FormAttachment( 0, 0 );
+    fdlMaxTables.top = new FormAttachment( wTableField, margin );
+    fdlMaxTables.right = new FormAttachment( middle, -margin );
+    wlMaxTables.setLayoutData( fdlMaxTables );
+
+    wMaxTables = new TextVar( transMeta, wLoaderComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wMaxTables );
+    wMaxTables.addModifyListener( lsMod );
+    fdMaxTables = new FormData();
+    fdMaxTables.left = new FormAttachment( middle, 0 );
+    fdMaxTables.top = new FormAttachment( wTableField, margin );
+    fdMaxTables.right = new FormAttachment( 100, 0 );
+    wMaxTables.setLayoutData( fdMaxTables );
+
     // Location Type line
     //
     wlLocationType = new Label( wLoaderComp, SWT.RIGHT );
@@ -473,7 +681,7 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     props.setLook( wlLocationType );
     fdlLocationType = new FormData();
     fdlLocationType.left = new FormAttachment( 0, 0 );
-    fdlLocationType.top = new FormAttachment( wTable, margin * 2 );
+    fdlLocationType.top = new FormAttachment( wMaxTables, margin * 2 );
     fdlLocationType.right = new FormAttachment( middle, -margin );
     wlLocationType.setLayoutData( fdlLocationType );
 
@@ -484,7 +692,7 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     wLocationType.addSelectionListener( lsFlags );
     fdLocationType = new FormData();
     fdLocationType.left = new FormAttachment( middle, 0 );
-    fdLocationType.top = new FormAttachment( wTable, margin * 2 );
+    fdLocationType.top = new FormAttachment( wMaxTables, margin * 2 );
     fdLocationType.right = new FormAttachment( 100, 0 );
     wLocationType.setLayoutData( fdLocationType );
     for ( String locationType : LOCATION_TYPE_COMBO ) {
@@ -612,6 +820,27 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       }
     } );
 
+    // Resumable line
+    wlResumable = new Label( wLoaderComp, SWT.RIGHT );
+    wlResumable.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.Resumable.Label" ) );
+    wlResumable.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.Resumable.Tooltip" ) );
+    props.setLook( wlResumable );
+    fdlResumable = new FormData();
+    fdlResumable.left = new FormAttachment( 0, 0 );
+    fdlResumable.top = new FormAttachment( wWorkDirectory, margin );
+    fdlResumable.right = new FormAttachment( middle, -margin );
+    wlResumable.setLayoutData( fdlResumable );
+
+    wResumable = new Button( wLoaderComp, SWT.CHECK );
+    props.setLook( wResumable );
+    fdResumable = new FormData();
+    fdResumable.left = new FormAttachment( middle, 0 );
+    fdResumable.top = new FormAttachment( wWorkDirectory, margin );
+    fdResumable.right = new FormAttachment( 100, 0 );
+    wResumable.setLayoutData( fdResumable );
+    wResumable.addSelectionListener( bMod );
+    wResumable.addSelectionListener( lsFlags );
+
     // On Error line
     //
     wlOnError = new Label( wLoaderComp, SWT.RIGHT );
@@ -620,7 +849,7 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     props.setLook( wlOnError );
     fdlOnError = new FormData();
     fdlOnError.left = new FormAttachment( 0, 0 );
-    fdlOnError.top = new FormAttachment( wWorkDirectory, margin * 2 );
+    fdlOnError.top = new FormAttachment( wResumable, margin * 2 );
     fdlOnError.right = new FormAttachment( middle, -margin );
     wlOnError.setLayoutData( fdlOnError );
 
@@ -631,7 +860,7 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     wOnError.addSelectionListener( lsFlags );
     fdOnError = new FormData();
     fdOnError.left = new FormAttachment( middle, 0 );
-    fdOnError.top = new FormAttachment( wWorkDirectory, margin * 2 );
+    fdOnError.top = new FormAttachment( wResumable, margin * 2 );
     fdOnError.right = new FormAttachment( 100, 0 );
     wOnError.setLayoutData( fdOnError );
     for ( String onError : ON_ERROR_COMBO ) {
@@ -679,6 +908,26 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     fdSplitSize.right = new FormAttachment( 100, 0 );
     wSplitSize.setLayoutData( fdSplitSize );
 
+    // Split file size line
+    wlSplitFileSize = new Label( wLoaderComp, SWT.RIGHT );
+    wlSplitFileSize.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SplitFileSize.Label" ) );
+    wlSplitFileSize.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SplitFileSize.Tooltip" ) );
+    props.setLook( wlSplitFileSize );
+    fdlSplitFileSize = new FormData();
+    fdlSplitFileSize.left = new FormAttachment( 0, 0 );
+    fdlSplitFileSize.top = new FormAttachment( wSplitSize, margin );
+    fdlSplitFileSize.right = new FormAttachment( middle, -margin );
+    wlSplitFileSize.setLayoutData( fdlSplitFileSize );
+
+    wSplitFileSize = new TextVar( transMeta, wLoaderComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wSplitFileSize );
+    wSplitFileSize.addModifyListener( lsMod );
+    fdSplitFileSize = new FormData();
+    fdSplitFileSize.left = new FormAttachment( middle, 0 );
+    fdSplitFileSize.top = new FormAttachment( wSplitSize, margin );
+    fdSplitFileSize.right = new FormAttachment( 100, 0 );
+    wSplitFileSize.setLayoutData( fdSplitFileSize );
+
     // Remove files line
     //
     wlRemoveFiles = new Label( wLoaderComp, SWT.RIGHT );
@@ -687,7 +936,7 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     props.setLook( wlRemoveFiles );
     fdlRemoveFiles = new FormData();
     fdlRemoveFiles.left = new FormAttachment( 0, 0 );
-    fdlRemoveFiles.top = new FormAttachment( wSplitSize, margin );
+    fdlRemoveFiles.top = new FormAttachment( wSplitFileSize, margin );
     fdlRemoveFiles.right = new FormAttachment( middle, -margin );
     wlRemoveFiles.setLayoutData( fdlRemoveFiles );
 
@@ -695,11 +944,72 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     props.setLook( wRemoveFiles );
     fdRemoveFiles = new FormData();
     fdRemoveFiles.left = new FormAttachment( middle, 0 );
-    fdRemoveFiles.top = new FormAttachment( wSplitSize, margin );
+    fdRemoveFiles.top = new FormAttachment( wSplitFileSize, margin );
     fdRemoveFiles.right = new FormAttachment( 100, 0 );
     wRemoveFiles.setLayoutData( fdRemoveFiles );
     wRemoveFiles.addSelectionListener( bMod );
 
+    // Merge line
+    wlMerge = new Label( wLoaderComp, SWT.RIGHT );
+    wlMerge.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.Merge.Label" ) );
+    wlMerge.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.Merge.Tooltip" ) );
+    props.setLook( wlMerge );
+    fdlMerge = new FormData();
+    fdlMerge.left = new FormAttachment( 0, 0 );
+    fdlMerge.top = new FormAttachment( wRemoveFiles, margin );
+    fdlMerge.right = new FormAttachment( middle, -margin );
+    wlMerge.setLayoutData( fdlMerge );
+
+    wMerge = new Button( wLoaderComp, SWT.CHECK );
+    props.setLook( wMerge );
+    fdMerge = new FormData();
+    fdMerge.left = new FormAttachment( middle, 0 );
+    fdMerge.top = new FormAttachment( wRemoveFiles, margin );
+    fdMerge.right = new FormAttachment( 100, 0 );
+    wMerge.setLayoutData( fdMerge );
+    wMerge.addSelectionListener( bMod );
+    wMerge.addSelectionListener( lsFlags );
+
+    // Merge keys line
+    wlMergeKeys = new Label( wLoaderComp, SWT.RIGHT );
+    wlMergeKeys.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MergeKeys.Label" ) );
+    wlMergeKeys.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MergeKeys.Tooltip" ) );
+    props.setLook( wlMergeKeys );
+    fdlMergeKeys = new FormData();
+    fdlMergeKeys.left = new FormAttachment( 0, 0 );
+    fdlMergeKeys.top = new FormAttachment( wMerge, margin );
+    fdlMergeKeys.right = new FormAttachment( middle, -margin );
+    wlMergeKeys.setLayoutData( fdlMergeKeys );
+
+    wMergeKeys = new TextVar( transMeta, wLoaderComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wMergeKeys );
+    wMergeKeys.addModifyListener( lsMod );
+    fdMergeKeys = new FormData();
+    fdMergeKeys.left = new FormAttachment( middle, 0 );
+    fdMergeKeys.top = new FormAttachment( wMerge, margin );
+    fdMergeKeys.right = new FormAttachment( 100, 0 );
+    wMergeKeys.setLayoutData( fdMergeKeys );
+
+    // Validate first file line
+    wlValidateFirstFile = new Label( wLoaderComp, SWT.RIGHT );
+    wlValidateFirstFile.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.ValidateFirstFile.Label" ) );
+    wlValidateFirstFile.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.ValidateFirstFile.Tooltip" ) );
+    props.setLook( wlValidateFirstFile );
+    fdlValidateFirstFile = new FormData();
+    fdlValidateFirstFile.left = new FormAttachment( 0, 0 );
+    fdlValidateFirstFile.top = new FormAttachment( wMergeKeys, margin );
+    fdlValidateFirstFile.right = new FormAttachment( middle, -margin );
+    wlValidateFirstFile.setLayoutData( fdlValidateFirstFile );
+
+    wValidateFirstFile = new Button( wLoaderComp, SWT.CHECK );
+    props.setLook( wValidateFirstFile );
+    fdValidateFirstFile = new FormData();
+    fdValidateFirstFile.left = new FormAttachment( middle, 0 );
+    fdValidateFirstFile.top = new FormAttachment( wMergeKeys, margin );
+    fdValidateFirstFile.right = new FormAttachment( 100, 0 );
+    wValidateFirstFile.setLayoutData( fdValidateFirstFile );
+    wValidateFirstFile.addSelectionListener( bMod );
+
     fdLoaderComp = new FormData();
     fdLoaderComp.left = new FormAttachment( 0, 0 );
     fdLoaderComp.top = new FormAttachment( 0, 0 );
@@ -1118,6 +1428,450 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     wFieldsComp.layout();
     wFieldsTab.setControl( wFieldsComp );
 
+    /* ******************************************
+     * End Fields tab
+     * ******************************************/
+
+    /* ******************************************
+     * Start Performance tab
+     * This tab is used to tune how the temp files
+     * are written and uploaded
+     * ******************************************/
+
+    wPerformanceTab = new CTabItem( wTabFolder, SWT.NONE );
+    wPerformanceTab.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PerformanceTab.TabTitle" ) );
+
+    Composite wPerformanceComp = new Composite( wTabFolder, SWT.NONE );
+    props.setLook( wPerformanceComp );
+
+    FormLayout performanceLayout = new FormLayout();
+    performanceLayout.marginWidth = 3;
+    performanceLayout.marginHeight = 3;
+    wPerformanceComp.setLayout( performanceLayout );
+
+    // Pipeline uploads line
+    wlPipelineUploads = new Label( wPerformanceComp, SWT.RIGHT );
+    wlPipelineUploads.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PipelineUploads.Label" ) );
+    wlPipelineUploads.setToolTipText(
+      BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PipelineUploads.Tooltip" ) );
+    props.setLook( wlPipelineUploads );
+    fdlPipelineUploads = new FormData();
+    fdlPipelineUploads.left = new FormAttachment( 0, 0 );
+    fdlPipelineUploads.top = new FormAttachment( 0, margin );
+    fdlPipelineUploads.right = new FormAttachment( middle, -margin );
+    wlPipelineUploads.setLayoutData( fdlPipelineUploads );
+
+    wPipelineUploads = new Button( wPerformanceComp, SWT.CHECK );
+    props.setLook( wPipelineUploads );
+    fdPipelineUploads = new FormData();
+    fdPipelineUploads.left = new FormAttachment( middle, 0 );
+    fdPipelineUploads.top = new FormAttachment( 0, margin );
+    fdPipelineUploads.right = new FormAttachment( 100, 0 );
+    wPipelineUploads.setLayoutData( fdPipelineUploads );
+    wPipelineUploads.addSelectionListener( bMod );
+    wPipelineUploads.addSelectionListener( lsFlags );
+
+    // Upload queue size line
+    wlUploadQueueSize = new Label( wPerformanceComp, SWT.RIGHT );
+    wlUploadQueueSize.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.UploadQueueSize.Label" ) );
+    wlUploadQueueSize.setToolTipText(
+      BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.UploadQueueSize.Tooltip" ) );
+    props.setLook( wlUploadQueueSize );
+    fdlUploadQueueSize = new FormData();
+    fdlUploadQueueSize.left = new FormAttachment( 0, 0 );
+    fdlUploadQueueSize.top = new FormAttachment( wPipelineUploads, margin );
+    fdlUploadQueueSize.right = new FormAttachment( middle, -margin );
+    wlUploadQueueSize.setLayoutData( fdlUploadQueueSize );
+
+    wUploadQueueSize = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wUploadQueueSize );
+    wUploadQueueSize.addModifyListener( lsMod );
+    fdUploadQueueSize = new FormData();
+    fdUploadQueueSize.left = new FormAttachment( middle, 0 );
+    fdUploadQueueSize.top = new FormAttachment( wPipelineUploads, margin );
+    fdUploadQueueSize.right = new FormAttachment( 100, 0 );
+    wUploadQueueSize.setLayoutData( fdUploadQueueSize );
+
+    // Upload connections line
+    wlUploadConnections = new Label( wPerformanceComp, SWT.RIGHT );
+    wlUploadConnections.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.UploadConnections.Label" ) );
+    wlUploadConnections.setToolTipText(
+      BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.UploadConnections.Tooltip" ) );
+    props.setLook( wlUploadConnections );
+    fdlUploadConnections = new FormData();
+    fdlUploadConnections.left = new FormAttachment( 0, 0 );
+    fdlUploadConnections.top = new FormAttachment( wUploadQueueSize, margin );
+    fdlUploadConnections.right = new FormAttachment( middle, -margin );
+    wlUploadConnections.setLayoutData( fdlUploadConnections );
+
+    wUploadConnections = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wUploadConnections );
+    wUploadConnections.addModifyListener( lsMod );
+    fdUploadConnections = new FormData();
+    fdUploadConnections.left = new FormAttachment( middle, 0 );
+    fdUploadConnections.top = new FormAttachment( wUploadQueueSize, margin );
+    fdUploadConnections.right = new FormAttachment( 100, 0 );
+    wUploadConnections.setLayoutData( fdUploadConnections );
+
+    // Put parallel line
+    wlPutParallel = new Label( wPerformanceComp, SWT.RIGHT );
+    wlPutParallel.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PutParallel.Label" ) );
+    wlPutParallel.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PutParallel.Tooltip" ) );
+    props.setLook( wlPutParallel );
+    fdlPutParallel = new FormData();
+    fdlPutParallel.left = new FormAttachment( 0, 0 );
+    fdlPutParallel.top = new FormAttachment( wUploadConnections, margin );
+    fdlPutParallel.right = new FormAttachment( middle, -margin );
+    wlPutParallel.setLayoutData( fdlPutParallel );
+
+    wPutParallel = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wPutParallel );
+    wPutParallel.addModifyListener( lsMod );
+    fdPutParallel = new FormData();
+    fdPutParallel.left = new FormAttachment( middle, 0 );
+    fdPutParallel.top = new FormAttachment( wUploadConnections, margin );
+    fdPutParallel.right = new FormAttachment( 100, 0 );
+    wPutParallel.setLayoutData( fdPutParallel );
+
+    // Compression threads line
+    wlCompressionThreads = new Label( wPerformanceComp, SWT.RIGHT );
+    wlCompressionThreads.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.CompressionThreads.Label" ) );
+    wlCompressionThreads.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.CompressionThreads.Tooltip" ) );
+    props.setLook( wlCompressionThreads );
+    fdlCompressionThreads = new FormData();
+    fdlCompressionThreads.left = new FormAttachment( 0, 0 );
+    fdlCompressionThreads.top = new FormAttachment( wPutParallel, margin * 2 );
+    fdlCompressionThreads.right = new FormAttachment( middle, -margin );
+    wlCompressionThreads.setLayoutData( fdlCompressionThreads );
+
+    wCompressionThreads = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wCompressionThreads );
+    wCompressionThreads.addModifyListener( lsMod );
+    fdCompressionThreads = new FormData();
+    fdCompressionThreads.left = new FormAttachment( middle, 0 );
+    fdCompressionThreads.top = new FormAttachment( wPutParallel, margin * 2 );
+    fdCompressionThreads.right = new FormAttachment( 100, 0 );
+    wCompressionThreads.setLayoutData( fdCompressionThreads );
+
+    // Write buffer size line
+    wlWriteBufferSize = new Label( wPerformanceComp, SWT.RIGHT );
+    wlWriteBufferSize.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.WriteBufferSize.Label" ) );
+    wlWriteBufferSize.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.WriteBufferSize.Tooltip" ) );
+    props.setLook( wlWriteBufferSize );
+    fdlWriteBufferSize = new FormData();
+    fdlWriteBufferSize.left = new FormAttachment( 0, 0 );
+    fdlWriteBufferSize.top = new FormAttachment( wCompressionThreads, margin );
+    fdlWriteBufferSize.right = new FormAttachment( middle, -margin );
+    wlWriteBufferSize.setLayoutData( fdlWriteBufferSize );
+
+    wWriteBufferSize = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wWriteBufferSize );
+    wWriteBufferSize.addModifyListener( lsMod );
+    fdWriteBufferSize = new FormData();
+    fdWriteBufferSize.left = new FormAttachment( middle, 0 );
+    fdWriteBufferSize.top = new FormAttachment( wCompressionThreads, margin );
+    fdWriteBufferSize.right = new FormAttachment( 100, 0 );
+    wWriteBufferSize.setLayoutData( fdWriteBufferSize );
+
+    // Buffer pool size line
+    wlBufferPoolSize = new Label( wPerformanceComp, SWT.RIGHT );
+    wlBufferPoolSize.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.BufferPoolSize.Label" ) );
+    wlBufferPoolSize.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.BufferPoolSize.Tooltip" ) );
+    props.setLook( wlBufferPoolSize );
+    fdlBufferPoolSize = new FormData();
+    fdlBufferPoolSize.left = new FormAttachment( 0, 0 );
+    fdlBufferPoolSize.top = new FormAttachment( wWriteBufferSize, margin );
+    fdlBufferPoolSize.right = new FormAttachment( middle, -margin );
+    wlBufferPoolSize.setLayoutData( fdlBufferPoolSize );
+
+    wBufferPoolSize = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wBufferPoolSize );
+    wBufferPoolSize.addModifyListener( lsMod );
+    fdBufferPoolSize = new FormData();
+    fdBufferPoolSize.left = new FormAttachment( middle, 0 );
+    fdBufferPoolSize.top = new FormAttachment( wWriteBufferSize, margin );
+    fdBufferPoolSize.right = new FormAttachment( 100, 0 );
+    wBufferPoolSize.setLayoutData( fdBufferPoolSize );
+
+    // Single copy statement line
+    wlSingleCopyStatement = new Label( wPerformanceComp, SWT.RIGHT );
+    wlSingleCopyStatement.setText(
+      BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SingleCopyStatement.Label" ) );
+    wlSingleCopyStatement.setToolTipText(
+      BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SingleCopyStatement.Tooltip" ) );
+    props.setLook( wlSingleCopyStatement );
+    fdlSingleCopyStatement = new FormData();
+    fdlSingleCopyStatement.left = new FormAttachment( 0, 0 );
+    fdlSingleCopyStatement.top = new FormAttachment( wBufferPoolSize, margin * 2 );
+    fdlSingleCopyStatement.right = new FormAttachment( middle, -margin );
+    wlSingleCopyStatement.setLayoutData( fdlSingleCopyStatement );
+
+    wSingleCopyStatement = new Button( wPerformanceComp, SWT.CHECK );
+    props.setLook( wSingleCopyStatement );
+    fdSingleCopyStatement = new FormData();
+    fdSingleCopyStatement.left = new FormAttachment( middle, 0 );
+    fdSingleCopyStatement.top = new FormAttachment( wBufferPoolSize, margin * 2 );
+    fdSingleCopyStatement.right = new FormAttachment( 100, 0 );
+    wSingleCopyStatement.setLayoutData( fdSingleCopyStatement );
+    wSingleCopyStatement.addSelectionListener( bMod );
+
+    // Stream upload line
+    wlStreamUpload = new Label( wPerformanceComp, SWT.RIGHT );
+    wlStreamUpload.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.StreamUpload.Label" ) );
+    wlStreamUpload.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.StreamUpload.Tooltip" ) );
+    props.setLook( wlStreamUpload );
+    fdlStreamUpload = new FormData();
+    fdlStreamUpload.left = new FormAttachment( 0, 0 );
+    fdlStreamUpload.top = new FormAttachment( wSingleCopyStatement, margin * 2 );
+    fdlStreamUpload.right = new FormAttachment( middle, -margin );
+    wlStreamUpload.setLayoutData( fdlStreamUpload );
+
+    wStreamUpload = new Button( wPerformanceComp, SWT.CHECK );
+    props.setLook( wStreamUpload );
+    fdStreamUpload = new FormData();
+    fdStreamUpload.left = new FormAttachment( middle, 0 );
+    fdStreamUpload.top = new FormAttachment( wSingleCopyStatement, margin * 2 );
+    fdStreamUpload.right = new FormAttachment( 100, 0 );
+    wStreamUpload.setLayoutData( fdStreamUpload );
+    wStreamUpload.addSelectionListener( bMod );
+    wStreamUpload.addSelectionListener( lsFlags );
+
+    // Memory buffer size line
+    wlMemoryBufferSize = new Label( wPerformanceComp, SWT.RIGHT );
+    wlMemoryBufferSize.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MemoryBufferSize.Label" ) );
+    wlMemoryBufferSize.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MemoryBufferSize.Tooltip" ) );
+    props.setLook( wlMemoryBufferSize );
+    fdlMemoryBufferSize = new FormData();
+    fdlMemoryBufferSize.left = new FormAttachment( 0, 0 );
+    fdlMemoryBufferSize.top = new FormAttachment( wStreamUpload, margin );
+    fdlMemoryBufferSize.right = new FormAttachment( middle, -margin );
+    wlMemoryBufferSize.setLayoutData( fdlMemoryBufferSize );
+
+    wMemoryBufferSize = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wMemoryBufferSize );
+    wMemoryBufferSize.addModifyListener( lsMod );
+    fdMemoryBufferSize = new FormData();
+    fdMemoryBufferSize.left = new FormAttachment( middle, 0 );
+    fdMemoryBufferSize.top = new FormAttachment( wStreamUpload, margin );
+    fdMemoryBufferSize.right = new FormAttachment( 100, 0 );
+    wMemoryBufferSize.setLayoutData( fdMemoryBufferSize );
+
+    // Micro-batch interval line
+    wlMicroBatchInterval = new Label( wPerformanceComp, SWT.RIGHT );
+    wlMicroBatchInterval.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MicroBatchInterval.Label" ) );
+    wlMicroBatchInterval.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MicroBatchInterval.Tooltip" ) );
+    props.setLook( wlMicroBatchInterval );
+    fdlMicroBatchInterval = new FormData();
+    fdlMicroBatchInterval.left = new FormAttachment( 0, 0 );
+    fdlMicroBatchInterval.top = new FormAttachment( wMemoryBufferSize, margin * 2 );
+    fdlMicroBatchInterval.right = new FormAttachment( middle, -margin );
+    wlMicroBatchInterval.setLayoutData( fdlMicroBatchInterval );
+
+    wMicroBatchInterval = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wMicroBatchInterval );
+    wMicroBatchInterval.addModifyListener( lsMod );
+    fdMicroBatchInterval = new FormData();
+    fdMicroBatchInterval.left = new FormAttachment( middle, 0 );
+    fdMicroBatchInterval.top = new FormAttachment( wMemoryBufferSize, margin * 2 );
+    fdMicroBatchInterval.right = new FormAttachment( 100, 0 );
+    wMicroBatchInterval.setLayoutData( fdMicroBatchInterval );
+
+    // Micro-batch size line
+    wlMicroBatchSize = new Label( wPerformanceComp, SWT.RIGHT );
+    wlMicroBatchSize.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MicroBatchSize.Label" ) );
+    wlMicroBatchSize.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.MicroBatchSize.Tooltip" ) );
+    props.setLook( wlMicroBatchSize );
+    fdlMicroBatchSize = new FormData();
+    fdlMicroBatchSize.left = new FormAttachment( 0, 0 );
+    fdlMicroBatchSize.top = new FormAttachment( wMicroBatchInterval, margin );
+    fdlMicroBatchSize.right = new FormAttachment( middle, -margin );
+    wlMicroBatchSize.setLayoutData( fdlMicroBatchSize );
+
+    wMicroBatchSize = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wMicroBatchSize );
+    wMicroBatchSize.addModifyListener( lsMod );
+    fdMicroBatchSize = new FormData();
+    fdMicroBatchSize.left = new FormAttachment( middle, 0 );
+    fdMicroBatchSize.top = new FormAttachment( wMicroBatchInterval, margin );
+    fdMicroBatchSize.right = new FormAttachment( 100, 0 );
+    wMicroBatchSize.setLayoutData( fdMicroBatchSize );
+
+    // Table cache time to live line
+    wlTableCacheTtl = new Label( wPerformanceComp, SWT.RIGHT );
+    wlTableCacheTtl.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.TableCacheTtl.Label" ) );
+    wlTableCacheTtl.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.TableCacheTtl.Tooltip" ) );
+    props.setLook( wlTableCacheTtl );
+    fdlTableCacheTtl = new FormData();
+    fdlTableCacheTtl.left = new FormAttachment( 0, 0 );
+    fdlTableCacheTtl.top = new FormAttachment( wMicroBatchSize, margin );
+    fdlTableCacheTtl.right = new FormAttachment( middle, -margin );
+    wlTableCacheTtl.setLayoutData( fdlTableCacheTtl );
+
+    wTableCacheTtl = new TextVar( transMeta, wPerformanceComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wTableCacheTtl );
+    wTableCacheTtl.addModifyListener( lsMod );
+    fdTableCacheTtl = new FormData();
+    fdTableCacheTtl.left = new FormAttachment( middle, 0 );
+    fdTableCacheTtl.top = new FormAttachment( wMicroBatchSize, margin );
+    fdTableCacheTtl.right = new FormAttachment( 100, 0 );
+    wTableCacheTtl.setLayoutData( fdTableCacheTtl );
+
+    // Load metrics note line
+    wlMetrics = new Label( wPerformanceComp, SWT.LEFT | SWT.WRAP );
+    wlMetrics.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.Metrics.Label" ) );
+    props.setLook( wlMetrics );
+    fdlMetrics = new FormData();
+    fdlMetrics.left = new FormAttachment( 0, 0 );
+    fdlMetrics.top = new FormAttachment( wTableCacheTtl, margin * 2 );
+    fdlMetrics.right = new FormAttachment( 100, 0 );
+    wlMetrics.setLayoutData( fdlMetrics );
+
+    fdPerformanceComp = new FormData();
+    fdPerformanceComp.left = new FormAttachment( 0, 0 );
+    fdPerformanceComp.top = new FormAttachment( 0, 0 );
+    fdPerformanceComp.right = new FormAttachment( 100, 0 );
+    fdPerformanceComp.bottom = new FormAttachment( 100, 0 );
+    wPerformanceComp.setLayoutData( fdPerformanceComp );
+
+    wPerformanceComp.layout();
+    wPerformanceTab.setControl( wPerformanceComp );
+
+    /* ******************************************
+     * End Performance tab
+     * ******************************************/
+
+    /* ******************************************
+     * Start Snowpipe tab
+     * This tab is used to load the staged files
+     * with a Snowpipe pipe
+     * ******************************************/
+
+    wSnowpipeTab = new CTabItem( wTabFolder, SWT.NONE );
+    wSnowpipeTab.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SnowpipeTab.TabTitle" ) );
+
+    Composite wSnowpipeComp = new Composite( wTabFolder, SWT.NONE );
+    props.setLook( wSnowpipeComp );
+
+    FormLayout snowpipeLayout = new FormLayout();
+    snowpipeLayout.marginWidth = 3;
+    snowpipeLayout.marginHeight = 3;
+    wSnowpipeComp.setLayout( snowpipeLayout );
+
+    // Snowpipe line
+    wlSnowpipe = new Label( wSnowpipeComp, SWT.RIGHT );
+    wlSnowpipe.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.Snowpipe.Label" ) );
+    wlSnowpipe.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.Snowpipe.Tooltip" ) );
+    props.setLook( wlSnowpipe );
+    fdlSnowpipe = new FormData();
+    fdlSnowpipe.left = new FormAttachment( 0, 0 );
+    fdlSnowpipe.top = new FormAttachment( 0, margin );
+    fdlSnowpipe.right = new FormAttachment( middle, -margin );
+    wlSnowpipe.setLayoutData( fdlSnowpipe );
+
+    wSnowpipe = new Button( wSnowpipeComp, SWT.CHECK );
+    props.setLook( wSnowpipe );
+    fdSnowpipe = new FormData();
+    fdSnowpipe.left = new FormAttachment( middle, 0 );
+    fdSnowpipe.top = new FormAttachment( 0, margin );
+    fdSnowpipe.right = new FormAttachment( 100, 0 );
+    wSnowpipe.setLayoutData( fdSnowpipe );
+    wSnowpipe.addSelectionListener( bMod );
+    wSnowpipe.addSelectionListener( lsFlags );
+
+    // Pipe name line
+    wlPipeName = new Label( wSnowpipeComp, SWT.RIGHT );
+    wlPipeName.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PipeName.Label" ) );
+    wlPipeName.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PipeName.Tooltip" ) );
+    props.setLook( wlPipeName );
+    fdlPipeName = new FormData();
+    fdlPipeName.left = new FormAttachment( 0, 0 );
+    fdlPipeName.top = new FormAttachment( wSnowpipe, margin * 2 );
+    fdlPipeName.right = new FormAttachment( middle, -margin );
+    wlPipeName.setLayoutData( fdlPipeName );
+
+    wPipeName = new TextVar( transMeta, wSnowpipeComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wPipeName );
+    wPipeName.addModifyListener( lsMod );
+    fdPipeName = new FormData();
+    fdPipeName.left = new FormAttachment( middle, 0 );
+    fdPipeName.top = new FormAttachment( wSnowpipe, margin * 2 );
+    fdPipeName.right = new FormAttachment( 100, 0 );
+    wPipeName.setLayoutData( fdPipeName );
+
+    // Private key file line
+    wlPrivateKeyFile = new Label( wSnowpipeComp, SWT.RIGHT );
+    wlPrivateKeyFile.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PrivateKeyFile.Label" ) );
+    wlPrivateKeyFile.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.PrivateKeyFile.Tooltip" ) );
+    props.setLook( wlPrivateKeyFile );
+    fdlPrivateKeyFile = new FormData();
+    fdlPrivateKeyFile.left = new FormAttachment( 0, 0 );
+    fdlPrivateKeyFile.top = new FormAttachment( wPipeName, margin );
+    fdlPrivateKeyFile.right = new FormAttachment( middle, -margin );
+    wlPrivateKeyFile.setLayoutData( fdlPrivateKeyFile );
+
+    wPrivateKeyFile = new TextVar( transMeta, wSnowpipeComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wPrivateKeyFile );
+    wPrivateKeyFile.addModifyListener( lsMod );
+    fdPrivateKeyFile = new FormData();
+    fdPrivateKeyFile.left = new FormAttachment( middle, 0 );
+    fdPrivateKeyFile.top = new FormAttachment( wPipeName, margin );
+    fdPrivateKeyFile.right = new FormAttachment( 100, 0 );
+    wPrivateKeyFile.setLayoutData( fdPrivateKeyFile );
+
+    // Snowpipe URL line
+    wlSnowpipeUrl = new Label( wSnowpipeComp, SWT.RIGHT );
+    wlSnowpipeUrl.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SnowpipeUrl.Label" ) );
+    wlSnowpipeUrl.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SnowpipeUrl.Tooltip" ) );
+    props.setLook( wlSnowpipeUrl );
+    fdlSnowpipeUrl = new FormData();
+    fdlSnowpipeUrl.left = new FormAttachment( 0, 0 );
+    fdlSnowpipeUrl.top = new FormAttachment( wPrivateKeyFile, margin );
+    fdlSnowpipeUrl.right = new FormAttachment( middle, -margin );
+    wlSnowpipeUrl.setLayoutData( fdlSnowpipeUrl );
+
+    wSnowpipeUrl = new TextVar( transMeta, wSnowpipeComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wSnowpipeUrl );
+    wSnowpipeUrl.addModifyListener( lsMod );
+    fdSnowpipeUrl = new FormData();
+    fdSnowpipeUrl.left = new FormAttachment( middle, 0 );
+    fdSnowpipeUrl.top = new FormAttachment( wPrivateKeyFile, margin );
+    fdSnowpipeUrl.right = new FormAttachment( 100, 0 );
+    wSnowpipeUrl.setLayoutData( fdSnowpipeUrl );
+
+    // Load timeout line
+    wlSnowpipeTimeout = new Label( wSnowpipeComp, SWT.RIGHT );
+    wlSnowpipeTimeout.setText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SnowpipeTimeout.Label" ) );
+    wlSnowpipeTimeout.setToolTipText( BaseMessages.getString( PKG, "SnowflakeBulkLoader.Dialog.SnowpipeTimeout.Tooltip" ) );
+    props.setLook( wlSnowpipeTimeout );
+    fdlSnowpipeTimeout = new FormData();
+    fdlSnowpipeTimeout.left = new FormAttachment( 0, 0 );
+    fdlSnowpipeTimeout.top = new FormAttachment( wSnowpipeUrl, margin );
+    fdlSnowpipeTimeout.right = new FormAttachment( middle, -margin );
+    wlSnowpipeTimeout.setLayoutData( fdlSnowpipeTimeout );
+
+    wSnowpipeTimeout = new TextVar( transMeta, wSnowpipeComp, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    props.setLook( wSnowpipeTimeout );
+    wSnowpipeTimeout.addModifyListener( lsMod );
+    fdSnowpipeTimeout = new FormData();
+    fdSnowpipeTimeout.left = new FormAttachment( middle, 0 );
+    fdSnowpipeTimeout.top = new FormAttachment( wSnowpipeUrl, margin );
+    fdSnowpipeTimeout.right = new FormAttachment( 100, 0 );
+    wSnowpipeTimeout.setLayoutData( fdSnowpipeTimeout );
+
+    fdSnowpipeComp = new FormData();
+    fdSnowpipeComp.left = new FormAttachment( 0, 0 );
+    fdSnowpipeComp.top = new FormAttachment( 0, 0 );
+    fdSnowpipeComp.right = new FormAttachment( 100, 0 );
+    fdSnowpipeComp.bottom = new FormAttachment( 100, 0 );
+    wSnowpipeComp.setLayoutData( fdSnowpipeComp );
+
+    wSnowpipeComp.layout();
+    wSnowpipeTab.setControl( wSnowpipeComp );
+
+    /* ******************************************
+     * End Snowpipe tab
+     * ******************************************/
+
     fdTabFolder = new FormData();
     fdTabFolder.left = new FormAttachment( 0, 0 );
     fdTabFolder.top = new FormAttachment( wStepname, margin );
@@ -1270,6 +2024,14 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       wTable.setText( input.getTargetTable() );
     }
 
+    if ( input.getTargetTableField() != null ) {
+      wTableField.setText( input.getTargetTableField() );
+    }
+
+    if ( input.getMaxTables() != null ) {
+      wMaxTables.setText( input.getMaxTables() );
+    }
+
     if ( input.getLocationType() != null ) {
       wLocationType.setText( LOCATION_TYPE_COMBO[input.getLocationTypeId()] );
     }
@@ -1294,7 +2056,17 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       wSplitSize.setText( input.getSplitSize() );
     }
 
+    if ( input.getSplitFileSize() != null ) {
+      wSplitFileSize.setText( input.getSplitFileSize() );
+    }
+
     wRemoveFiles.setSelection( input.isRemoveFiles() );
+    wMerge.setSelection( input.isMerge() );
+    wValidateFirstFile.setSelection( input.isValidateFirstFile() );
+    if ( input.getMergeKeys() != null ) {
+      wMergeKeys.setText( input.getMergeKeys() );
+    }
+    wResumable.setSelection( input.isResumable() );
 
     if ( input.getDataType() != null ) {
       wDataType.setText( DATA_TYPE_COMBO[input.getDataTypeId()] );
@@ -1322,6 +2094,69 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       wJsonField.setText( input.getJsonField() );
     }
 
+    wPipelineUploads.setSelection( input.isPipelineUploads() );
+
+    if ( input.getUploadQueueSize() != null ) {
+      wUploadQueueSize.setText( input.getUploadQueueSize() );
+    }
+
+    if ( input.getUploadConnections() != null ) {
+      wUploadConnections.setText( input.getUploadConnections() );
+    }
+
+    if ( input.getPutParallel() != null ) {
+      wPutParallel.setText( input.getPutParallel() );
+    }
+
+    if ( input.getCompressionThreads() != null ) {
+      wCompressionThreads.setText( input.getCompressionThreads() );
+    }
+
+    if ( input.getWriteBufferSize() != null ) {
+      wWriteBufferSize.setText( input.getWriteBufferSize() );
+    }
+
+    if ( input.getBufferPoolSize() != null ) {
+      wBufferPoolSize.setText( input.getBufferPoolSize() );
+    }
+
+    wSingleCopyStatement.setSelection( input.isSingleCopyStatement() );
+    wStreamUpload.setSelection( input.isStreamUpload() );
+
+    if ( input.getMemoryBufferSize() != null ) {
+      wMemoryBufferSize.setText( input.getMemoryBufferSize() );
+    }
+
+    if ( input.getMicroBatchInterval() != null ) {
+      wMicroBatchInterval.setText( input.getMicroBatchInterval() );
+    }
+
+    if ( input.getMicroBatchSize() != null ) {
+      wMicroBatchSize.setText( input.getMicroBatchSize() );
+    }
+
+    if ( input.getTableCacheTtl() != null ) {
+      wTableCacheTtl.setText( input.getTableCacheTtl() );
+    }
+
+    wSnowpipe.setSelection( input.isSnowpipe() );
+
+    if ( input.getPipeName() != null ) {
+      wPipeName.setText( input.getPipeName() );
+    }
+
+    if ( input.getPrivateKeyFile() != null ) {
+      wPrivateKeyFile.setText( input.getPrivateKeyFile() );
+    }
+
+    if ( input.getSnowpipeUrl() != null ) {
+      wSnowpipeUrl.setText( input.getSnowpipeUrl() );
+    }
+
+    if ( input.getSnowpipeTimeout() != null ) {
+      wSnowpipeTimeout.setText( input.getSnowpipeTimeout() );
+    }
+
     logDebug( "getting fields info..." );
 
     for ( int i = 0; i < input.getSnowflakeBulkLoaderFields().length; i++ ) {
@@ -1358,13 +2193,20 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     sbl.setDatabaseMeta( transMeta.findDatabase( wConnection.getText() ) );
     sbl.setTargetSchema( wSchema.getText() );
     sbl.setTargetTable( wTable.getText() );
+    sbl.setTargetTableField( wTableField.getText() );
+    sbl.setMaxTables( wMaxTables.getText() );
     sbl.setLocationTypeById( wLocationType.getSelectionIndex() );
     sbl.setStageName( wStageName.getText() );
     sbl.setWorkDirectory( wWorkDirectory.getText() );
     sbl.setOnErrorById( wOnError.getSelectionIndex() );
     sbl.setErrorLimit( wErrorLimit.getText() );
     sbl.setSplitSize( wSplitSize.getText() );
+    sbl.setSplitFileSize( wSplitFileSize.getText() );
     sbl.setRemoveFiles( wRemoveFiles.getSelection() );
+    sbl.setMerge( wMerge.getSelection() );
+    sbl.setMergeKeys( wMergeKeys.getText() );
+    sbl.setValidateFirstFile( wValidateFirstFile.getSelection() );
+    sbl.setResumable( wResumable.getSelection() );
 
     sbl.setDataTypeById( wDataType.getSelectionIndex() );
     sbl.setTrimWhitespace( wTrimWhitespace.getSelection() );
@@ -1378,6 +2220,25 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     sbl.setSpecifyFields( wSpecifyFields.getSelection() );
     sbl.setJsonField( wJsonField.getText() );
 
+    sbl.setPipelineUploads( wPipelineUploads.getSelection() );
+    sbl.setUploadQueueSize( wUploadQueueSize.getText() );
+    sbl.setUploadConnections( wUploadConnections.getText() );
+    sbl.setPutParallel( wPutParallel.getText() );
+    sbl.setCompressionThreads( wCompressionThreads.getText() );
+    sbl.setWriteBufferSize( wWriteBufferSize.getText() );
+    sbl.setBufferPoolSize( wBufferPoolSize.getText() );
+    sbl.setSingleCopyStatement( wSingleCopyStatement.getSelection() );
+    sbl.setStreamUpload( wStreamUpload.getSelection() );
+    sbl.setMemoryBufferSize( wMemoryBufferSize.getText() );
+    sbl.setMicroBatchInterval( wMicroBatchInterval.getText() );
+    sbl.setMicroBatchSize( wMicroBatchSize.getText() );
+    sbl.setTableCacheTtl( wTableCacheTtl.getText() );
+    sbl.setSnowpipe( wSnowpipe.getSelection() );
+    sbl.setPipeName( wPipeName.getText() );
+    sbl.setPrivateKeyFile( wPrivateKeyFile.getText() );
+    sbl.setSnowpipeUrl( wSnowpipeUrl.getText() );
+    sbl.setSnowpipeTimeout( wSnowpipeTimeout.getText() );
+
     // Table table = wFields.table;
 
     int nrfields = wFields.nrNonEmpty();
@@ -1451,6 +2312,13 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
     input.setDatabaseMeta( transMeta.findDatabase( wConnection.getText() ) );
     input.setTargetTable( transMeta.environmentSubstitute( wTable.getText() ) );
     input.setTargetSchema( transMeta.environmentSubstitute( wSchema.getText() ) );
+
+    // The table is read again for the mapping, so the cached columns are dropped in case the table has changed
+    if ( input.getDatabaseMeta() != null ) {
+      SnowflakeTableCache.getInstance().invalidate( SnowflakeTableCache.getKey( input.getDatabaseMeta(),
+        input.getTargetSchema(), input.getTargetTable() ) );
+      setTableFieldCombo();
+    }
     StepMetaInterface stepMetaInterface = stepMeta.getStepMetaInterface();
     try {
       targetFields = stepMetaInterface.getRequiredFields( transMeta );
@@ -1618,23 +2486,37 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
             tableField.setComboValues( new String[]{} );
           }
           if ( !Const.isEmpty( tableName ) ) {
-            DatabaseMeta ci = transMeta.findDatabase( connectionName );
+            final DatabaseMeta ci = transMeta.findDatabase( connectionName );
             if ( ci != null ) {
-              Database db = new Database( loggingObject, ci );
+              final String schema = transMeta.environmentSubstitute( schemaName );
+              final String table = transMeta.environmentSubstitute( tableName );
+              long ttl = Const.toLong( transMeta.environmentSubstitute( wTableCacheTtl.getText() ), 0 ) * 1000;
               try {
-                db.connect();
-
-                String schemaTable =
-                        ci.getQuotedSchemaTableCombination( transMeta.environmentSubstitute( schemaName ), transMeta
-                                .environmentSubstitute( tableName ) );
-                RowMetaInterface r = db.getTableFields( schemaTable );
-                if ( null != r ) {
-                  String[] fieldNames = r.getFieldNames();
-                  if ( null != fieldNames ) {
-                    for ( ColumnInfo tableField : tableFieldColumns ) {
-                      tableField.setComboValues( fieldNames );
+                // Shares the table cache with the step, only connecting when the table is not cached
+                List<String[]> columns = SnowflakeTableCache.getInstance().getColumns(
+                  SnowflakeTableCache.getKey( ci, schema, table ), ttl, new SnowflakeTableCache.Loader() {
+                    @Override
+                    public List<String[]> load() throws KettleException {
+                      Database db = new Database( loggingObject, ci );
+                      try {
+                        db.connect();
+                        return SnowflakeTableCache.describeTable( db, schema, table );
+                      } finally {
+                        try {
+                          db.disconnect();
+                        } catch ( Exception ignored ) {
+                          // ignore any errors here. Nothing we can do if
+                          // connection fails to close properly
+                        }
+                      }
                     }
-                  }
+                  } );
+                String[] fieldNames = new String[columns.size()];
+                for ( int i = 0; i < fieldNames.length; i++ ) {
+                  fieldNames[i] = columns.get( i )[0];
+                }
+                for ( ColumnInfo tableField : tableFieldColumns ) {
+                  tableField.setComboValues( fieldNames );
                 }
               } catch ( Exception e ) {
                 for ( ColumnInfo tableField : tableFieldColumns ) {
@@ -1642,18 +2524,6 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
                 }
                 // ignore any errors here. drop downs will not be
                 // filled, but no problem for the user
-              } finally {
-                try {
-                  //noinspection ConstantConditions
-                  if ( db != null ) {
-                    db.disconnect();
-                  }
-                } catch ( Exception ignored ) {
-                  // ignore any errors here. Nothing we can do if
-                  // connection fails to close properly
-                  //noinspection UnusedAssignment
-                  db = null;
-                }
               }
             }
           }
@@ -1685,6 +2555,12 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       wErrorLimit.setEnabled( false );
     }
 
+    ////////////////////////////
+    // Merge
+    ////////////////////////////
+    wlMergeKeys.setEnabled( wMerge.getSelection() );
+    wMergeKeys.setEnabled( wMerge.getSelection() );
+
     ////////////////////////////
     // Location Type
     ////////////////////////////
@@ -1709,7 +2585,8 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       wGet.setVisible( false );
       wDoMapping.setVisible( false );
     } else {
-      gCsvGroup.setVisible( true );
+      // The CSV options don't apply to Parquet, but fields can be specified for both
+      gCsvGroup.setVisible( wDataType.getSelectionIndex() == SnowflakeBulkLoaderMeta.DATA_TYPE_CSV );
       gJsonGroup.setVisible( false );
       wJsonField.setVisible( false );
       wlJsonField.setVisible( false );
@@ -1729,5 +2606,34 @@ public class SnowflakeBulkLoaderDialog extends BaseStepDialog implements StepDia
       wDoMapping.setEnabled( wSpecifyFields.getSelection() );
     }
 
+    ////////////////////////////
+    // Pipeline uploads
+    ////////////////////////////
+    wlUploadQueueSize.setEnabled( wPipelineUploads.getSelection() );
+    wUploadQueueSize.setEnabled( wPipelineUploads.getSelection() );
+
+    ////////////////////////////
+    // Stream uploads
+    ////////////////////////////
+    wlMemoryBufferSize.setEnabled( wStreamUpload.getSelection() );
+    wMemoryBufferSize.setEnabled( wStreamUpload.getSelection() );
+    // Streamed files are never written to the work directory, but the load manifest is
+    boolean useWorkDirectory = !wStreamUpload.getSelection() || wResumable.getSelection();
+    wlWorkDirectory.setEnabled( useWorkDirectory );
+    wWorkDirectory.setEnabled( useWorkDirectory );
+    wbWorkDirectory.setEnabled( useWorkDirectory );
+
+    ////////////////////////////
+    // Snowpipe
+    ////////////////////////////
+    wlPipeName.setEnabled( wSnowpipe.getSelection() );
+    wPipeName.setEnabled( wSnowpipe.getSelection() );
+    wlPrivateKeyFile.setEnabled( wSnowpipe.getSelection() );
+    wPrivateKeyFile.setEnabled( wSnowpipe.getSelection() );
+    wlSnowpipeUrl.setEnabled( wSnowpipe.getSelection() );
+    wSnowpipeUrl.setEnabled( wSnowpipe.getSelection() );
+    wlSnowpipeTimeout.setEnabled( wSnowpipe.getSelection() );
+    wSnowpipeTimeout.setEnabled( wSnowpipe.getSelection() );
+
   }
 }
@@ -49,6 +49,8 @@ import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -75,13 +77,20 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
   private static final String CONNECTION = "connection";
   private static final String TARGET_SCHEMA = "target_schema";
   private static final String TARGET_TABLE = "target_table";
+  private static final String TARGET_TABLE_FIELD = "target_table_field";
+  private static final String MAX_TABLES = "max_tables";
   private static final String LOCATION_TYPE = "location_type";
   private static final String STAGE_NAME = "stage_name";
   private static final String WORK_DIRECTORY = "work_directory";
+  private static final String RESUMABLE = "resumable";
   private static final String ON_ERROR = "on_error";
   private static final String ERROR_LIMIT = "error_limit";
   private static final String SPLIT_SIZE = "split_size";
+  private static final String SPLIT_FILE_SIZE = "split_file_size";
   private static final String REMOVE_FILES = "remove_files";
+  private static final String MERGE = "merge";
+  private static final String MERGE_KEYS = "merge_keys";
+  private static final String VALIDATE_FIRST_FILE = "validate_first_file";
   private static final String DATA_TYPE = "data_type";
   private static final String TRIM_WHITESPACE = "trim_whitespace";
   private static final String NULL_IF = "null_if";
@@ -96,6 +105,24 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
   private static final String FIELD = "field";
   private static final String STREAM_FIELD = "stream_field";
   private static final String TABLE_FIELD = "table_field";
+  private static final String PIPELINE_UPLOADS = "pipeline_uploads";
+  private static final String UPLOAD_QUEUE_SIZE = "upload_queue_size";
+  private static final String COMPRESSION_THREADS = "compression_threads";
+  private static final String WRITE_BUFFER_SIZE = "write_buffer_size";
+  private static final String BUFFER_POOL_SIZE = "buffer_pool_size";
+  private static final String UPLOAD_CONNECTIONS = "upload_connections";
+  private static final String PUT_PARALLEL = "put_parallel";
+  private static final String SINGLE_COPY_STATEMENT = "single_copy_statement";
+  private static final String STREAM_UPLOAD = "stream_upload";
+  private static final String MEMORY_BUFFER_SIZE = "memory_buffer_size";
+  private static final String MICRO_BATCH_INTERVAL = "micro_batch_interval";
+  private static final String MICRO_BATCH_SIZE = "micro_batch_size";
+  private static final String TABLE_CACHE_TTL = "table_cache_ttl";
+  private static final String SNOWPIPE = "snowpipe";
+  private static final String PIPE_NAME = "pipe_name";
+  private static final String PRIVATE_KEY_FILE = "private_key_file";
+  private static final String SNOWPIPE_URL = "snowpipe_url";
+  private static final String SNOWPIPE_TIMEOUT = "snowpipe_timeout";
 
   /*
    * Static constants used for the bulk loader when creating temp files.
@@ -127,9 +154,10 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
   /**
    * The valid data type codes {@value}
    */
-  public static final String[] DATA_TYPE_CODES = { "csv", "json" };
+  public static final String[] DATA_TYPE_CODES = { "csv", "json", "parquet" };
   public static final int DATA_TYPE_CSV = 0;
   public static final int DATA_TYPE_JSON = 1;
+  public static final int DATA_TYPE_PARQUET = 2;
 
   /**
    * The date appended to the filenames
@@ -153,6 +181,18 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
   @Injection( name = "TARGET_TABLE" )
   private String targetTable;
 
+  /**
+   * The stream field holding the table each row is loaded into, empty to load every row into the target table
+   */
+  @Injection( name = "TARGET_TABLE_FIELD" )
+  private String targetTableField;
+
+  /**
+   * The most tables rows are routed to, each table has its files open until the end of the stream
+   */
+  @Injection( name = "MAX_TABLES" )
+  private String maxTables;
+
   /**
    * The location type (user, table, internal_stage)
    */
@@ -171,6 +211,13 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
   @Injection( name = "WORK_DIRECTORY" )
   private String workDirectory;
 
+  /**
+   * Should a manifest of the temp files be kept in the work directory, so a rerun after a failure skips the files
+   * already staged
+   */
+  @Injection( name = "RESUMABLE" )
+  private boolean resumable;
+
   /**
    * What to do when an error is encountered (continue, skip_file, skip_file_percent, abort)
    */
@@ -190,12 +237,38 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
   @Injection( name = "SPLIT_SIZE" )
   private String splitSize;
 
+  /**
+   * The compressed size in MB to split the files at, 0 to only split by number of rows
+   */
+  @Injection( name = "SPLIT_FILE_SIZE" )
+  private String splitFileSize;
+
   /**
    * Should the files loaded to the staging location be removed
    */
   @Injection( name = "REMOVE_FILES" )
   private boolean removeFiles;
 
+  /**
+   * Should the files be loaded into a temporary table, and merged into the target table on the key fields, updating
+   * the rows that exist and inserting the rest
+   */
+  @Injection( name = "MERGE" )
+  private boolean merge;
+
+  /**
+   * The comma separated table fields rows are matched on when merging
+   */
+  @Injection( name = "MERGE_KEYS" )
+  private String mergeKeys;
+
+  /**
+   * Should the first file be put to the stage and validated with a copy statement as soon as it is closed, failing
+   * the step on errors before the rest of the files are written
+   */
+  @Injection( name = "VALIDATE_FIRST_FILE" )
+  private boolean validateFirstFile;
+
   /**
    * The target step for bulk loader output
    */
@@ -268,6 +341,120 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
   @InjectionDeep
   private SnowflakeBulkLoaderField[] snowflakeBulkLoaderFields;
 
+  /**
+   * Should files be put to the stage in the background as soon as they are closed
+   */
+  @Injection( name = "PIPELINE_UPLOADS" )
+  private boolean pipelineUploads;
+
+  /**
+   * When pipelining uploads, the maximum number of closed files waiting to be put to the stage
+   */
+  @Injection( name = "UPLOAD_QUEUE_SIZE" )
+  private String uploadQueueSize;
+
+  /**
+   * The number of connections used to put files to the stage at the same time
+   */
+  @Injection( name = "UPLOAD_CONNECTIONS" )
+  private String uploadConnections;
+
+  /**
+   * The number of threads each put uses to upload files, passed to the PARALLEL option of put.  Empty to use the
+   * driver default.
+   */
+  @Injection( name = "PUT_PARALLEL" )
+  private String putParallel;
+
+  /**
+   * Should the copies of the step only stage their files, and the last copy to finish load all of them with a
+   * single copy statement
+   */
+  @Injection( name = "SINGLE_COPY_STATEMENT" )
+  private boolean singleCopyStatement;
+
+  /**
+   * Should files be built in memory and streamed straight to the stage, without writing temp files to the work
+   * directory
+   */
+  @Injection( name = "STREAM_UPLOAD" )
+  private boolean streamUpload;
+
+  /**
+   * When streaming uploads, the maximum memory in MB used to hold files waiting to be uploaded
+   */
+  @Injection( name = "MEMORY_BUFFER_SIZE" )
+  private String memoryBufferSize;
+
+  /**
+   * The number of seconds after which the rows written so far are loaded as a micro-batch, empty to only load at
+   * the end of the stream
+   */
+  @Injection( name = "MICRO_BATCH_INTERVAL" )
+  private String microBatchInterval;
+
+  /**
+   * The size in MB of the files written after which the rows are loaded as a micro-batch, empty to only load at the
+   * end of the stream
+   */
+  @Injection( name = "MICRO_BATCH_SIZE" )
+  private String microBatchSize;
+
+  /**
+   * The number of seconds the columns of the target table are cached for, shared by the step copies and the dialog.
+   * 0 to describe the table every time.
+   */
+  @Injection( name = "TABLE_CACHE_TTL" )
+  private String tableCacheTtl;
+
+  /**
+   * Should the staged files be loaded by a Snowpipe pipe instead of a copy statement run on the warehouse
+   */
+  @Injection( name = "SNOWPIPE" )
+  private boolean snowpipe;
+
+  /**
+   * The fully qualified name of the pipe that loads the staged files
+   */
+  @Injection( name = "PIPE_NAME" )
+  private String pipeName;
+
+  /**
+   * The file holding the private key of the connection user, used to authenticate with the Snowpipe REST API
+   */
+  @Injection( name = "PRIVATE_KEY_FILE" )
+  private String privateKeyFile;
+
+  /**
+   * The base URL of the Snowpipe REST API, empty to use the host of the connection
+   */
+  @Injection( name = "SNOWPIPE_URL" )
+  private String snowpipeUrl;
+
+  /**
+   * The number of seconds to wait for the pipe to load the files
+   */
+  @Injection( name = "SNOWPIPE_TIMEOUT" )
+  private String snowpipeTimeout;
+
+  /**
+   * The number of threads used to gzip each temp file
+   */
+  @Injection( name = "COMPRESSION_THREADS" )
+  private String compressionThreads;
+
+  /**
+   * The size in MB of the buffer the compressed data is collected in before it is written to the temp file
+   */
+  @Injection( name = "WRITE_BUFFER_SIZE" )
+  private String writeBufferSize;
+
+  /**
+   * The maximum memory in MB kept by the buffer pool shared by the bulk loaders, to reuse buffers between files
+   */
+  @Injection( name = "BUFFER_POOL_SIZE" )
+  private String bufferPoolSize;
+
   /**
    * Default initializer
    */
@@ -324,6 +511,47 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     this.targetTable = targetTable;
   }
 
+  /**
+   * @return The stream field holding the table each row is loaded into
+   */
+  public String getTargetTableField() {
+    return targetTableField;
+  }
+
+  /**
+   * Set the stream field holding the table each row is loaded into.  The tables must have the same fields as the
+   * target table, which the fields are mapped against.
+   *
+   * @param targetTableField The stream field, empty to load every row into the target table
+   */
+  public void setTargetTableField( String targetTableField ) {
+    this.targetTableField = targetTableField;
+  }
+
+  /**
+   * @return Is each row loaded into the table named by the target table field, rather than into the target table
+   */
+  public boolean isRouted() {
+    return !Const.isEmpty( targetTableField );
+  }
+
+  /**
+   * @return The most tables rows are routed to
+   */
+  public String getMaxTables() {
+    return maxTables;
+  }
+
+  /**
+   * Set the most tables rows are routed to.  Each table has its files and a writer thread open until the end of the
+   * stream, so the step fails when a row names a table past the limit.
+   *
+   * @param maxTables The most tables rows are routed to
+   */
+  public void setMaxTables( String maxTables ) {
+    this.maxTables = maxTables;
+  }
+
   /**
    * @return The location type code for the files to load
    */
@@ -407,6 +635,22 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     this.workDirectory = workDirectory;
   }
 
+  /**
+   * @return Should a rerun after a failure skip the files already staged
+   */
+  public boolean isResumable() {
+    return resumable;
+  }
+
+  /**
+   * Set whether a manifest of the temp files is kept, so a rerun after a failure skips the files already staged.
+   *
+   * @param resumable true/false
+   */
+  public void setResumable( boolean resumable ) {
+    this.resumable = resumable;
+  }
+
   /**
    * @return The code from @ON_ERROR_CODES to use when an error occurs during the load
    */
@@ -488,6 +732,22 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     this.splitSize = splitSize;
   }
 
+  /**
+   * @return The compressed size in MB at which the files should be split, 0 to only split by number of rows
+   */
+  public String getSplitFileSize() {
+    return splitFileSize;
+  }
+
+  /**
+   * Set the compressed file size at which to split files
+   *
+   * @param splitFileSize The size to split at in MB, 0 to only split by number of rows
+   */
+  public void setSplitFileSize( String splitFileSize ) {
+    this.splitFileSize = splitFileSize;
+  }
+
   /**
    * @return Should the files be removed from the Snowflake internal storage after they are loaded
    */
@@ -504,6 +764,56 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     this.removeFiles = removeFiles;
   }
 
+  /**
+   * @return Should the rows be merged into the target table instead of inserted
+   */
+  public boolean isMerge() {
+    return merge;
+  }
+
+  /**
+   * Set if the rows are merged into the target table on the key fields, updating the rows that exist and inserting
+   * the rest.
+   *
+   * @param merge true/false
+   */
+  public void setMerge( boolean merge ) {
+    this.merge = merge;
+  }
+
+  /**
+   * @return The comma separated table fields rows are matched on when merging
+   */
+  public String getMergeKeys() {
+    return mergeKeys;
+  }
+
+  /**
+   * Set the table fields rows are matched on when merging.
+   *
+   * @param mergeKeys The comma separated key fields
+   */
+  public void setMergeKeys( String mergeKeys ) {
+    this.mergeKeys = mergeKeys;
+  }
+
+  /**
+   * @return Should the first file be validated against the table as soon as it is closed
+   */
+  public boolean isValidateFirstFile() {
+    return validateFirstFile;
+  }
+
+  /**
+   * Set if the first file is put to the stage and validated against the table as soon as it is closed, so format
+   * and mapping errors fail the step before the rest of the files are written.
+   *
+   * @param validateFirstFile true/false
+   */
+  public void setValidateFirstFile( boolean validateFirstFile ) {
+    this.validateFirstFile = validateFirstFile;
+  }
+
   /**
    * @return The step to direct the output data to.
    */
@@ -749,6 +1059,315 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     this.snowflakeBulkLoaderFields = snowflakeBulkLoaderFields;
   }
 
+  /**
+   * @return Should files be put to the stage in the background as soon as they are closed
+   */
+  public boolean isPipelineUploads() {
+    return pipelineUploads;
+  }
+
+  /**
+   * Set if files should be put to the stage in the background as soon as they are closed, instead of all at once
+   * after the last row is written
+   *
+   * @param pipelineUploads true/false
+   */
+  public void setPipelineUploads( boolean pipelineUploads ) {
+    this.pipelineUploads = pipelineUploads;
+  }
+
+  /**
+   * @return The maximum number of closed files waiting to be put to the stage
+   */
+  public String getUploadQueueSize() {
+    return uploadQueueSize;
+  }
+
+  /**
+   * Set the maximum number of closed files waiting to be put to the stage.  When the queue is full the step
+   * waits for an upload to finish before writing more rows.
+   *
+   * @param uploadQueueSize The maximum number of files
+   */
+  public void setUploadQueueSize( String uploadQueueSize ) {
+    this.uploadQueueSize = uploadQueueSize;
+  }
+
+  /**
+   * @return The number of connections used to put files to the stage at the same time
+   */
+  public String getUploadConnections() {
+    return uploadConnections;
+  }
+
+  /**
+   * Set the number of connections used to put files to the stage at the same time.  When more than one connection
+   * is used, each file is put with its own put statement.
+   *
+   * @param uploadConnections The number of connections
+   */
+  public void setUploadConnections( String uploadConnections ) {
+    this.uploadConnections = uploadConnections;
+  }
+
+  /**
+   * @return The number of threads each put uses to upload files, empty for the driver default
+   */
+  public String getPutParallel() {
+    return putParallel;
+  }
+
+  /**
+   * Set the number of threads each put uses to upload files
+   *
+   * @param putParallel The PARALLEL option of put, from 1 to 99.  Empty for the driver default.
+   */
+  public void setPutParallel( String putParallel ) {
+    this.putParallel = putParallel;
+  }
+
+  /**
+   * @return Should all copies of the step be loaded with a single copy statement
+   */
+  public boolean isSingleCopyStatement() {
+    return singleCopyStatement;
+  }
+
+  /**
+   * Set whether all copies of the step are loaded with a single copy statement.  Each copy stages its own files,
+   * and the last copy to finish runs the copy statement for the files of every copy.
+   *
+   * @param singleCopyStatement Load all copies with a single copy statement
+   */
+  public void setSingleCopyStatement( boolean singleCopyStatement ) {
+    this.singleCopyStatement = singleCopyStatement;
+  }
+
+  /**
+   * @return Should files be streamed to the stage from memory instead of written to temp files
+   */
+  public boolean isStreamUpload() {
+    return streamUpload;
+  }
+
+  /**
+   * Set whether files are built in memory and streamed to the stage with the stream upload of the Snowflake JDBC
+   * driver, instead of being written to the work directory and put.
+   *
+   * @param streamUpload Stream files to the stage from memory
+   */
+  public void setStreamUpload( boolean streamUpload ) {
+    this.streamUpload = streamUpload;
+  }
+
+  /**
+   * @return The maximum memory in MB used to hold files waiting to be streamed to the stage
+   */
+  public String getMemoryBufferSize() {
+    return memoryBufferSize;
+  }
+
+  /**
+   * Set the maximum memory used to hold files waiting to be streamed to the stage.  Each file must fit in the
+   * buffer, so files should be split by size when streaming.
+   *
+   * @param memoryBufferSize The memory buffer size in MB
+   */
+  public void setMemoryBufferSize( String memoryBufferSize ) {
+    this.memoryBufferSize = memoryBufferSize;
+  }
+
+  /**
+   * @return The number of seconds after which the rows written so far are loaded as a micro-batch
+   */
+  public String getMicroBatchInterval() {
+    return microBatchInterval;
+  }
+
+  /**
+   * Set the number of seconds after which the rows written so far are loaded.  The files are closed, staged and
+   * copied to the table while the step keeps running, for transformations whose input never ends.
+   *
+   * @param microBatchInterval The micro-batch interval in seconds, empty or 0 to only load at the end of the stream
+   */
+  public void setMicroBatchInterval( String microBatchInterval ) {
+    this.microBatchInterval = microBatchInterval;
+  }
+
+  /**
+   * @return The size in MB of the files written after which the rows are loaded as a micro-batch
+   */
+  public String getMicroBatchSize() {
+    return microBatchSize;
+  }
+
+  /**
+   * Set the size of the compressed files written after which the rows written so far are loaded.
+   *
+   * @param microBatchSize The micro-batch size in MB, empty or 0 to only load at the end of the stream
+   */
+  public void setMicroBatchSize( String microBatchSize ) {
+    this.microBatchSize = microBatchSize;
+  }
+
+  /**
+   * @return The number of seconds the columns of the target table are cached for
+   */
+  public String getTableCacheTtl() {
+    return tableCacheTtl;
+  }
+
+  /**
+   * Set how long the columns of the target table are cached for.
+   *
+   * @param tableCacheTtl The time to live in seconds, 0 to describe the table every time
+   */
+  public void setTableCacheTtl( String tableCacheTtl ) {
+    this.tableCacheTtl = tableCacheTtl;
+  }
+
+  /**
+   * @return Should the staged files be loaded by a Snowpipe pipe instead of a copy statement
+   */
+  public boolean isSnowpipe() {
+    return snowpipe;
+  }
+
+  /**
+   * Set whether the staged files are registered with a Snowpipe pipe through its REST API, instead of being loaded
+   * with a copy statement run on the warehouse of the connection.  The pipe's own copy statement loads the files.
+   *
+   * @param snowpipe Load the files with Snowpipe
+   */
+  public void setSnowpipe( boolean snowpipe ) {
+    this.snowpipe = snowpipe;
+  }
+
+  /**
+   * @return The fully qualified name of the pipe, database.schema.pipe
+   */
+  public String getPipeName() {
+    return pipeName;
+  }
+
+  /**
+   * Set the pipe that loads the staged files.  The pipe must copy from the stage the files are put to.
+   *
+   * @param pipeName The fully qualified name of the pipe, database.schema.pipe
+   */
+  public void setPipeName( String pipeName ) {
+    this.pipeName = pipeName;
+  }
+
+  /**
+   * @return The file holding the private key used to authenticate with the Snowpipe REST API
+   */
+  public String getPrivateKeyFile() {
+    return privateKeyFile;
+  }
+
+  /**
+   * Set the file holding the unencrypted PKCS#8 private key of the connection user, in PEM format.  The user must
+   * be set up for key pair authentication.
+   *
+   * @param privateKeyFile The private key file
+   */
+  public void setPrivateKeyFile( String privateKeyFile ) {
+    this.privateKeyFile = privateKeyFile;
+  }
+
+  /**
+   * @return The base URL of the Snowpipe REST API, empty to use the host of the connection
+   */
+  public String getSnowpipeUrl() {
+    return snowpipeUrl;
+  }
+
+  /**
+   * Set the base URL of the Snowpipe REST API, for example to use a local stand-in for the Snowpipe service.
+   *
+   * @param snowpipeUrl The base URL, empty to use https:// and the host of the connection
+   */
+  public void setSnowpipeUrl( String snowpipeUrl ) {
+    this.snowpipeUrl = snowpipeUrl;
+  }
+
+  /**
+   * @return The number of seconds to wait for the pipe to load the files
+   */
+  public String getSnowpipeTimeout() {
+    return snowpipeTimeout;
+  }
+
+  /**
+   * Set how long to wait for the pipe to load the files before failing the step.
+   *
+   * @param snowpipeTimeout The timeout in seconds
+   */
+  public void setSnowpipeTimeout( String snowpipeTimeout ) {
+    this.snowpipeTimeout = snowpipeTimeout;
+  }
+
+  /**
+   * @param space The variable space used to resolve the micro-batch settings
+   * @return Are the rows loaded in micro-batches while the step runs
+   */
+  public boolean isMicroBatch( VariableSpace space ) {
+    return Const.toInt( space.environmentSubstitute( microBatchInterval ), 0 ) > 0
+      || Const.toInt( space.environmentSubstitute( microBatchSize ), 0 ) > 0;
+  }
+
+  /**
+   * @return The number of threads used to gzip each temp file
+   */
+  public String getCompressionThreads() {
+    return compressionThreads;
+  }
+
+  /**
+   * Set the number of threads used to gzip each temp file.  When more than one thread is used the file is
+   * compressed in blocks, each written as its own gzip member.
+   *
+   * @param compressionThreads The number of threads
+   */
+  public void setCompressionThreads( String compressionThreads ) {
+    this.compressionThreads = compressionThreads;
+  }
+
+  /**
+   * @return The size in MB of the buffer in front of each temp file
+   */
+  public String getWriteBufferSize() {
+    return writeBufferSize;
+  }
+
+  /**
+   * Set the size of the buffer the compressed data is collected in before it is written to the temp file.  A
+   * larger buffer means fewer, larger writes, which helps on network file systems.
+   *
+   * @param writeBufferSize The write buffer size in MB
+   */
+  public void setWriteBufferSize( String writeBufferSize ) {
+    this.writeBufferSize = writeBufferSize;
+  }
+
+  /**
+   * @return The maximum memory in MB kept by the shared buffer pool
+   */
+  public String getBufferPoolSize() {
+    return bufferPoolSize;
+  }
+
+  /**
+   * Set the maximum memory kept by the pool of buffers and Deflaters shared by every bulk loader in the JVM, so
+   * they are reused between files and step copies.  When steps ask for different sizes the largest is used.
+   *
+   * @param bufferPoolSize The buffer pool size in MB
+   */
+  public void setBufferPoolSize( String bufferPoolSize ) {
+    this.bufferPoolSize = bufferPoolSize;
+  }
+
   /**
    * Get the file date that is appended in the file names
    * @return The file date that is appended in the file names
@@ -809,13 +1428,20 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
 
       targetSchema = XMLHandler.getTagValue( stepNode, TARGET_SCHEMA );
       targetTable = XMLHandler.getTagValue( stepNode, TARGET_TABLE );
+      targetTableField = XMLHandler.getTagValue( stepNode, TARGET_TABLE_FIELD );
+      maxTables = XMLHandler.getTagValue( stepNode, MAX_TABLES );
       locationType = XMLHandler.getTagValue( stepNode, LOCATION_TYPE );
       stageName = XMLHandler.getTagValue( stepNode, STAGE_NAME );
       workDirectory = XMLHandler.getTagValue( stepNode, WORK_DIRECTORY );
+      resumable = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, RESUMABLE ) );
       onError = XMLHandler.getTagValue( stepNode, ON_ERROR );
       errorLimit = XMLHandler.getTagValue( stepNode, ERROR_LIMIT );
       splitSize = XMLHandler.getTagValue( stepNode, SPLIT_SIZE );
+      splitFileSize = XMLHandler.getTagValue( stepNode, SPLIT_FILE_SIZE );
       removeFiles = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, REMOVE_FILES ) );
+      merge = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, MERGE ) );
+      mergeKeys = XMLHandler.getTagValue( stepNode, MERGE_KEYS );
+      validateFirstFile = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, VALIDATE_FIRST_FILE ) );
 
       dataType = XMLHandler.getTagValue( stepNode, DATA_TYPE );
       trimWhitespace = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, TRIM_WHITESPACE ) );
@@ -829,6 +1455,25 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
       specifyFields = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, SPECIFY_FIELDS ) );
       jsonField = XMLHandler.getTagValue( stepNode, JSON_FIELD );
 
+      pipelineUploads = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, PIPELINE_UPLOADS ) );
+      uploadQueueSize = XMLHandler.getTagValue( stepNode, UPLOAD_QUEUE_SIZE );
+      compressionThreads = XMLHandler.getTagValue( stepNode, COMPRESSION_THREADS );
+      writeBufferSize = XMLHandler.getTagValue( stepNode, WRITE_BUFFER_SIZE );
+      bufferPoolSize = XMLHandler.getTagValue( stepNode, BUFFER_POOL_SIZE );
+      uploadConnections = XMLHandler.getTagValue( stepNode, UPLOAD_CONNECTIONS );
+      putParallel = XMLHandler.getTagValue( stepNode, PUT_PARALLEL );
+      singleCopyStatement = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, SINGLE_COPY_STATEMENT ) );
+      streamUpload = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, STREAM_UPLOAD ) );
+      memoryBufferSize = XMLHandler.getTagValue( stepNode, MEMORY_BUFFER_SIZE );
+      microBatchInterval = XMLHandler.getTagValue( stepNode, MICRO_BATCH_INTERVAL );
+      microBatchSize = XMLHandler.getTagValue( stepNode, MICRO_BATCH_SIZE );
+      tableCacheTtl = XMLHandler.getTagValue( stepNode, TABLE_CACHE_TTL );
+      snowpipe = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepNode, SNOWPIPE ) );
+      pipeName = XMLHandler.getTagValue( stepNode, PIPE_NAME );
+      privateKeyFile = XMLHandler.getTagValue( stepNode, PRIVATE_KEY_FILE );
+      snowpipeUrl = XMLHandler.getTagValue( stepNode, SNOWPIPE_URL );
+      snowpipeTimeout = XMLHandler.getTagValue( stepNode, SNOWPIPE_TIMEOUT );
+
       Node fields = XMLHandler.getSubNode( stepNode, FIELDS );
       int nrfields = XMLHandler.countNodes( fields, FIELD );
 
@@ -850,10 +1495,16 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
    * Sets the default values for all metadata attributes.
    */
   public void setDefault() {
+    targetTableField = "";
+    maxTables = "50";
     locationType = LOCATION_TYPE_CODES[LOCATION_TYPE_USER];
     workDirectory = "${java.io.tmpdir}";
+    resumable = false;
     onError = ON_ERROR_CODES[ON_ERROR_ABORT];
     removeFiles = true;
+    merge = false;
+    mergeKeys = "";
+    validateFirstFile = false;
 
     dataType = DATA_TYPE_CODES[DATA_TYPE_CSV];
     trimWhitespace = false;
@@ -863,12 +1514,54 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     allowDuplicateElements = false;
     enableOctal = false;
     splitSize = "20000";
+    splitFileSize = "0";
 
     specifyFields = false;
+
+    pipelineUploads = false;
+    uploadQueueSize = "4";
+    compressionThreads = "1";
+    writeBufferSize = "1";
+    bufferPoolSize = "64";
+    uploadConnections = "1";
+    putParallel = "";
+    singleCopyStatement = false;
+    streamUpload = false;
+    memoryBufferSize = "256";
+    microBatchInterval = "";
+    microBatchSize = "";
+    tableCacheTtl = "300";
+    snowpipe = false;
+    pipeName = "";
+    privateKeyFile = "";
+    snowpipeUrl = "";
+    snowpipeTimeout = "600";
+  }
+
+  /**
+   * Builds the filename of the load manifest of a copy of the step.  The filename is in
+   * tableName_stepnr_partnr.manifest format, without a date, so a rerun finds the manifest of the failed run.
+   *
+   * @param space      The variables currently set
+   * @param stepNumber The step number.  Used when multiple copies of the step are started.
+   * @param partNumber The partition number.  Used when the transformation is executed clustered.
+   * @return The filename of the manifest
+   */
+  public String buildManifestFilename( VariableSpace space, int stepNumber, String partNumber ) {
+    String realWorkDirectory = space.environmentSubstitute( workDirectory );
+    StringBuilder returnValue = new StringBuilder( realWorkDirectory );
+    if ( !realWorkDirectory.endsWith( "/" ) && !realWorkDirectory.endsWith( "\\" ) ) {
+      returnValue.append( Const.FILE_SEPARATOR );
+    }
+    returnValue.append( space.environmentSubstitute( targetTable ) ).append( "_" );
+    returnValue.append( stepNumber ).append( "_" );
+    returnValue.append( partNumber ).append( ".manifest" );
+    return returnValue.toString();
   }
 
   /**
-   * Builds a filename for a temporary file  The filename is in tableName_date_time_stepnr_partnr_splitnr.gz format
+   * Builds a filename for a temporary file  The filename is in tableName_date_time_stepnr_partnr_splitnr.gz format,
+   * or tableName_date_time_stepnr_partnr_splitnr.parquet format when loading Parquet
    *
    * @param space       The variables currently set
    * @param stepNumber  The step number.  Used when multiple copies of the step are started.
@@ -884,8 +1577,11 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     // Replace possible environment variables...
     String realWorkDirectory = space.environmentSubstitute( workDirectory );
 
-    //Files are always gzipped
+    //Files are always gzipped, Parquet files compress their pages internally
     String extension = ".gz";
+    if ( getDataTypeId() == DATA_TYPE_PARQUET ) {
+      extension = ".parquet";
+    }
 
     StringBuilder returnValue = new StringBuilder( realWorkDirectory );
     if ( !realWorkDirectory.endsWith( "/" ) && !realWorkDirectory.endsWith( "\\" ) ) {
@@ -923,13 +1619,20 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
       .getName() ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( TARGET_SCHEMA, targetSchema ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( TARGET_TABLE, targetTable ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( TARGET_TABLE_FIELD, targetTableField ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( MAX_TABLES, maxTables ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( LOCATION_TYPE, locationType ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( STAGE_NAME, stageName ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( WORK_DIRECTORY, workDirectory ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( RESUMABLE, resumable ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( ON_ERROR, onError ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( ERROR_LIMIT, errorLimit ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( SPLIT_SIZE, splitSize ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( SPLIT_FILE_SIZE, splitFileSize ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( REMOVE_FILES, removeFiles ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( MERGE, merge ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( MERGE_KEYS, mergeKeys ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( VALIDATE_FIRST_FILE, validateFirstFile ) );
 
     returnValue.append( "    " ).append( XMLHandler.addTagValue( DATA_TYPE, dataType ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( TRIM_WHITESPACE, trimWhitespace ) );
@@ -943,6 +1646,25 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     returnValue.append( "    " ).append( XMLHandler.addTagValue( JSON_FIELD, jsonField ) );
     returnValue.append( "    " ).append( XMLHandler.addTagValue( SPECIFY_FIELDS, specifyFields ) );
 
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( PIPELINE_UPLOADS, pipelineUploads ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( UPLOAD_QUEUE_SIZE, uploadQueueSize ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( COMPRESSION_THREADS, compressionThreads ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( WRITE_BUFFER_SIZE, writeBufferSize ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( BUFFER_POOL_SIZE, bufferPoolSize ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( UPLOAD_CONNECTIONS, uploadConnections ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( PUT_PARALLEL, putParallel ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( SINGLE_COPY_STATEMENT, singleCopyStatement ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( STREAM_UPLOAD, streamUpload ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( MEMORY_BUFFER_SIZE, memoryBufferSize ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( MICRO_BATCH_INTERVAL, microBatchInterval ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( MICRO_BATCH_SIZE, microBatchSize ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( TABLE_CACHE_TTL, tableCacheTtl ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( SNOWPIPE, snowpipe ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( PIPE_NAME, pipeName ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( PRIVATE_KEY_FILE, privateKeyFile ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( SNOWPIPE_URL, snowpipeUrl ) );
+    returnValue.append( "    " ).append( XMLHandler.addTagValue( SNOWPIPE_TIMEOUT, snowpipeTimeout ) );
+
     returnValue.append( "    <fields>" ).append( Const.CR );
     for ( SnowflakeBulkLoaderField field : snowflakeBulkLoaderFields ) {
       if ( field.getStreamField() != null && field.getStreamField().length() != 0 ) {
@@ -972,13 +1694,20 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
       databaseMeta = rep.loadDatabaseMetaFromStepAttribute( id_step, CONNECTION, databases );
       targetSchema = rep.getStepAttributeString( id_step, TARGET_SCHEMA );
       targetTable = rep.getStepAttributeString( id_step, TARGET_TABLE );
+      targetTableField = rep.getStepAttributeString( id_step, TARGET_TABLE_FIELD );
+      maxTables = rep.getStepAttributeString( id_step, MAX_TABLES );
       locationType = rep.getJobEntryAttributeString( id_step, LOCATION_TYPE );
       stageName = rep.getStepAttributeString( id_step, STAGE_NAME );
       workDirectory = rep.getStepAttributeString( id_step, WORK_DIRECTORY );
+      resumable = rep.getStepAttributeBoolean( id_step, RESUMABLE );
       onError = rep.getStepAttributeString( id_step, ON_ERROR );
       errorLimit = rep.getStepAttributeString( id_step, ERROR_LIMIT );
       splitSize = rep.getStepAttributeString( id_step, SPLIT_SIZE );
+      splitFileSize = rep.getStepAttributeString( id_step, SPLIT_FILE_SIZE );
       removeFiles = rep.getStepAttributeBoolean( id_step, REMOVE_FILES );
+      merge = rep.getStepAttributeBoolean( id_step, MERGE );
+      mergeKeys = rep.getStepAttributeString( id_step, MERGE_KEYS );
+      validateFirstFile = rep.getStepAttributeBoolean( id_step, VALIDATE_FIRST_FILE );
 
       dataType = rep.getStepAttributeString( id_step, DATA_TYPE );
       trimWhitespace = rep.getStepAttributeBoolean( id_step, TRIM_WHITESPACE );
@@ -993,6 +1722,25 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
       specifyFields = rep.getStepAttributeBoolean( id_step, SPECIFY_FIELDS );
       jsonField = rep.getStepAttributeString( id_step, JSON_FIELD );
 
+      pipelineUploads = rep.getStepAttributeBoolean( id_step, PIPELINE_UPLOADS );
+      uploadQueueSize = rep.getStepAttributeString( id_step, UPLOAD_QUEUE_SIZE );
+      compressionThreads = rep.getStepAttributeString( id_step, COMPRESSION_THREADS );
+      writeBufferSize = rep.getStepAttributeString( id_step, WRITE_BUFFER_SIZE );
+      bufferPoolSize = rep.getStepAttributeString( id_step, BUFFER_POOL_SIZE );
+      uploadConnections = rep.getStepAttributeString( id_step, UPLOAD_CONNECTIONS );
+      putParallel = rep.getStepAttributeString( id_step, PUT_PARALLEL );
+      singleCopyStatement = rep.getStepAttributeBoolean( id_step, SINGLE_COPY_STATEMENT );
+      streamUpload = rep.getStepAttributeBoolean( id_step, STREAM_UPLOAD );
+      memoryBufferSize = rep.getStepAttributeString( id_step, MEMORY_BUFFER_SIZE );
+      microBatchInterval = rep.getStepAttributeString( id_step, MICRO_BATCH_INTERVAL );
+      microBatchSize = rep.getStepAttributeString( id_step, MICRO_BATCH_SIZE );
+      tableCacheTtl = rep.getStepAttributeString( id_step, TABLE_CACHE_TTL );
+      snowpipe = rep.getStepAttributeBoolean( id_step, SNOWPIPE );
+      pipeName = rep.getStepAttributeString( id_step, PIPE_NAME );
+      privateKeyFile = rep.getStepAttributeString( id_step, PRIVATE_KEY_FILE );
+      snowpipeUrl = rep.getStepAttributeString( id_step, SNOWPIPE_URL );
+      snowpipeTimeout = rep.getStepAttributeString( id_step, SNOWPIPE_TIMEOUT );
+
       int nrfields = rep.countNrStepAttributes( id_step, STREAM_FIELD );
 
       allocate( nrfields );
@@ -1024,13 +1772,20 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
       rep.saveDatabaseMetaStepAttribute( id_transformation, id_step, "id_connection", databaseMeta );
       rep.saveStepAttribute( id_transformation, id_step, TARGET_SCHEMA, targetSchema );
       rep.saveStepAttribute( id_transformation, id_step, TARGET_TABLE, targetTable );
+      rep.saveStepAttribute( id_transformation, id_step, TARGET_TABLE_FIELD, targetTableField );
+      rep.saveStepAttribute( id_transformation, id_step, MAX_TABLES, maxTables );
       rep.saveStepAttribute( id_transformation, id_step, LOCATION_TYPE, locationType );
       rep.saveStepAttribute( id_transformation, id_step, STAGE_NAME, stageName );
       rep.saveStepAttribute( id_transformation, id_step, WORK_DIRECTORY, workDirectory );
+      rep.saveStepAttribute( id_transformation, id_step, RESUMABLE, resumable );
       rep.saveStepAttribute( id_transformation, id_step, ON_ERROR, onError );
       rep.saveStepAttribute( id_transformation, id_step, ERROR_LIMIT, errorLimit );
       rep.saveStepAttribute( id_transformation, id_step, SPLIT_SIZE, splitSize );
+      rep.saveStepAttribute( id_transformation, id_step, SPLIT_FILE_SIZE, splitFileSize );
       rep.saveStepAttribute( id_transformation, id_step, REMOVE_FILES, removeFiles );
+      rep.saveStepAttribute( id_transformation, id_step, MERGE, merge );
+      rep.saveStepAttribute( id_transformation, id_step, MERGE_KEYS, mergeKeys );
+      rep.saveStepAttribute( id_transformation, id_step, VALIDATE_FIRST_FILE, validateFirstFile );
       rep.saveStepAttribute( id_transformation, id_step, DATA_TYPE, dataType );
       rep.saveStepAttribute( id_transformation, id_step, TRIM_WHITESPACE, trimWhitespace );
       rep.saveStepAttribute( id_transformation, id_step, NULL_IF, nullIf );
@@ -1041,6 +1796,24 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
       rep.saveStepAttribute( id_transformation, id_step, ENABLE_OCTAL, enableOctal );
       rep.saveStepAttribute( id_transformation, id_step, SPECIFY_FIELDS, specifyFields );
       rep.saveStepAttribute( id_transformation, id_step, JSON_FIELD, jsonField );
+      rep.saveStepAttribute( id_transformation, id_step, PIPELINE_UPLOADS, pipelineUploads );
+      rep.saveStepAttribute( id_transformation, id_step, UPLOAD_QUEUE_SIZE, uploadQueueSize );
+      rep.saveStepAttribute( id_transformation, id_step, COMPRESSION_THREADS, compressionThreads );
+      rep.saveStepAttribute( id_transformation, id_step, WRITE_BUFFER_SIZE, writeBufferSize );
+      rep.saveStepAttribute( id_transformation, id_step, BUFFER_POOL_SIZE, bufferPoolSize );
+      rep.saveStepAttribute( id_transformation, id_step, UPLOAD_CONNECTIONS, uploadConnections );
+      rep.saveStepAttribute( id_transformation, id_step, PUT_PARALLEL, putParallel );
+      rep.saveStepAttribute( id_transformation, id_step, SINGLE_COPY_STATEMENT, singleCopyStatement );
+      rep.saveStepAttribute( id_transformation, id_step, STREAM_UPLOAD, streamUpload );
+      rep.saveStepAttribute( id_transformation, id_step, MEMORY_BUFFER_SIZE, memoryBufferSize );
+      rep.saveStepAttribute( id_transformation, id_step, MICRO_BATCH_INTERVAL, microBatchInterval );
+      rep.saveStepAttribute( id_transformation, id_step, MICRO_BATCH_SIZE, microBatchSize );
+      rep.saveStepAttribute( id_transformation, id_step, TABLE_CACHE_TTL, tableCacheTtl );
+      rep.saveStepAttribute( id_transformation, id_step, SNOWPIPE, snowpipe );
+      rep.saveStepAttribute( id_transformation, id_step, PIPE_NAME, pipeName );
+      rep.saveStepAttribute( id_transformation, id_step, PRIVATE_KEY_FILE, privateKeyFile );
+      rep.saveStepAttribute( id_transformation, id_step, SNOWPIPE_URL, snowpipeUrl );
+      rep.saveStepAttribute( id_transformation, id_step, SNOWPIPE_TIMEOUT, snowpipeTimeout );
 
       for ( int i = 0; i < snowflakeBulkLoaderFields.length; i++ ) {
         SnowflakeBulkLoaderField field = snowflakeBulkLoaderFields[i];
@@ -1130,6 +1903,138 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
         remarks.add( cr );
       }
     }
+
+    // Upload concurrency
+    String realUploadConnections = space.environmentSubstitute( uploadConnections );
+    if ( !Const.isEmpty( realUploadConnections ) && Const.toInt( realUploadConnections, 0 ) < 1 ) {
+      cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+        PKG, "SnowflakeBulkLoadMeta.CheckResult.UploadConnectionsNotValid", realUploadConnections ), stepMeta );
+      remarks.add( cr );
+    }
+
+    String realPutParallel = space.environmentSubstitute( putParallel );
+    if ( !Const.isEmpty( realPutParallel ) ) {
+      int parallel = Const.toInt( realPutParallel, 0 );
+      if ( parallel < 1 || parallel > 99 ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.PutParallelNotValid", realPutParallel ), stepMeta );
+        remarks.add( cr );
+      } else {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_OK, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.PutParallelValid", realPutParallel ), stepMeta );
+        remarks.add( cr );
+      }
+    }
+
+    if ( streamUpload ) {
+      String realMemoryBufferSize = space.environmentSubstitute( memoryBufferSize );
+      if ( Const.toInt( realMemoryBufferSize, 0 ) < 1 ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.MemoryBufferSizeNotValid", realMemoryBufferSize ), stepMeta );
+        remarks.add( cr );
+      } else if ( Const.toLong( space.environmentSubstitute( splitFileSize ), 0 ) < 1 ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.StreamUploadNoSplitFileSize" ), stepMeta );
+        remarks.add( cr );
+      }
+    }
+
+    if ( resumable && ( getDataTypeId() == DATA_TYPE_PARQUET || snowpipe ) ) {
+      cr = new CheckResult( CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(
+        PKG, "SnowflakeBulkLoadMeta.CheckResult.ResumableNotSupported" ), stepMeta );
+      remarks.add( cr );
+    }
+
+    if ( singleCopyStatement && isMicroBatch( space ) ) {
+      cr = new CheckResult( CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(
+        PKG, "SnowflakeBulkLoadMeta.CheckResult.MicroBatchSingleCopyStatement" ), stepMeta );
+      remarks.add( cr );
+    }
+
+    if ( merge ) {
+      if ( Const.isEmpty( space.environmentSubstitute( mergeKeys ) ) ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.MergeKeysMissing" ), stepMeta );
+        remarks.add( cr );
+      }
+      // JSON documents are loaded into a single variant column, there are no fields to match on
+      if ( getDataTypeId() == DATA_TYPE_JSON ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.MergeJson" ), stepMeta );
+        remarks.add( cr );
+      }
+      // The pipe runs its own copy statement into the target table
+      if ( snowpipe ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.MergeSnowpipe" ), stepMeta );
+        remarks.add( cr );
+      }
+    }
+
+    if ( isRouted() ) {
+      if ( prev != null && prev.size() > 0 && prev.indexOfValue( space.environmentSubstitute( targetTableField ) ) < 0 ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.TargetTableFieldNotFound", targetTableField ), stepMeta );
+        remarks.add( cr );
+      }
+      // A pipe loads a single table
+      if ( snowpipe ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.RoutedSnowpipe" ), stepMeta );
+        remarks.add( cr );
+      }
+      // The open files of every table would wait on the blocks of the one memory buffer
+      if ( streamUpload ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.RoutedStreamUpload" ), stepMeta );
+        remarks.add( cr );
+      }
+      if ( resumable || singleCopyStatement || isPipelineUploads() || isMicroBatch( space ) ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.RoutedNotSupported" ), stepMeta );
+        remarks.add( cr );
+      }
+    }
+
+    // Snowflake can't validate a copy statement matching the columns by name
+    if ( validateFirstFile && getDataTypeId() == DATA_TYPE_PARQUET ) {
+      cr = new CheckResult( CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(
+        PKG, "SnowflakeBulkLoadMeta.CheckResult.ValidateFirstFileParquet" ), stepMeta );
+      remarks.add( cr );
+    }
+
+    if ( stepMeta != null && stepMeta.isDoingErrorHandling() ) {
+      // An aborted copy loads nothing and rejects nothing, its error fails the step
+      if ( onError.equals( ON_ERROR_CODES[ON_ERROR_ABORT] ) ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.ErrorRowsAbort" ), stepMeta );
+        remarks.add( cr );
+      }
+      if ( snowpipe ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.ErrorRowsSnowpipe" ), stepMeta );
+        remarks.add( cr );
+      }
+    }
+
+    if ( snowpipe ) {
+      if ( Const.isEmpty( space.environmentSubstitute( pipeName ) ) ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.PipeNameMissing" ), stepMeta );
+        remarks.add( cr );
+      }
+      if ( Const.isEmpty( space.environmentSubstitute( privateKeyFile ) ) ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.PrivateKeyFileMissing" ), stepMeta );
+        remarks.add( cr );
+      }
+      // Pipes can't load files from a user stage
+      if ( LOCATION_TYPE_CODES[LOCATION_TYPE_USER].equals( locationType ) ) {
+        cr = new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "SnowflakeBulkLoadMeta.CheckResult.SnowpipeUserStage" ), stepMeta );
+        remarks.add( cr );
+      }
+    }
   }
 
   /**
@@ -1205,6 +2110,15 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     return new SnowflakeBulkLoaderData();
   }
 
+  /**
+   * The records rejected by the copy statement are sent to the error hop, when the step has one
+   * @return true
+   */
+  @Override
+  public boolean supportsErrorHandling() {
+    return true;
+  }
+
   /**
    * Gets the Snowflake stage name based on the configured metadata
    * @param space The variable space
@@ -1229,6 +2143,128 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     return null;
   }
 
+  /**
+   * @param space The variable space
+   * @return The target table, qualified with the schema when one is set
+   */
+  private String getQualifiedTargetTable( VariableSpace space ) {
+    if ( !Const.isEmpty( space.environmentSubstitute( targetSchema ) ) ) {
+      return space.environmentSubstitute( targetSchema ) + "." + space.environmentSubstitute( targetTable );
+    }
+    return space.environmentSubstitute( targetTable );
+  }
+
+  /**
+   * @param space The variable space
+   * @return The temporary table the files are loaded into before they are merged into the target table.  Temporary
+   * tables belong to the session, so the copies of the step each have their own.  The name is the name the target
+   * table resolves to, quoted or not, with a suffix, quoted so it keeps the case of the target table.
+   */
+  public String getMergeTable( VariableSpace space ) {
+    String table = space.environmentSubstitute( targetTable ).trim();
+    if ( table.length() > 1 && table.startsWith( "\"" ) && table.endsWith( "\"" ) ) {
+      table = table.substring( 1, table.length() - 1 ).replace( "\"\"", "\"" );
+    } else {
+      // Unquoted identifiers resolve to upper case
+      table = table.toUpperCase();
+    }
+    String mergeTable = quoteIdentifier( table + "_MERGE_TEMP" );
+    if ( !Const.isEmpty( space.environmentSubstitute( targetSchema ) ) ) {
+      return space.environmentSubstitute( targetSchema ) + "." + mergeTable;
+    }
+    return mergeTable;
+  }
+
+  /**
+   * Creates the statement that creates an empty temporary table like the target table, to load the files into
+   * before they are merged
+   * @param space The variable space
+   * @return The create table statement
+   */
+  public String getCreateMergeTableStatement( VariableSpace space ) {
+    return "CREATE OR REPLACE TEMPORARY TABLE " + getMergeTable( space ) + " LIKE "
+      + getQualifiedTargetTable( space ) + ";";
+  }
+
+  /**
+   * Creates the statement that drops the temporary table the files are loaded into before they are merged
+   * @param space The variable space
+   * @return The drop table statement
+   */
+  public String getDropMergeTableStatement( VariableSpace space ) {
+    return "DROP TABLE IF EXISTS " + getMergeTable( space ) + ";";
+  }
+
+  /**
+   * Creates the merge statement that updates the rows of the target table matching a row of the temporary table on
+   * the key fields, and inserts the rest.  Each key must appear once in the temporary table, otherwise Snowflake
+   * can't tell which row updates the target row.
+   * @param space The variable space
+   * @param tableFields The fields of the target table, each the name in upper case and the Snowflake data type
+   * @return The merge statement
+   * @throws KettleException No key fields are set, or a key field is not in the table
+   */
+  public String getMergeStatement( VariableSpace space, List<String[]> tableFields ) throws KettleException {
+    List<String> keys = new ArrayList<>();
+    for ( String key : Const.NVL( space.environmentSubstitute( mergeKeys ), "" ).split( "," ) ) {
+      if ( !Const.isEmpty( key.trim() ) ) {
+        keys.add( key.trim().toUpperCase() );
+      }
+    }
+    if ( keys.isEmpty() ) {
+      throw new KettleException( "No key fields are set to merge on" );
+    }
+
+    List<String> fields = new ArrayList<>();
+    for ( String[] tableField : tableFields ) {
+      fields.add( tableField[0] );
+    }
+    for ( String key : keys ) {
+      if ( !fields.contains( key ) ) {
+        throw new KettleException( "The merge key field [" + key + "] is not in the table" );
+      }
+    }
+
+    StringBuilder returnValue = new StringBuilder( "MERGE INTO " );
+    returnValue.append( getQualifiedTargetTable( space ) ).append( " t USING " );
+    returnValue.append( getMergeTable( space ) ).append( " s ON " );
+    for ( int i = 0; i < keys.size(); i++ ) {
+      String key = quoteIdentifier( keys.get( i ) );
+      returnValue.append( i > 0 ? " AND " : "" ).append( "t." ).append( key ).append( " = s." ).append( key );
+    }
+
+    // A table made only of key fields has nothing to update
+    if ( fields.size() > keys.size() ) {
+      returnValue.append( " WHEN MATCHED THEN UPDATE SET " );
+      boolean first = true;
+      for ( String field : fields ) {
+        if ( !keys.contains( field ) ) {
+          returnValue.append( first ? "" : ", " ).append( "t." ).append( quoteIdentifier( field ) )
+            .append( " = s." ).append( quoteIdentifier( field ) );
+          first = false;
+        }
+      }
+    }
+
+    StringBuilder columns = new StringBuilder();
+    StringBuilder values = new StringBuilder();
+    for ( String field : fields ) {
+      columns.append( columns.length() > 0 ? ", " : "" ).append( quoteIdentifier( field ) );
+      values.append( values.length() > 0 ? ", " : "" ).append( "s." ).append( quoteIdentifier( field ) );
+    }
+    returnValue.append( " WHEN NOT MATCHED THEN INSERT ( " ).append( columns ).append( " ) VALUES ( " )
+      .append( values ).append( " );" );
+
+    return returnValue.toString();
+  }
+
+  /**
+   * @return The identifier in double quotes, so field names that are reserved words or contain spaces can be used
+   */
+  private static String quoteIdentifier( String identifier ) {
+    return "\"" + identifier.replace( "\"", "\"\"" ) + "\"";
+  }
+
   /**
    * Creates the copy statement used to load data into Snowflake
    * @param space The variable space
@@ -1237,16 +2273,34 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
    * @throws KettleFileException
    */
   public String getCopyStatement( VariableSpace space, List<String> filenames ) throws KettleFileException {
+    //Table, or the temporary table merged into the table
+    return getCopyStatement( space, merge ? getMergeTable( space ) : getQualifiedTargetTable( space ), filenames,
+      false );
+  }
+
+  /**
+   * Creates the copy statement that validates a staged file against the target table without loading it, returning
+   * a row for each error in the file
+   * @param space The variable space
+   * @param filename The file to validate
+   * @return The copy statement
+   * @throws KettleFileException
+   */
+  public String getValidationCopyStatement( VariableSpace space, String filename ) throws KettleFileException {
+    // The target table rather than the temporary merge table, which is only created for the load
+    return getCopyStatement( space, getQualifiedTargetTable( space ), Collections.singletonList( filename ), true );
+  }
+
+  /**
+   * @param table The table to copy into
+   * @param validate Validate the files instead of loading them
+   */
+  private String getCopyStatement( VariableSpace space, String table, List<String> filenames, boolean validate )
+    throws KettleFileException {
     StringBuilder returnValue = new StringBuilder();
     returnValue.append( "COPY INTO " );
 
-    //Schema
-    if ( !Const.isEmpty( space.environmentSubstitute( targetSchema ) ) ) {
-      returnValue.append( space.environmentSubstitute( targetSchema ) ).append( "." );
-    }
-
-    //Table
-    returnValue.append( space.environmentSubstitute( targetTable ) ).append( " " );
+    returnValue.append( table ).append( " " );
 
     // Location
     returnValue.append( "FROM " ).append( getStage( space ) ).append( "/ " );
@@ -1299,9 +2353,22 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
       returnValue.append( "ALLOW_DUPLICATE = " ).append( allowDuplicateElements ).append( " " );
       returnValue.append( "STRIP_NULL_VALUES = " ).append( stripNull ).append( " " );
       returnValue.append( "IGNORE_UTF8_ERRORS = " ).append( ignoreUtf8 ).append( " " );
+    } else if ( dataType.equals( DATA_TYPE_CODES[DATA_TYPE_PARQUET] ) ) {
+      returnValue.append( "'PARQUET' " );
     }
     returnValue.append( ") " );
 
+    // Parquet columns are named after the table fields they load
+    if ( dataType.equals( DATA_TYPE_CODES[DATA_TYPE_PARQUET] ) ) {
+      returnValue.append( "MATCH_BY_COLUMN_NAME = CASE_INSENSITIVE " );
+    }
+
+    if ( validate ) {
+      // Nothing is loaded, so the error and purge options don't apply
+      returnValue.append( "VALIDATION_MODE = RETURN_ERRORS;" );
+      return returnValue.toString();
+    }
+
     returnValue.append( "ON_ERROR = " );
     if ( onError.equals( ON_ERROR_CODES[ON_ERROR_ABORT] ) ) {
       returnValue.append( "'ABORT_STATEMENT' " );
@@ -1330,4 +2397,16 @@ public class SnowflakeBulkLoaderMeta extends BaseStepMeta implements StepMetaInt
     return returnValue.toString();
   }
 
+  /**
+   * Creates the statement returning the records rejected by a copy statement, one row for each error with the file,
+   * line, column and error code, and the rejected record.
+   * @param space The variable space
+   * @param queryId The query id of the copy statement
+   * @return The validate statement
+   */
+  public String getValidateStatement( VariableSpace space, String queryId ) {
+    return "SELECT * FROM TABLE(VALIDATE(" + ( merge ? getMergeTable( space ) : getQualifiedTargetTable( space ) )
+      + ", JOB_ID => '" + queryId.replace( "'", "''" ) + "'));";
+  }
+
 }
@@ -0,0 +1,383 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes CSV field values for the temp files.  Strings are encoded to UTF-8 directly into a reusable scratch buffer,
+ * and the separator, enclosure and escape characters are found in a single pass over the encoded bytes.  Values
+ * containing any of them are enclosed, with the escape character written before every enclosure and escape.
+ *
+ * When every marker is a single byte, the usual case, values are scanned eight bytes at a time: a word of the value
+ * is compared with each marker repeated across a word, and the matching bytes are found with a few arithmetic
+ * operations instead of a comparison per byte.  Longer markers are scanned a byte at a time.
+ *
+ * An encoder keeps state between calls and must only be used by one thread.
+ */
+public class SnowflakeCsvEncoder {
+
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+  private static final long ONE_BYTES = 0x0101010101010101L;
+
+  private final byte[] separator;
+  private final byte[] enclosure;
+  private final byte[] escape;
+
+  // True if every marker is at most one non-NUL byte, so values can be scanned a word at a time
+  private final boolean singleByteMarkers;
+
+  // Each single byte marker repeated in every byte of a word, 0 if the marker is empty
+  private final long separatorWord;
+  private final long enclosureWord;
+  private final long escapeWord;
+
+  // Holds a string value encoded as UTF-8
+  private byte[] encoded = new byte[INITIAL_BUFFER_SIZE];
+
+  // Holds the enclosed and escaped value being written
+  private byte[] escaped = new byte[INITIAL_BUFFER_SIZE];
+
+  // The number of escape characters needed by the last value scanned
+  private int escapeCount;
+
+  /**
+   * @param separator The field separator
+   * @param enclosure The enclosure placed around values containing special characters
+   * @param escape The escape character written before enclosures and escapes within a value
+   */
+  public SnowflakeCsvEncoder( byte[] separator, byte[] enclosure, byte[] escape ) {
+    this.separator = separator == null ? new byte[0] : separator;
+    this.enclosure = enclosure == null ? new byte[0] : enclosure;
+    this.escape = escape == null ? new byte[0] : escape;
+
+    singleByteMarkers = isWordMarker( this.separator ) && isWordMarker( this.enclosure ) && isWordMarker( this.escape );
+    separatorWord = broadcast( this.separator );
+    enclosureWord = broadcast( this.enclosure );
+    escapeWord = broadcast( this.escape );
+  }
+
+  /**
+   * Writes a string value as UTF-8, enclosing and escaping it if needed.
+   * @param out The stream to write to
+   * @param value The value, nothing is written if null or empty
+   * @param length If greater than -1, the value is truncated or padded with spaces to this many characters
+   * @throws IOException
+   */
+  public void writeString( OutputStream out, String value, int length ) throws IOException {
+    if ( value == null ) {
+      return;
+    }
+
+    int chars = value.length();
+    int padding = 0;
+    if ( length > -1 && length < chars ) {
+      chars = length;
+    } else if ( length > chars ) {
+      padding = length - chars;
+    }
+
+    int size = encode( value, chars );
+    if ( padding > 0 ) {
+      encoded = ensureCapacity( encoded, size, size + padding );
+      for ( int i = 0; i < padding; i++ ) {
+        encoded[size++] = ' ';
+      }
+    }
+
+    writeBytes( out, encoded, 0, size, true );
+  }
+
+  /**
+   * Writes an already encoded value.
+   * @param out The stream to write to
+   * @param value The value, nothing is written if null or empty
+   * @param enclose Should the value be enclosed and escaped if it contains special characters.  True for strings.
+   * @throws IOException
+   */
+  public void writeBytes( OutputStream out, byte[] value, boolean enclose ) throws IOException {
+    if ( value != null ) {
+      writeBytes( out, value, 0, value.length, enclose );
+    }
+  }
+
+  /**
+   * Writes an already encoded value.
+   * @param out The stream to write to
+   * @param value The buffer holding the value
+   * @param offset The start of the value in the buffer
+   * @param length The length of the value
+   * @param enclose Should the value be enclosed and escaped if it contains special characters.  True for strings.
+   * @throws IOException
+   */
+  public void writeBytes( OutputStream out, byte[] value, int offset, int length, boolean enclose )
+    throws IOException {
+    if ( length <= 0 ) {
+      return;
+    }
+
+    if ( !enclose || !needsEnclosure( value, offset, length ) ) {
+      out.write( value, offset, length );
+      return;
+    }
+
+    int size = enclosure.length * 2 + length + escape.length * escapeCount;
+    escaped = ensureCapacity( escaped, 0, size );
+
+    int position = 0;
+    System.arraycopy( enclosure, 0, escaped, position, enclosure.length );
+    position += enclosure.length;
+
+    if ( singleByteMarkers ) {
+      position = escapeSingleByte( value, offset, length, position );
+    } else {
+      int end = offset + length;
+      for ( int i = offset; i < end; i++ ) {
+        if ( matches( value, i, end, enclosure ) || matches( value, i, end, escape ) ) {
+          System.arraycopy( escape, 0, escaped, position, escape.length );
+          position += escape.length;
+        }
+        escaped[position++] = value[i];
+      }
+    }
+
+    System.arraycopy( enclosure, 0, escaped, position, enclosure.length );
+    position += enclosure.length;
+
+    out.write( escaped, 0, position );
+  }
+
+  /**
+   * Scans a value once for separators, enclosures and escapes.  Also counts the escapes that will be needed, so the
+   * escaped value can be written without growing the buffer part way through.
+   * @return True if the value contains a separator, enclosure or escape
+   */
+  boolean needsEnclosure( byte[] value, int offset, int length ) {
+    if ( singleByteMarkers ) {
+      return needsEnclosureSingleByte( value, offset, length );
+    }
+
+    boolean found = false;
+    escapeCount = 0;
+
+    int end = offset + length;
+    for ( int i = offset; i < end; i++ ) {
+      if ( matches( value, i, end, enclosure ) || matches( value, i, end, escape ) ) {
+        found = true;
+        escapeCount++;
+      } else if ( !found && matches( value, i, end, separator ) ) {
+        found = true;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * needsEnclosure for single byte markers, comparing a word of the value with every marker at once.
+   */
+  private boolean needsEnclosureSingleByte( byte[] value, int offset, int length ) {
+    int escapes = 0;
+    long separators = 0;
+
+    int end = offset + length;
+    int i = offset;
+    for ( ; i + 8 <= end; i += 8 ) {
+      long word = readWord( value, i );
+      escapes += Long.bitCount( matchBytes( word, enclosureWord ) | matchBytes( word, escapeWord ) );
+      separators |= matchBytes( word, separatorWord );
+    }
+    for ( ; i < end; i++ ) {
+      byte b = value[i];
+      if ( isEnclosureOrEscape( b ) ) {
+        escapes++;
+      } else if ( separator.length == 1 && b == separator[0] ) {
+        separators = 1;
+      }
+    }
+
+    escapeCount = escapes;
+    return escapes > 0 || separators != 0;
+  }
+
+  /**
+   * Copies a value into the escaped buffer, writing the escape before every enclosure and escape.  The bytes between
+   * them are copied in runs.
+   * @return The position in the escaped buffer after the value
+   */
+  private int escapeSingleByte( byte[] value, int offset, int length, int position ) {
+    int end = offset + length;
+    int runStart = offset;
+    int i = offset;
+    for ( ; i + 8 <= end; i += 8 ) {
+      long word = readWord( value, i );
+      long found = matchBytes( word, enclosureWord ) | matchBytes( word, escapeWord );
+      while ( found != 0 ) {
+        // The lowest set bit is the first matching byte, as words are read little endian
+        int match = i + ( Long.numberOfTrailingZeros( found ) >>> 3 );
+        position = copyRunAndEscape( value, runStart, match, position );
+        runStart = match;
+        found &= found - 1;
+      }
+    }
+    for ( ; i < end; i++ ) {
+      if ( isEnclosureOrEscape( value[i] ) ) {
+        position = copyRunAndEscape( value, runStart, i, position );
+        runStart = i;
+      }
+    }
+
+    int run = end - runStart;
+    System.arraycopy( value, runStart, escaped, position, run );
+    return position + run;
+  }
+
+  /**
+   * Copies the bytes from the start of a run up to a special byte, followed by the escape.  The special byte itself
+   * starts the next run.
+   * @return The position in the escaped buffer after the escape
+   */
+  private int copyRunAndEscape( byte[] value, int runStart, int match, int position ) {
+    int run = match - runStart;
+    System.arraycopy( value, runStart, escaped, position, run );
+    position += run;
+    System.arraycopy( escape, 0, escaped, position, escape.length );
+    return position + escape.length;
+  }
+
+  private boolean isEnclosureOrEscape( byte b ) {
+    return ( enclosure.length == 1 && b == enclosure[0] ) || ( escape.length == 1 && b == escape[0] );
+  }
+
+  /**
+   * @return True if the marker is empty or a single byte that can be scanned for a word at a time.  A NUL marker
+   * would repeat to the same word as an empty one, so it is scanned a byte at a time.
+   */
+  private static boolean isWordMarker( byte[] marker ) {
+    return marker.length == 0 || ( marker.length == 1 && marker[0] != 0 );
+  }
+
+  /**
+   * @return A word with the single byte marker in every byte, 0 if the marker is not a single byte
+   */
+  private static long broadcast( byte[] marker ) {
+    return marker.length == 1 ? ( marker[0] & 0xffL ) * ONE_BYTES : 0;
+  }
+
+  /**
+   * Finds the bytes of a word equal to a marker.  Bytes equal to the marker become 0 when xored with it, and the
+   * zero bytes are found without carries between bytes, so only the matching bytes are flagged.
+   * @param word Eight bytes of the value
+   * @param markerWord The marker in every byte, 0 for no marker
+   * @return The high bit set in every byte of the word equal to the marker
+   */
+  private static long matchBytes( long word, long markerWord ) {
+    if ( markerWord == 0 ) {
+      return 0;
+    }
+    long x = word ^ markerWord;
+    return ~( ( ( x & LOW_SEVEN_BITS ) + LOW_SEVEN_BITS ) | x | LOW_SEVEN_BITS );
+  }
+
+  /**
+   * @return Eight bytes of the value, the first in the lowest bits
+   */
+  private static long readWord( byte[] value, int position ) {
+    return ( value[position] & 0xffL )
+      | ( value[position + 1] & 0xffL ) << 8
+      | ( value[position + 2] & 0xffL ) << 16
+      | ( value[position + 3] & 0xffL ) << 24
+      | ( value[position + 4] & 0xffL ) << 32
+      | ( value[position + 5] & 0xffL ) << 40
+      | ( value[position + 6] & 0xffL ) << 48
+      | ( value[position + 7] & 0xffL ) << 56;
+  }
+
+  /**
+   * @return True if the marker is non-empty and starts at the position within the value
+   */
+  private static boolean matches( byte[] value, int position, int end, byte[] marker ) {
+    if ( marker.length == 0 || value[position] != marker[0] || position + marker.length > end ) {
+      return false;
+    }
+    for ( int i = 1; i < marker.length; i++ ) {
+      if ( value[position + i] != marker[i] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Encodes the first characters of a string into the encoded buffer as UTF-8.  Unpaired surrogates are replaced
+   * with '?', the same as String.getBytes.
+   * @param value The string to encode
+   * @param chars The number of characters to encode
+   * @return The number of bytes encoded
+   */
+  private int encode( String value, int chars ) {
+    // A char never takes more than 3 bytes, a surrogate pair takes 4 bytes for 2 chars
+    encoded = ensureCapacity( encoded, 0, chars * 3 );
+    byte[] buffer = encoded;
+
+    int size = 0;
+    for ( int i = 0; i < chars; i++ ) {
+      char c = value.charAt( i );
+      if ( c < 0x80 ) {
+        buffer[size++] = (byte) c;
+      } else if ( c < 0x800 ) {
+        buffer[size++] = (byte) ( 0xc0 | ( c >> 6 ) );
+        buffer[size++] = (byte) ( 0x80 | ( c & 0x3f ) );
+      } else if ( Character.isSurrogate( c ) ) {
+        if ( Character.isHighSurrogate( c ) && i + 1 < chars && Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+          int codePoint = Character.toCodePoint( c, value.charAt( ++i ) );
+          buffer[size++] = (byte) ( 0xf0 | ( codePoint >> 18 ) );
+          buffer[size++] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3f ) );
+          buffer[size++] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3f ) );
+          buffer[size++] = (byte) ( 0x80 | ( codePoint & 0x3f ) );
+        } else {
+          buffer[size++] = '?';
+        }
+      } else {
+        buffer[size++] = (byte) ( 0xe0 | ( c >> 12 ) );
+        buffer[size++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+        buffer[size++] = (byte) ( 0x80 | ( c & 0x3f ) );
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Grows a buffer if it cannot hold the required number of bytes, keeping the bytes already used.
+   * @param buffer The buffer
+   * @param used The number of bytes in use that must be kept
+   * @param required The number of bytes needed
+   * @return The buffer to use
+   */
+  private static byte[] ensureCapacity( byte[] buffer, int used, int required ) {
+    if ( required <= buffer.length ) {
+      return buffer;
+    }
+    byte[] grown = new byte[Math.max( required, buffer.length * 2 )];
+    System.arraycopy( buffer, 0, grown, 0, used );
+    return grown;
+  }
+}
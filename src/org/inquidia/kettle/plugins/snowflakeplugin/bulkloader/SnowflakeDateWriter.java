@@ -0,0 +1,164 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Writes dates to the temp files as ASCII without going through SimpleDateFormat.  The output matches the
+ * SnowflakeBulkLoaderMeta.DATE_FORMAT_STRING and TIMESTAMP_FORMAT_STRING used by the copy command, and the
+ * HH:mm:ss.SSS format used for time columns.  Dates are rendered in the default time zone, the same as ValueMetaDate.
+ *
+ * The rendered day is cached, since consecutive timestamps usually fall on the same day.  A writer must only be used
+ * by one thread.
+ */
+public class SnowflakeDateWriter {
+
+  /**
+   * yyyy-MM-dd HH:mm:ss.SSS
+   */
+  public static final int FORMAT_TIMESTAMP = 0;
+
+  /**
+   * yyyy-MM-dd
+   */
+  public static final int FORMAT_DATE = 1;
+
+  /**
+   * HH:mm:ss.SSS
+   */
+  public static final int FORMAT_TIME = 2;
+
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  // 1582-10-15, dates before the Gregorian cutover are formatted with the Julian calendar by SimpleDateFormat
+  private static final long MIN_LOCAL_MILLIS = -12219292800000L;
+
+  // 10000-01-01, years with more than four digits are left to SimpleDateFormat
+  private static final long MAX_LOCAL_MILLIS = 253402300800000L;
+
+  private static final int DAY_LENGTH = 10;
+
+  private final TimeZone timeZone;
+
+  private final byte[] buffer = new byte[23];
+
+  // The last day rendered, as days since the epoch in local time, and its yyyy-MM-dd bytes
+  private long cachedDay = Long.MIN_VALUE;
+  private final byte[] cachedDayBytes = new byte[DAY_LENGTH];
+
+  public SnowflakeDateWriter() {
+    this( TimeZone.getDefault() );
+  }
+
+  /**
+   * @param timeZone The time zone dates are rendered in
+   */
+  public SnowflakeDateWriter( TimeZone timeZone ) {
+    this.timeZone = timeZone;
+  }
+
+  /**
+   * Writes a date in one of the supported formats.
+   * @param out The stream to write to
+   * @param date The date to write
+   * @param format FORMAT_TIMESTAMP, FORMAT_DATE or FORMAT_TIME
+   * @return False if the date is outside the range this writer handles and nothing was written.  The caller should
+   * format the date through ValueMetaDate instead.
+   * @throws IOException
+   */
+  public boolean write( OutputStream out, Date date, int format ) throws IOException {
+    long millis = date.getTime();
+    long local = millis + timeZone.getOffset( millis );
+    if ( local < MIN_LOCAL_MILLIS || local >= MAX_LOCAL_MILLIS ) {
+      return false;
+    }
+
+    long day = local / MILLIS_PER_DAY;
+    if ( local % MILLIS_PER_DAY < 0 ) {
+      day--;
+    }
+    int millisOfDay = (int) ( local - day * MILLIS_PER_DAY );
+
+    int length = 0;
+    if ( format != FORMAT_TIME ) {
+      if ( day != cachedDay ) {
+        renderDay( day );
+        cachedDay = day;
+      }
+      System.arraycopy( cachedDayBytes, 0, buffer, 0, DAY_LENGTH );
+      length = DAY_LENGTH;
+      if ( format == FORMAT_TIMESTAMP ) {
+        buffer[length++] = ' ';
+      }
+    }
+
+    if ( format != FORMAT_DATE ) {
+      int seconds = millisOfDay / 1000;
+      length = writeDigits( buffer, length, seconds / 3600, 2 );
+      buffer[length++] = ':';
+      length = writeDigits( buffer, length, ( seconds / 60 ) % 60, 2 );
+      buffer[length++] = ':';
+      length = writeDigits( buffer, length, seconds % 60, 2 );
+      buffer[length++] = '.';
+      length = writeDigits( buffer, length, millisOfDay % 1000, 3 );
+    }
+
+    out.write( buffer, 0, length );
+    return true;
+  }
+
+  /**
+   * Renders a day as yyyy-MM-dd into the day cache using the proleptic Gregorian calendar.
+   * @param day The number of days since 1970-01-01
+   */
+  private void renderDay( long day ) {
+    // Shift the epoch to 0000-03-01 so leap days fall at the end of each year
+    long z = day + 719468;
+    long era = ( z >= 0 ? z : z - 146096 ) / 146097;
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = ( dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096 ) / 365;
+    long dayOfYear = dayOfEra - ( 365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100 );
+    long monthIndex = ( 5 * dayOfYear + 2 ) / 153;
+    int dayOfMonth = (int) ( dayOfYear - ( 153 * monthIndex + 2 ) / 5 + 1 );
+    int month = (int) ( monthIndex < 10 ? monthIndex + 3 : monthIndex - 9 );
+    int year = (int) ( yearOfEra + era * 400 + ( month <= 2 ? 1 : 0 ) );
+
+    int position = writeDigits( cachedDayBytes, 0, year, 4 );
+    cachedDayBytes[position++] = '-';
+    position = writeDigits( cachedDayBytes, position, month, 2 );
+    cachedDayBytes[position++] = '-';
+    writeDigits( cachedDayBytes, position, dayOfMonth, 2 );
+  }
+
+  /**
+   * Writes a non-negative number as a fixed number of zero padded digits
+   * @return The position after the digits
+   */
+  private static int writeDigits( byte[] target, int position, int value, int digits ) {
+    for ( int i = position + digits - 1; i >= position; i-- ) {
+      target[i] = (byte) ( '0' + value % 10 );
+      value /= 10;
+    }
+    return position + digits;
+  }
+}
@@ -0,0 +1,117 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coordinates the copies of a bulk loader step running in the same transformation, so the files staged by every
+ * copy are loaded with a single copy statement.  Each copy stages its own files and reports them when it finishes.
+ * The last copy to finish receives the files of all copies and runs the copy statement.
+ */
+public class SnowflakeLoadCoordinator {
+
+  // The coordinators of the running steps, keyed by transformation and step name
+  private static final Map<String, SnowflakeLoadCoordinator> coordinators = new HashMap<>();
+
+  private final String key;
+  private final int copies;
+  private final List<String> files = new ArrayList<>();
+  private final List<SnowflakeLoadManifest> manifests = new ArrayList<>();
+  private int finished;
+  private int failed;
+
+  private SnowflakeLoadCoordinator( String key, int copies ) {
+    this.key = key;
+    this.copies = copies;
+  }
+
+  /**
+   * Gets the coordinator shared by the copies of a step, creating it for the first copy
+   * @param key Identifies the transformation and step being coordinated
+   * @param copies The number of copies of the step that will report their files
+   * @return The coordinator
+   */
+  public static SnowflakeLoadCoordinator join( String key, int copies ) {
+    synchronized ( coordinators ) {
+      SnowflakeLoadCoordinator coordinator = coordinators.get( key );
+      if ( coordinator == null ) {
+        coordinator = new SnowflakeLoadCoordinator( key, copies );
+        coordinators.put( key, coordinator );
+      }
+      return coordinator;
+    }
+  }
+
+  /**
+   * Reports the files a copy has staged.
+   * @param stagedFiles The files staged by the copy
+   * @param manifest The load manifest of the copy, updated by the last copy once the files are loaded.  Null when
+   * failed loads are not resumed.
+   * @return The files staged by all copies if this is the last copy to finish, null otherwise
+   * @throws KettleException Another copy failed, so the files must not be loaded
+   */
+  public synchronized List<String> finish( List<String> stagedFiles, SnowflakeLoadManifest manifest )
+    throws KettleException {
+    files.addAll( stagedFiles );
+    if ( manifest != null ) {
+      manifests.add( manifest );
+    }
+    finished++;
+    boolean last = checkDone();
+    if ( failed > 0 ) {
+      throw new KettleException( "Another copy of the step failed, the staged files will not be loaded" );
+    }
+    return last ? new ArrayList<>( files ) : null;
+  }
+
+  /**
+   * @return The load manifests of the copies that reported their files
+   */
+  public synchronized List<SnowflakeLoadManifest> getManifests() {
+    return new ArrayList<>( manifests );
+  }
+
+  /**
+   * Reports that a copy ended without finishing, so none of the staged files will be loaded.
+   */
+  public synchronized void abandon() {
+    failed++;
+    checkDone();
+  }
+
+  /**
+   * Removes the coordinator once every copy has reported in
+   * @return True if every copy has reported in
+   */
+  private boolean checkDone() {
+    if ( finished + failed < copies ) {
+      return false;
+    }
+    synchronized ( coordinators ) {
+      coordinators.remove( key );
+    }
+    return true;
+  }
+}
@@ -0,0 +1,316 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the temp files written by a copy of the step, so a rerun after a failure can skip the files already put
+ * to the stage.  For each file the manifest holds the range of rows it contains, a checksum of the encoded rows,
+ * whether it was put to the stage, and whether it was loaded by a copy statement.
+ *
+ * A record is appended to the manifest in the work directory every time a file is closed or changes status, and the
+ * manifest is deleted once the load succeeds.  A rerun finding a manifest skips the rows of the files at the start of
+ * the manifest that were staged, checking the rows it skips are the rows written to the files.  The manifest is
+ * compacted to one line per file when a run resumes from it, and when a failed run closes it.
+ *
+ * The manifest is one line holding the signature of the load, then tab separated lines.  A file line holds the file
+ * name, the first row, the number of rows, the checksum, the put status and the copy status.  A status line holds a
+ * put or copy status and the file name, and changes the status of the file.  A last line without a line end was cut
+ * short by a failure while it was appended, and is ignored.
+ */
+public class SnowflakeLoadManifest {
+
+  public static final String STATUS_PENDING = "PENDING";
+  public static final String PUT_STATUS_STAGED = "STAGED";
+  public static final String COPY_STATUS_LOADED = "LOADED";
+
+  private final String filename;
+  private final String signature;
+  private final List<Entry> entries = new ArrayList<>();
+
+  // Does the file hold the signature and entries of this manifest, so changes can be appended to it
+  private boolean compacted;
+
+  // Was the manifest deleted after the load succeeded
+  private boolean deleted;
+
+  private SnowflakeLoadManifest( String filename, String signature ) {
+    this.filename = filename;
+    this.signature = signature;
+  }
+
+  /**
+   * Reads the manifest left by an earlier run, or starts a new one
+   * @param filename The manifest file
+   * @param signature Identifies the load, a manifest written for a different load is ignored
+   * @return The manifest
+   * @throws KettleException The manifest exists, but could not be read
+   */
+  public static SnowflakeLoadManifest open( String filename, String signature ) throws KettleException {
+    SnowflakeLoadManifest manifest = new SnowflakeLoadManifest( filename, signature );
+    try {
+      if ( !KettleVFS.getFileObject( filename ).exists() ) {
+        return manifest;
+      }
+      String content;
+      try ( InputStream in = KettleVFS.getInputStream( filename ) ) {
+        content = new String( IOUtils.toByteArray( in ), StandardCharsets.UTF_8 );
+      }
+      // Only complete lines, the last line may have been cut short while it was appended
+      String[] lines = content.substring( 0, content.lastIndexOf( '\n' ) + 1 ).split( "\n" );
+      if ( !signature.equals( lines[0] ) ) {
+        return manifest;
+      }
+      Map<String, Entry> entriesByFile = new HashMap<>();
+      for ( int i = 1; i < lines.length; i++ ) {
+        String line = lines[i];
+        if ( line.isEmpty() ) {
+          continue;
+        }
+        String[] values = line.split( "\t" );
+        if ( values.length == 6 ) {
+          Entry entry = new Entry( values[0], Long.parseLong( values[1] ), Long.parseLong( values[2] ),
+            Long.parseLong( values[3], 16 ) );
+          entry.putStatus = values[4];
+          entry.copyStatus = values[5];
+          manifest.entries.add( entry );
+          entriesByFile.put( entry.filename, entry );
+        } else if ( values.length == 2 && PUT_STATUS_STAGED.equals( values[0] )
+          && entriesByFile.containsKey( values[1] ) ) {
+          entriesByFile.get( values[1] ).putStatus = values[0];
+        } else if ( values.length == 2 && COPY_STATUS_LOADED.equals( values[0] )
+          && entriesByFile.containsKey( values[1] ) ) {
+          entriesByFile.get( values[1] ).copyStatus = values[0];
+        } else {
+          throw new KettleException( "Invalid line in load manifest " + filename + ": " + line );
+        }
+      }
+    } catch ( KettleException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to read load manifest " + filename, e );
+    }
+    return manifest;
+  }
+
+  /**
+   * Gets the files of an earlier run whose rows can be skipped: the files staged one after another from the first
+   * row, up to the first file that was not staged.  The other files are dropped from the manifest, as their rows are
+   * written again, and the manifest is compacted.
+   * @return The staged files, in row order
+   * @throws KettleException The manifest could not be written
+   */
+  public synchronized List<Entry> resume() throws KettleException {
+    List<Entry> staged = new ArrayList<>();
+    long nextRow = 0;
+    for ( Entry entry : entries ) {
+      if ( entry.firstRow != nextRow || !PUT_STATUS_STAGED.equals( entry.putStatus ) ) {
+        break;
+      }
+      staged.add( entry );
+      nextRow += entry.rowCount;
+    }
+    entries.retainAll( staged );
+    save();
+    return staged;
+  }
+
+  /**
+   * Records a file that was closed
+   * @param file The file
+   * @param firstRow The number of rows written by the copy of the step before the file
+   * @param rowCount The number of rows in the file
+   * @param checksum The CRC32 checksum of the rows written to the file, before compression
+   * @throws KettleException The manifest could not be written
+   */
+  public synchronized void closed( String file, long firstRow, long rowCount, long checksum )
+    throws KettleException {
+    Entry entry = new Entry( file, firstRow, rowCount, checksum );
+    entries.add( entry );
+    append( entry.toLine() );
+  }
+
+  /**
+   * Records files that were put to the stage
+   * @param files The files, files not in the manifest are ignored
+   * @throws KettleException The manifest could not be written
+   */
+  public synchronized void staged( Collection<String> files ) throws KettleException {
+    StringBuilder records = new StringBuilder();
+    for ( Entry entry : entries ) {
+      if ( !PUT_STATUS_STAGED.equals( entry.putStatus ) && files.contains( entry.filename ) ) {
+        entry.putStatus = PUT_STATUS_STAGED;
+        records.append( PUT_STATUS_STAGED ).append( '\t' ).append( entry.filename ).append( '\n' );
+      }
+    }
+    if ( records.length() > 0 ) {
+      append( records.toString() );
+    }
+  }
+
+  /**
+   * Records files that were loaded by a copy statement
+   * @param files The files, files not in the manifest are ignored
+   * @throws KettleException The manifest could not be written
+   */
+  public synchronized void loaded( Collection<String> files ) throws KettleException {
+    StringBuilder records = new StringBuilder();
+    for ( Entry entry : entries ) {
+      if ( !COPY_STATUS_LOADED.equals( entry.copyStatus ) && files.contains( entry.filename ) ) {
+        entry.copyStatus = COPY_STATUS_LOADED;
+        records.append( COPY_STATUS_LOADED ).append( '\t' ).append( entry.filename ).append( '\n' );
+      }
+    }
+    if ( records.length() > 0 ) {
+      append( records.toString() );
+    }
+  }
+
+  /**
+   * Deletes the manifest once the load has succeeded, so the next run starts from the beginning
+   * @throws KettleException
+   */
+  public synchronized void delete() throws KettleException {
+    entries.clear();
+    deleted = true;
+    try {
+      KettleVFS.getFileObject( filename ).delete();
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to delete load manifest " + filename, e );
+    }
+  }
+
+  /**
+   * Compacts the manifest kept for a rerun after a failure to one line per file
+   * @throws KettleException The manifest could not be written
+   */
+  public synchronized void close() throws KettleException {
+    if ( compacted && !deleted ) {
+      save();
+    }
+  }
+
+  /**
+   * @return The manifest file
+   */
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * Appends records to the manifest, or writes the whole manifest when the file doesn't hold it yet
+   * @param records The lines to append, each ending with a line end
+   * @throws KettleException
+   */
+  private void append( String records ) throws KettleException {
+    if ( !compacted ) {
+      save();
+      return;
+    }
+    try ( OutputStream out = KettleVFS.getOutputStream( filename, true ) ) {
+      out.write( records.getBytes( StandardCharsets.UTF_8 ) );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to write load manifest " + filename, e );
+    }
+  }
+
+  /**
+   * Writes the manifest to a temp file, one line per file, and moves it over the manifest, so a failure part way
+   * through writing never leaves a partial manifest
+   * @throws KettleException
+   */
+  private void save() throws KettleException {
+    StringBuilder content = new StringBuilder( signature ).append( '\n' );
+    for ( Entry entry : entries ) {
+      content.append( entry.toLine() );
+    }
+
+    String tempFilename = filename + ".tmp";
+    try {
+      try ( OutputStream out = KettleVFS.getOutputStream( tempFilename, false ) ) {
+        out.write( content.toString().getBytes( StandardCharsets.UTF_8 ) );
+      }
+      FileObject tempFile = KettleVFS.getFileObject( tempFilename );
+      tempFile.moveTo( KettleVFS.getFileObject( filename ) );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to write load manifest " + filename, e );
+    }
+    compacted = true;
+  }
+
+  /**
+   * A file recorded in the manifest
+   */
+  public static class Entry {
+    private final String filename;
+    private final long firstRow;
+    private final long rowCount;
+    private final long checksum;
+    private String putStatus = STATUS_PENDING;
+    private String copyStatus = STATUS_PENDING;
+
+    private Entry( String filename, long firstRow, long rowCount, long checksum ) {
+      this.filename = filename;
+      this.firstRow = firstRow;
+      this.rowCount = rowCount;
+      this.checksum = checksum;
+    }
+
+    public String getFilename() {
+      return filename;
+    }
+
+    public long getFirstRow() {
+      return firstRow;
+    }
+
+    public long getRowCount() {
+      return rowCount;
+    }
+
+    public long getChecksum() {
+      return checksum;
+    }
+
+    public boolean isLoaded() {
+      return COPY_STATUS_LOADED.equals( copyStatus );
+    }
+
+    /**
+     * @return The file line of the entry, with its line end
+     */
+    private String toLine() {
+      return filename + '\t' + firstRow + '\t' + rowCount + '\t' + Long.toHexString( checksum ) + '\t' + putStatus
+        + '\t' + copyStatus + '\n';
+    }
+  }
+}
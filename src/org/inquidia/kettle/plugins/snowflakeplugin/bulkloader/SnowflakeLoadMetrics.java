@@ -0,0 +1,244 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.metrics.Metrics;
+import org.pentaho.di.core.metrics.MetricsInterface;
+import org.pentaho.di.core.metrics.MetricsSnapshotType;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects timings and byte counts for each phase of a bulk load: encoding the rows, compressing them, writing the
+ * files, putting them to the stage and running the copy statement.  The phases run on several threads, so the
+ * counters may be updated from any thread.  Each phase is timed on the thread it runs on: compression by the
+ * compressing streams and the Parquet writer, on the compression threads when compressing in parallel.
+ *
+ * The totals are logged when the load finishes, and reported to the Kettle metrics of the step when the
+ * transformation is gathering metrics.  They are not added to the rows the step passes on.
+ */
+public class SnowflakeLoadMetrics {
+
+  public static final MetricsInterface METRIC_ENCODE_TIME = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_ENCODE_TIME", "Time spent encoding rows (ms)" );
+  public static final MetricsInterface METRIC_COMPRESS_TIME = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_COMPRESS_TIME", "Time spent compressing temp files (ms)" );
+  public static final MetricsInterface METRIC_WRITE_TIME = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_WRITE_TIME", "Time spent writing temp files (ms)" );
+  public static final MetricsInterface METRIC_UPLOAD_TIME = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_UPLOAD_TIME", "Time spent putting files to the stage (ms)" );
+  public static final MetricsInterface METRIC_COPY_TIME = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_COPY_TIME", "Time spent running the copy statement (ms)" );
+  public static final MetricsInterface METRIC_RAW_BYTES = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_RAW_BYTES", "Bytes written before compression" );
+  public static final MetricsInterface METRIC_COMPRESSED_BYTES = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_COMPRESSED_BYTES", "Bytes written to temp files" );
+  public static final MetricsInterface METRIC_FILES = new Metrics( MetricsSnapshotType.SUM,
+    "SNOWFLAKE_BULK_LOAD_FILES", "Temp files written" );
+  public static final MetricsInterface METRIC_ROWS_PER_SECOND = new Metrics( MetricsSnapshotType.MAX,
+    "SNOWFLAKE_BULK_LOAD_ROWS_PER_SECOND", "Rows written per second" );
+
+  private final AtomicLong encodeNanos = new AtomicLong();
+  private final AtomicLong compressNanos = new AtomicLong();
+  private final AtomicLong writeNanos = new AtomicLong();
+  private final AtomicLong uploadNanos = new AtomicLong();
+  private final AtomicLong copyNanos = new AtomicLong();
+  private final AtomicLong rawBytes = new AtomicLong();
+  private final AtomicLong compressedBytes = new AtomicLong();
+  private final AtomicLong files = new AtomicLong();
+  private final AtomicLong rows = new AtomicLong();
+
+  // When the first row started and the last row finished being written
+  private volatile long startNanos;
+  private volatile long endNanos;
+
+  /**
+   * Wraps the stream writing a temp file, counting the compressed bytes and the time spent writing them
+   * @param out The file stream
+   * @return The wrapped stream
+   */
+  public OutputStream fileStream( OutputStream out ) {
+    return new TimedOutputStream( out, compressedBytes, writeNanos );
+  }
+
+  /**
+   * Counts data compressed, called by the thread that compressed it
+   * @param bytes The number of bytes before compression
+   * @param nanos The time spent compressing them
+   */
+  public void addCompress( long bytes, long nanos ) {
+    rawBytes.addAndGet( bytes );
+    compressNanos.addAndGet( nanos );
+  }
+
+  /**
+   * Counts a row written by the step
+   * @param start System.nanoTime when the step started encoding the row
+   * @param end System.nanoTime when the row was encoded
+   */
+  public void addRow( long start, long end ) {
+    if ( startNanos == 0 ) {
+      startNanos = start;
+    }
+    endNanos = end;
+    encodeNanos.addAndGet( end - start );
+    rows.incrementAndGet();
+  }
+
+  public void addUpload( long nanos ) {
+    uploadNanos.addAndGet( nanos );
+  }
+
+  public void addCopy( long nanos ) {
+    copyNanos.addAndGet( nanos );
+  }
+
+  public void addFile() {
+    files.incrementAndGet();
+  }
+
+  public long getEncodeNanos() {
+    return encodeNanos.get();
+  }
+
+  public long getCompressNanos() {
+    return compressNanos.get();
+  }
+
+  public long getWriteNanos() {
+    return writeNanos.get();
+  }
+
+  public long getUploadNanos() {
+    return uploadNanos.get();
+  }
+
+  public long getCopyNanos() {
+    return copyNanos.get();
+  }
+
+  public long getRawBytes() {
+    return rawBytes.get();
+  }
+
+  public long getCompressedBytes() {
+    return compressedBytes.get();
+  }
+
+  public long getFiles() {
+    return files.get();
+  }
+
+  public long getRows() {
+    return rows.get();
+  }
+
+  /**
+   * @return The rows written per second, from the first row to the last
+   */
+  public long getRowsPerSecond() {
+    long elapsed = endNanos - startNanos;
+    return elapsed <= 0 ? 0 : (long) ( rows.get() * (double) TimeUnit.SECONDS.toNanos( 1 ) / elapsed );
+  }
+
+  /**
+   * Logs the totals, and reports them to the Kettle metrics when the transformation is gathering metrics
+   * @param log The log channel of the step
+   */
+  public void report( LogChannelInterface log ) {
+    long rowsPerSecond = getRowsPerSecond();
+    if ( log.isBasic() ) {
+      log.logBasic( "====================== Bulk Load Metrics ======================" );
+      log.logBasic( "Rows = " + getRows() + " (" + rowsPerSecond + " rows/sec)" );
+      log.logBasic( "Files = " + getFiles() );
+      log.logBasic( "Raw bytes = " + getRawBytes() );
+      log.logBasic( "Compressed bytes = " + getCompressedBytes() );
+      log.logBasic( "Encode time = " + toMillis( getEncodeNanos() ) + " ms" );
+      log.logBasic( "Compress time = " + toMillis( getCompressNanos() ) + " ms" );
+      log.logBasic( "Write time = " + toMillis( getWriteNanos() ) + " ms" );
+      log.logBasic( "Upload time = " + toMillis( getUploadNanos() ) + " ms" );
+      log.logBasic( "Copy time = " + toMillis( getCopyNanos() ) + " ms" );
+    }
+
+    if ( log.isGatheringMetrics() ) {
+      log.snap( METRIC_ENCODE_TIME, toMillis( getEncodeNanos() ) );
+      log.snap( METRIC_COMPRESS_TIME, toMillis( getCompressNanos() ) );
+      log.snap( METRIC_WRITE_TIME, toMillis( getWriteNanos() ) );
+      log.snap( METRIC_UPLOAD_TIME, toMillis( getUploadNanos() ) );
+      log.snap( METRIC_COPY_TIME, toMillis( getCopyNanos() ) );
+      log.snap( METRIC_RAW_BYTES, getRawBytes() );
+      log.snap( METRIC_COMPRESSED_BYTES, getCompressedBytes() );
+      log.snap( METRIC_FILES, getFiles() );
+      log.snap( METRIC_ROWS_PER_SECOND, rowsPerSecond );
+    }
+  }
+
+  private static long toMillis( long nanos ) {
+    return TimeUnit.NANOSECONDS.toMillis( nanos );
+  }
+
+  /**
+   * Counts the bytes written through a stream, and the time spent writing them
+   */
+  private static class TimedOutputStream extends FilterOutputStream {
+    private final AtomicLong bytes;
+    private final AtomicLong nanos;
+
+    private TimedOutputStream( OutputStream out, AtomicLong bytes, AtomicLong nanos ) {
+      super( out );
+      this.bytes = bytes;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      long start = System.nanoTime();
+      out.write( b );
+      nanos.addAndGet( System.nanoTime() - start );
+      bytes.incrementAndGet();
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      long start = System.nanoTime();
+      out.write( b, off, len );
+      nanos.addAndGet( System.nanoTime() - start );
+      bytes.addAndGet( len );
+    }
+
+    @Override
+    public void flush() throws IOException {
+      long start = System.nanoTime();
+      out.flush();
+      nanos.addAndGet( System.nanoTime() - start );
+    }
+
+    @Override
+    public void close() throws IOException {
+      long start = System.nanoTime();
+      out.close();
+      nanos.addAndGet( System.nanoTime() - start );
+    }
+  }
+}
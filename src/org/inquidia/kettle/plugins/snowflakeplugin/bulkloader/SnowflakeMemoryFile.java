@@ -0,0 +1,159 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A temp file held in memory blocks from a SnowflakeBufferPool, used when streaming files to the stage instead of
+ * writing them to the work directory.  The file is written like any output stream, read back once with
+ * getInputStream when it is uploaded, and then released so its blocks can be reused.
+ */
+public class SnowflakeMemoryFile extends OutputStream {
+
+  private final SnowflakeBufferPool pool;
+  private final List<byte[]> blocks = new ArrayList<>();
+
+  // The number of bytes used in the last block
+  private int position;
+  private long size;
+  private boolean closed;
+
+  /**
+   * @param pool The pool to take memory blocks from
+   */
+  public SnowflakeMemoryFile( SnowflakeBufferPool pool ) {
+    this.pool = pool;
+    this.position = pool.getBlockSize();
+  }
+
+  @Override
+  public void write( int b ) throws IOException {
+    ensureOpen();
+    if ( position == pool.getBlockSize() ) {
+      nextBlock();
+    }
+    blocks.get( blocks.size() - 1 )[position++] = (byte) b;
+    size++;
+  }
+
+  @Override
+  public void write( byte[] b, int off, int len ) throws IOException {
+    ensureOpen();
+    while ( len > 0 ) {
+      if ( position == pool.getBlockSize() ) {
+        nextBlock();
+      }
+      int count = Math.min( len, pool.getBlockSize() - position );
+      System.arraycopy( b, off, blocks.get( blocks.size() - 1 ), position, count );
+      position += count;
+      off += count;
+      len -= count;
+      size += count;
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  /**
+   * @return The number of bytes in the file
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * @return A stream reading the contents of the file
+   */
+  public InputStream getInputStream() {
+    return new InputStream() {
+      private int block;
+      private int offset;
+      private long remaining = size;
+
+      @Override
+      public int read() {
+        if ( remaining == 0 ) {
+          return -1;
+        }
+        byte b = blocks.get( block )[offset++];
+        advance( 1 );
+        return b & 0xff;
+      }
+
+      @Override
+      public int read( byte[] b, int off, int len ) {
+        if ( len == 0 ) {
+          return 0;
+        }
+        if ( remaining == 0 ) {
+          return -1;
+        }
+        int count = (int) Math.min( len, Math.min( remaining, pool.getBlockSize() - offset ) );
+        System.arraycopy( blocks.get( block ), offset, b, off, count );
+        offset += count;
+        advance( count );
+        return count;
+      }
+
+      @Override
+      public int available() {
+        return (int) Math.min( Integer.MAX_VALUE, remaining );
+      }
+
+      private void advance( int count ) {
+        remaining -= count;
+        if ( offset == pool.getBlockSize() ) {
+          block++;
+          offset = 0;
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the memory blocks of the file to the pool.  The file can't be read after it is released.
+   */
+  public void release() {
+    closed = true;
+    for ( byte[] block : blocks ) {
+      pool.release( block );
+    }
+    blocks.clear();
+    size = 0;
+  }
+
+  private void ensureOpen() throws IOException {
+    if ( closed ) {
+      throw new IOException( "Stream closed" );
+    }
+  }
+
+  private void nextBlock() throws IOException {
+    blocks.add( pool.take( blocks.size() ) );
+    position = 0;
+  }
+}
@@ -0,0 +1,715 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes rows to a Parquet file for Snowflake to load.  Every column is optional and flat, values are PLAIN encoded,
+ * definition levels are RLE encoded, and pages are GZIP compressed.  Rows are buffered in memory by column until the
+ * row group reaches its target size, then the row group is written out.
+ *
+ * Date, time and timestamp values are written as local wall clock values in the default time zone, the same values
+ * the CSV files contain, so they load into TIMESTAMP_NTZ, DATE and TIME columns unchanged.  TYPE_TIMESTAMP_TZ values,
+ * for TIMESTAMP_LTZ and TIMESTAMP_TZ columns, are written as UTC instants marked as adjusted to UTC, so they keep
+ * their instant whatever the time zone of the session loading them.
+ *
+ * A writer must only be used by one thread.
+ */
+public class SnowflakeParquetWriter {
+
+  public static final int TYPE_STRING = 0;
+  public static final int TYPE_BOOLEAN = 1;
+  public static final int TYPE_INTEGER = 2;
+  public static final int TYPE_NUMBER = 3;
+  public static final int TYPE_DECIMAL = 4;
+  public static final int TYPE_DATE = 5;
+  public static final int TYPE_TIME = 6;
+  public static final int TYPE_TIMESTAMP = 7;
+  public static final int TYPE_BINARY = 8;
+  public static final int TYPE_TIMESTAMP_TZ = 9;
+
+  /**
+   * The default amount of data buffered before a row group is written
+   */
+  public static final long DEFAULT_ROW_GROUP_SIZE = 64L * 1024 * 1024;
+
+  private static final int PAGE_SIZE = 1024 * 1024;
+
+  private static final byte[] MAGIC = { 'P', 'A', 'R', '1' };
+
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  // Parquet physical types
+  private static final int PARQUET_BOOLEAN = 0;
+  private static final int PARQUET_INT32 = 1;
+  private static final int PARQUET_INT64 = 2;
+  private static final int PARQUET_DOUBLE = 5;
+  private static final int PARQUET_BYTE_ARRAY = 6;
+
+  // Parquet converted types
+  private static final int CONVERTED_UTF8 = 0;
+  private static final int CONVERTED_DECIMAL = 5;
+  private static final int CONVERTED_DATE = 6;
+  private static final int CONVERTED_TIME_MILLIS = 7;
+  private static final int CONVERTED_TIMESTAMP_MILLIS = 9;
+
+  // Parquet logical types, the field ids of the LogicalType union
+  private static final int LOGICAL_TIMESTAMP = 8;
+
+  private static final int REPETITION_OPTIONAL = 1;
+  private static final int ENCODING_PLAIN = 0;
+  private static final int ENCODING_RLE = 3;
+  private static final int CODEC_GZIP = 2;
+  private static final int PAGE_TYPE_DATA = 0;
+
+  /**
+   * A column of the Parquet file
+   */
+  public static class Column {
+    private final String name;
+    private final int type;
+    private final int precision;
+    private final int scale;
+
+    /**
+     * @param name The column name, matched to the table column by name when loading
+     * @param type One of the TYPE_ constants
+     */
+    public Column( String name, int type ) {
+      this( name, type, 0, 0 );
+    }
+
+    /**
+     * @param name The column name, matched to the table column by name when loading
+     * @param type One of the TYPE_ constants
+     * @param precision The precision of a decimal column
+     * @param scale The scale of a decimal column
+     */
+    public Column( String name, int type, int precision, int scale ) {
+      this.name = name;
+      this.type = type;
+      this.precision = precision;
+      this.scale = scale;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getType() {
+      return type;
+    }
+
+    public int getPrecision() {
+      return precision;
+    }
+
+    public int getScale() {
+      return scale;
+    }
+  }
+
+  /**
+   * A growable byte buffer with little endian writes
+   */
+  private static class Buffer {
+    private byte[] bytes = new byte[1024];
+    private int length;
+
+    private void ensure( int extra ) {
+      if ( length + extra > bytes.length ) {
+        byte[] grown = new byte[Math.max( length + extra, bytes.length * 2 )];
+        System.arraycopy( bytes, 0, grown, 0, length );
+        bytes = grown;
+      }
+    }
+
+    private void write( int b ) {
+      ensure( 1 );
+      bytes[length++] = (byte) b;
+    }
+
+    private void write( byte[] b, int off, int len ) {
+      ensure( len );
+      System.arraycopy( b, off, bytes, length, len );
+      length += len;
+    }
+
+    private void writeInt( int value ) {
+      ensure( 4 );
+      bytes[length++] = (byte) value;
+      bytes[length++] = (byte) ( value >> 8 );
+      bytes[length++] = (byte) ( value >> 16 );
+      bytes[length++] = (byte) ( value >> 24 );
+    }
+
+    private void writeLong( long value ) {
+      writeInt( (int) value );
+      writeInt( (int) ( value >> 32 ) );
+    }
+
+    private void writeVarint( int value ) {
+      while ( ( value & ~0x7f ) != 0 ) {
+        write( ( value & 0x7f ) | 0x80 );
+        value >>>= 7;
+      }
+      write( value );
+    }
+  }
+
+  /**
+   * The metadata of a column chunk that has been written
+   */
+  private static class ChunkMeta {
+    private long offset;
+    private long values;
+    private long uncompressedSize;
+    private long compressedSize;
+  }
+
+  /**
+   * The metadata of a row group that has been written
+   */
+  private static class RowGroupMeta {
+    private ChunkMeta[] chunks;
+    private long rows;
+    private long totalByteSize;
+  }
+
+  /**
+   * Buffers the pages of one column for the current row group
+   */
+  private class ColumnWriter {
+    private final Column column;
+
+    // The page being built
+    private final Buffer values = new Buffer();
+    private final Buffer levels = new Buffer();
+    private int pageValues;
+    private int runLevel = -1;
+    private int runLength;
+    private int bits;
+    private int bitCount;
+
+    // The finished pages of the row group
+    private final Buffer chunk = new Buffer();
+    private long chunkValues;
+    private long chunkUncompressedSize;
+
+    private ColumnWriter( Column column ) {
+      this.column = column;
+    }
+
+    private void writeNull() throws IOException {
+      level( 0 );
+      valueWritten();
+    }
+
+    private void write( Object value ) throws IOException {
+      if ( value == null ) {
+        writeNull();
+        return;
+      }
+
+      level( 1 );
+      switch ( column.getType() ) {
+        case TYPE_BOOLEAN:
+          if ( (Boolean) value ) {
+            bits |= 1 << bitCount;
+          }
+          if ( ++bitCount == 8 ) {
+            flushBits();
+          }
+          break;
+        case TYPE_INTEGER:
+          values.writeLong( (Long) value );
+          break;
+        case TYPE_NUMBER:
+          values.writeLong( Double.doubleToLongBits( (Double) value ) );
+          break;
+        case TYPE_DECIMAL:
+          writeBytes( ( (BigDecimal) value ).setScale( column.getScale(), RoundingMode.HALF_UP )
+            .unscaledValue().toByteArray() );
+          break;
+        case TYPE_DATE:
+          values.writeInt( (int) localDay( (Date) value ) );
+          break;
+        case TYPE_TIME:
+          long local = localMillis( (Date) value );
+          values.writeInt( (int) ( local - localDay( (Date) value ) * MILLIS_PER_DAY ) );
+          break;
+        case TYPE_TIMESTAMP:
+          values.writeLong( localMillis( (Date) value ) );
+          break;
+        case TYPE_TIMESTAMP_TZ:
+          values.writeLong( ( (Date) value ).getTime() );
+          break;
+        case TYPE_BINARY:
+          writeBytes( (byte[]) value );
+          break;
+        default:
+          writeBytes( value.toString().getBytes( StandardCharsets.UTF_8 ) );
+          break;
+      }
+      valueWritten();
+    }
+
+    private void writeBytes( byte[] bytes ) {
+      values.writeInt( bytes.length );
+      values.write( bytes, 0, bytes.length );
+    }
+
+    private void valueWritten() throws IOException {
+      pageValues++;
+      if ( values.length >= PAGE_SIZE ) {
+        finishPage();
+      }
+    }
+
+    /**
+     * Adds a definition level, run length encoding repeated levels
+     */
+    private void level( int level ) {
+      if ( level != runLevel ) {
+        flushRun();
+        runLevel = level;
+      }
+      runLength++;
+    }
+
+    private void flushRun() {
+      if ( runLength > 0 ) {
+        levels.writeVarint( runLength << 1 );
+        levels.write( runLevel );
+      }
+      runLength = 0;
+    }
+
+    private void flushBits() {
+      if ( bitCount > 0 ) {
+        values.write( bits );
+      }
+      bits = 0;
+      bitCount = 0;
+    }
+
+    /**
+     * Compresses the page being built and adds it to the column chunk
+     */
+    private void finishPage() throws IOException {
+      if ( pageValues == 0 ) {
+        return;
+      }
+      flushRun();
+      flushBits();
+
+      long compressStart = System.nanoTime();
+      int uncompressedSize = compressPage( levels, values );
+      if ( metrics != null ) {
+        metrics.addCompress( uncompressedSize, System.nanoTime() - compressStart );
+      }
+
+      thrift.reset();
+      thrift.structBegin();
+      thrift.i32Field( 1, PAGE_TYPE_DATA );
+      thrift.i32Field( 2, uncompressedSize );
+      thrift.i32Field( 3, page.length );
+      thrift.structFieldBegin( 5 );
+      thrift.i32Field( 1, pageValues );
+      thrift.i32Field( 2, ENCODING_PLAIN );
+      thrift.i32Field( 3, ENCODING_RLE );
+      thrift.i32Field( 4, ENCODING_RLE );
+      thrift.structEnd();
+      thrift.structEnd();
+      byte[] header = thrift.toByteArray();
+
+      chunk.write( header, 0, header.length );
+      chunk.write( page.bytes, 0, page.length );
+      chunkValues += pageValues;
+      chunkUncompressedSize += header.length + uncompressedSize;
+
+      values.length = 0;
+      levels.length = 0;
+      pageValues = 0;
+      runLevel = -1;
+    }
+
+    private long bufferedSize() {
+      return chunk.length + values.length + levels.length;
+    }
+  }
+
+  private final OutputStream out;
+  private final Column[] columns;
+  private final ColumnWriter[] writers;
+  private final long rowGroupSize;
+  private final TimeZone timeZone;
+
+  // Where the time spent compressing pages is added, null to not time it
+  private final SnowflakeLoadMetrics metrics;
+
+  // Where the Deflaters compressing pages come from, null to allocate one per page
+  private final SnowflakeStreamPool pool;
+
+  // Reused when building pages and headers
+  private final Buffer page = new Buffer();
+  private final CRC32 crc = new CRC32();
+  private final ThriftCompactOutput thrift = new ThriftCompactOutput();
+
+  private final List<RowGroupMeta> rowGroups = new ArrayList<>();
+  private long position;
+  private long rowGroupRows;
+  private long totalRows;
+
+  /**
+   * @param out The stream to write the file to
+   * @param columns The columns of the file
+   * @throws IOException
+   */
+  public SnowflakeParquetWriter( OutputStream out, Column[] columns ) throws IOException {
+    this( out, columns, DEFAULT_ROW_GROUP_SIZE );
+  }
+
+  /**
+   * @param out The stream to write the file to
+   * @param columns The columns of the file
+   * @param rowGroupSize The amount of data buffered before a row group is written
+   * @throws IOException
+   */
+  public SnowflakeParquetWriter( OutputStream out, Column[] columns, long rowGroupSize ) throws IOException {
+    this( out, columns, rowGroupSize, null );
+  }
+
+  /**
+   * @param out The stream to write the file to
+   * @param columns The columns of the file
+   * @param rowGroupSize The amount of data buffered before a row group is written
+   * @param metrics The load metrics the time spent compressing pages is added to, null to not time it
+   * @throws IOException
+   */
+  public SnowflakeParquetWriter( OutputStream out, Column[] columns, long rowGroupSize, SnowflakeLoadMetrics metrics )
+    throws IOException {
+    this( out, columns, rowGroupSize, metrics, null );
+  }
+
+  /**
+   * @param out The stream to write the file to
+   * @param columns The columns of the file
+   * @param rowGroupSize The amount of data buffered before a row group is written
+   * @param metrics The load metrics the time spent compressing pages is added to, null to not time it
+   * @param pool The pool to take the Deflaters compressing pages from, null to allocate one for each page
+   * @throws IOException
+   */
+  public SnowflakeParquetWriter( OutputStream out, Column[] columns, long rowGroupSize, SnowflakeLoadMetrics metrics,
+                                 SnowflakeStreamPool pool ) throws IOException {
+    this.out = out;
+    this.metrics = metrics;
+    this.pool = pool;
+    this.columns = columns;
+    this.rowGroupSize = rowGroupSize;
+    this.timeZone = TimeZone.getDefault();
+    this.writers = new ColumnWriter[columns.length];
+    for ( int i = 0; i < columns.length; i++ ) {
+      writers[i] = new ColumnWriter( columns[i] );
+    }
+
+    out.write( MAGIC );
+    position = MAGIC.length;
+  }
+
+  /**
+   * @return The columns of the file
+   */
+  public Column[] getColumns() {
+    return columns;
+  }
+
+  /**
+   * Writes a value for a column of the current row.  Every column must be written once per row, followed by endRow.
+   * @param column The column index
+   * @param value The value, or null.  Must be a String, Boolean, Long, Double, BigDecimal, Date or byte[] matching
+   * the column type.
+   * @throws IOException
+   */
+  public void write( int column, Object value ) throws IOException {
+    writers[column].write( value );
+  }
+
+  /**
+   * Ends the current row, writing out the row group if it has reached its target size
+   * @throws IOException
+   */
+  public void endRow() throws IOException {
+    rowGroupRows++;
+    totalRows++;
+
+    // Checking the size is cheap, but there's no need to do it on every row
+    if ( ( rowGroupRows & 0x3ff ) == 0 ) {
+      long size = 0;
+      for ( ColumnWriter writer : writers ) {
+        size += writer.bufferedSize();
+      }
+      if ( size >= rowGroupSize ) {
+        writeRowGroup();
+      }
+    }
+  }
+
+  /**
+   * Writes out any buffered rows and the file footer.  The underlying stream is flushed but not closed.
+   * @throws IOException
+   */
+  public void finish() throws IOException {
+    if ( rowGroupRows > 0 ) {
+      writeRowGroup();
+    }
+
+    byte[] footer = buildFooter();
+    out.write( footer );
+    out.write( new byte[] { (byte) footer.length, (byte) ( footer.length >> 8 ), (byte) ( footer.length >> 16 ),
+      (byte) ( footer.length >> 24 ) } );
+    out.write( MAGIC );
+    out.flush();
+  }
+
+  /**
+   * Compresses a page, the length of its definition levels followed by the levels and the values, into a single gzip
+   * member in the page buffer.
+   * @param levels The definition levels of the page
+   * @param values The values of the page
+   * @return The uncompressed size of the page
+   */
+  private int compressPage( Buffer levels, Buffer values ) {
+    page.length = 0;
+    page.write( GZIP_HEADER, 0, GZIP_HEADER.length );
+    byte[] levelLength = new byte[] { (byte) levels.length, (byte) ( levels.length >> 8 ),
+      (byte) ( levels.length >> 16 ), (byte) ( levels.length >> 24 ) };
+    crc.reset();
+
+    Deflater deflater = pool == null ? new Deflater( Deflater.DEFAULT_COMPRESSION, true ) : pool.takeDeflater();
+    try {
+      deflate( deflater, levelLength, levelLength.length );
+      deflate( deflater, levels.bytes, levels.length );
+      deflate( deflater, values.bytes, values.length );
+      deflater.finish();
+      while ( !deflater.finished() ) {
+        page.ensure( PAGE_SIZE / 16 );
+        page.length += deflater.deflate( page.bytes, page.length, page.bytes.length - page.length );
+      }
+    } finally {
+      if ( pool == null ) {
+        deflater.end();
+      } else {
+        pool.releaseDeflater( deflater );
+      }
+    }
+
+    int uncompressedSize = levelLength.length + levels.length + values.length;
+    page.writeInt( (int) crc.getValue() );
+    page.writeInt( uncompressedSize );
+    return uncompressedSize;
+  }
+
+  private void deflate( Deflater deflater, byte[] input, int length ) {
+    crc.update( input, 0, length );
+    deflater.setInput( input, 0, length );
+    while ( !deflater.needsInput() ) {
+      page.ensure( PAGE_SIZE / 16 );
+      page.length += deflater.deflate( page.bytes, page.length, page.bytes.length - page.length );
+    }
+  }
+
+  private void writeRowGroup() throws IOException {
+    RowGroupMeta rowGroup = new RowGroupMeta();
+    rowGroup.chunks = new ChunkMeta[writers.length];
+    rowGroup.rows = rowGroupRows;
+
+    for ( int i = 0; i < writers.length; i++ ) {
+      ColumnWriter writer = writers[i];
+      writer.finishPage();
+
+      ChunkMeta chunk = new ChunkMeta();
+      chunk.offset = position;
+      chunk.values = writer.chunkValues;
+      chunk.uncompressedSize = writer.chunkUncompressedSize;
+      chunk.compressedSize = writer.chunk.length;
+      rowGroup.chunks[i] = chunk;
+      rowGroup.totalByteSize += chunk.uncompressedSize;
+
+      out.write( writer.chunk.bytes, 0, writer.chunk.length );
+      position += writer.chunk.length;
+
+      writer.chunk.length = 0;
+      writer.chunkValues = 0;
+      writer.chunkUncompressedSize = 0;
+    }
+
+    rowGroups.add( rowGroup );
+    rowGroupRows = 0;
+  }
+
+  /**
+   * @return The FileMetaData footer
+   */
+  private byte[] buildFooter() {
+    thrift.reset();
+    thrift.structBegin();
+    thrift.i32Field( 1, 1 );
+
+    // Schema, a root element followed by the columns
+    thrift.listFieldBegin( 2, ThriftCompactOutput.TYPE_STRUCT, columns.length + 1 );
+    thrift.structBegin();
+    thrift.stringField( 4, "schema" );
+    thrift.i32Field( 5, columns.length );
+    thrift.structEnd();
+    for ( Column column : columns ) {
+      thrift.structBegin();
+      thrift.i32Field( 1, physicalType( column ) );
+      thrift.i32Field( 3, REPETITION_OPTIONAL );
+      thrift.stringField( 4, column.getName() );
+      int convertedType = convertedType( column );
+      if ( convertedType >= 0 ) {
+        thrift.i32Field( 6, convertedType );
+      }
+      if ( column.getType() == TYPE_DECIMAL ) {
+        thrift.i32Field( 7, column.getScale() );
+        thrift.i32Field( 8, column.getPrecision() );
+      }
+      if ( column.getType() == TYPE_TIMESTAMP_TZ ) {
+        // TIMESTAMP(isAdjustedToUTC = true, unit = MILLIS), the instant rather than the wall clock time
+        thrift.structFieldBegin( 10 );
+        thrift.structFieldBegin( LOGICAL_TIMESTAMP );
+        thrift.boolField( 1, true );
+        thrift.structFieldBegin( 2 );
+        thrift.structFieldBegin( 1 );
+        thrift.structEnd();
+        thrift.structEnd();
+        thrift.structEnd();
+        thrift.structEnd();
+      }
+      thrift.structEnd();
+    }
+
+    thrift.i64Field( 3, totalRows );
+
+    thrift.listFieldBegin( 4, ThriftCompactOutput.TYPE_STRUCT, rowGroups.size() );
+    for ( RowGroupMeta rowGroup : rowGroups ) {
+      thrift.structBegin();
+      thrift.listFieldBegin( 1, ThriftCompactOutput.TYPE_STRUCT, columns.length );
+      for ( int i = 0; i < columns.length; i++ ) {
+        ChunkMeta chunk = rowGroup.chunks[i];
+        thrift.structBegin();
+        thrift.i64Field( 2, chunk.offset );
+        thrift.structFieldBegin( 3 );
+        thrift.i32Field( 1, physicalType( columns[i] ) );
+        thrift.listFieldBegin( 2, ThriftCompactOutput.TYPE_I32, 2 );
+        thrift.writeI32( ENCODING_PLAIN );
+        thrift.writeI32( ENCODING_RLE );
+        thrift.listFieldBegin( 3, ThriftCompactOutput.TYPE_BINARY, 1 );
+        thrift.writeString( columns[i].getName() );
+        thrift.i32Field( 4, CODEC_GZIP );
+        thrift.i64Field( 5, chunk.values );
+        thrift.i64Field( 6, chunk.uncompressedSize );
+        thrift.i64Field( 7, chunk.compressedSize );
+        thrift.i64Field( 9, chunk.offset );
+        thrift.structEnd();
+        thrift.structEnd();
+      }
+      thrift.i64Field( 2, rowGroup.totalByteSize );
+      thrift.i64Field( 3, rowGroup.rows );
+      thrift.structEnd();
+    }
+
+    thrift.stringField( 6, "Snowflake Bulk Loader" );
+    thrift.structEnd();
+    return thrift.toByteArray();
+  }
+
+  private static int physicalType( Column column ) {
+    switch ( column.getType() ) {
+      case TYPE_BOOLEAN:
+        return PARQUET_BOOLEAN;
+      case TYPE_INTEGER:
+      case TYPE_TIMESTAMP:
+      case TYPE_TIMESTAMP_TZ:
+        return PARQUET_INT64;
+      case TYPE_NUMBER:
+        return PARQUET_DOUBLE;
+      case TYPE_DATE:
+      case TYPE_TIME:
+        return PARQUET_INT32;
+      default:
+        return PARQUET_BYTE_ARRAY;
+    }
+  }
+
+  /**
+   * @return The converted type of the column, or -1 if there is none
+   */
+  private static int convertedType( Column column ) {
+    switch ( column.getType() ) {
+      case TYPE_STRING:
+        return CONVERTED_UTF8;
+      case TYPE_DECIMAL:
+        return CONVERTED_DECIMAL;
+      case TYPE_DATE:
+        return CONVERTED_DATE;
+      case TYPE_TIME:
+        return CONVERTED_TIME_MILLIS;
+      case TYPE_TIMESTAMP:
+      case TYPE_TIMESTAMP_TZ:
+        return CONVERTED_TIMESTAMP_MILLIS;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * @return The date as milliseconds since the epoch in local wall clock time
+   */
+  private long localMillis( Date date ) {
+    long millis = date.getTime();
+    return millis + timeZone.getOffset( millis );
+  }
+
+  /**
+   * @return The local day of the date as days since the epoch
+   */
+  private long localDay( Date date ) {
+    long local = localMillis( date );
+    long day = local / MILLIS_PER_DAY;
+    if ( local % MILLIS_PER_DAY < 0 ) {
+      day--;
+    }
+    return day;
+  }
+}
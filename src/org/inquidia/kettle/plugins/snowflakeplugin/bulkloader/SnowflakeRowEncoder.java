@@ -0,0 +1,196 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Encodes the rows written to the CSV and JSON temp files.  Kept apart from the step so the encoding can be
+ * exercised without a database connection.
+ *
+ * An encoder keeps state between calls and must only be used by one thread.
+ */
+public class SnowflakeRowEncoder {
+
+  private final SnowflakeCsvEncoder encoder;
+  private final SnowflakeDateWriter dateWriter = new SnowflakeDateWriter();
+  private final byte[] separator;
+  private final byte[] newline;
+  private final byte[] nullValue;
+
+  // The column plan used when writing specified fields, see SnowflakeBulkLoaderData
+  private int[] streamIndexes;
+  private ValueMetaInterface[] converters;
+  private ValueMetaInterface[] sources;
+  private int[] dateFormats;
+
+  /**
+   * @param separator The field separator
+   * @param enclosure The enclosure placed around values containing special characters
+   * @param escape The escape character written before enclosures and escapes within a value
+   * @param newline The record delimiter
+   * @param nullValue The bytes written for null values of specified fields
+   */
+  public SnowflakeRowEncoder( byte[] separator, byte[] enclosure, byte[] escape, byte[] newline, byte[] nullValue ) {
+    this.encoder = new SnowflakeCsvEncoder( separator, enclosure, escape );
+    this.separator = separator == null ? new byte[0] : separator;
+    this.newline = newline;
+    this.nullValue = nullValue;
+  }
+
+  /**
+   * Sets the column plan used by writeMappedRow.  There is one entry per table field, in table order.
+   * @param streamIndexes The index of the stream field for each table field, -1 if no stream field is mapped
+   * @param converters The type and format each value is written with
+   * @param sources The metadata of the stream fields
+   * @param dateFormats The SnowflakeDateWriter format of each table field, -1 if the field is not a date
+   */
+  public void setColumnPlan( int[] streamIndexes, ValueMetaInterface[] converters, ValueMetaInterface[] sources,
+                             int[] dateFormats ) {
+    this.streamIndexes = streamIndexes;
+    this.converters = converters;
+    this.sources = sources;
+    this.dateFormats = dateFormats;
+  }
+
+  /**
+   * Writes every field of the row as CSV, in stream order
+   * @param out The stream to write to
+   * @param rowMeta The metadata about the row
+   * @param row The row
+   * @throws KettleException
+   * @throws IOException
+   */
+  public void writeRow( OutputStream out, RowMetaInterface rowMeta, Object[] row ) throws KettleException,
+    IOException {
+    for ( int i = 0; i < rowMeta.size(); i++ ) {
+      if ( i > 0 && separator.length > 0 ) {
+        out.write( separator );
+      }
+
+      // no special null value default was specified since no fields are specified at all
+      // As such, we pass null
+      //
+      writeField( out, rowMeta.getValueMeta( i ), row[i], null );
+    }
+    out.write( newline );
+  }
+
+  /**
+   * Writes the fields of the row mapped to table fields as CSV, using the column plan
+   * @param out The stream to write to
+   * @param row The row
+   * @throws KettleException
+   * @throws IOException
+   */
+  public void writeMappedRow( OutputStream out, Object[] row ) throws KettleException, IOException {
+    for ( int i = 0; i < streamIndexes.length; i++ ) {
+      if ( i > 0 && separator.length > 0 ) {
+        out.write( separator );
+      }
+
+      ValueMetaInterface v = converters[i];
+      int fieldIndex = streamIndexes[i];
+      Object valueData = null;
+      if ( fieldIndex >= 0 ) {
+        valueData = v.convertData( sources[i], row[fieldIndex] );
+      }
+
+      // Dates are written directly, falling back to the conversion mask for dates the date writer can't handle
+      if ( valueData == null || dateFormats[i] < 0 || !dateWriter.write( out, (Date) valueData, dateFormats[i] ) ) {
+        writeField( out, v, valueData, nullValue );
+      }
+    }
+    out.write( newline );
+  }
+
+  /**
+   * Writes a JSON document from a field of the row.  When the field still holds the bytes read from the input, as
+   * with lazy conversion, they are written as is instead of being decoded to a string and encoded again.
+   * @param out The stream to write to
+   * @param rowMeta The metadata about the row
+   * @param row The row
+   * @param jsonField The index of the field holding the document
+   * @throws KettleException
+   * @throws IOException
+   */
+  public void writeJson( OutputStream out, RowMetaInterface rowMeta, Object[] row, int jsonField )
+    throws KettleException, IOException {
+    ValueMetaInterface v = rowMeta.getValueMeta( jsonField );
+    Object valueData = row[jsonField];
+    if ( valueData instanceof byte[] && v.isString() && v.isStorageBinaryString() && isUnconverted( v ) ) {
+      out.write( (byte[]) valueData );
+    } else {
+      out.write( v.getString( valueData ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+    out.write( newline );
+  }
+
+  /**
+   * @return True if the binary string storage of a string field can be written without converting it
+   */
+  private static boolean isUnconverted( ValueMetaInterface v ) {
+    return v.getTrimType() == ValueMetaInterface.TRIM_TYPE_NONE && v.getLength() < 0
+      && Const.isEmpty( v.getStringEncoding() );
+  }
+
+  /**
+   * Writes an individual field.  Strings are encoded straight into the file buffer by the CSV encoder, other types
+   * use their binary string.
+   * @param out The stream to write to
+   * @param v The metadata about the column
+   * @param valueData The data for the column
+   * @param nullString The bytes to write if the value is null
+   * @throws KettleStepException
+   */
+  private void writeField( OutputStream out, ValueMetaInterface v, Object valueData, byte[] nullString )
+    throws KettleStepException {
+    try {
+      // First check whether or not we have a null string set
+      // These values should be set when a null value passes
+      //
+      if ( nullString != null && v.isNull( valueData ) ) {
+        encoder.writeBytes( out, nullString, v.isString() );
+      } else if ( v.isString() ) {
+        if ( v.isStorageBinaryString() && isUnconverted( v ) ) {
+          encoder.writeBytes( out, (byte[]) valueData, true );
+        } else {
+          String svalue = ( valueData instanceof String ) ? (String) valueData : v.getString( valueData );
+
+          // trim or cut to size if needed.
+          //
+          encoder.writeString( out, Const.trimToType( svalue, v.getTrimType() ), v.getLength() );
+        }
+      } else {
+        encoder.writeBytes( out, v.getBinaryString( valueData ), false );
+      }
+    } catch ( Exception e ) {
+      throw new KettleStepException( "Error writing field content to file", e );
+    }
+  }
+}
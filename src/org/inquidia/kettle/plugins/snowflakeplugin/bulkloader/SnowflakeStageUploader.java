@@ -0,0 +1,236 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts temp files to the Snowflake stage in the background while the step keeps writing rows.  Each file is handed
+ * off as soon as it is closed.  The number of files waiting to be put is bounded, so the step blocks when the
+ * uploads fall behind instead of filling the work directory.
+ *
+ * Files can be put on several connections at once, each upload thread using its own connection.
+ */
+public class SnowflakeStageUploader {
+
+  private final SnowflakeBulkLoader step;
+  private final DatabaseMeta databaseMeta;
+
+  // Limits the number of files queued or being put at any one time
+  private final Semaphore inFlight;
+  private final int maxInFlightFiles;
+
+  private final ExecutorService executor;
+
+  // Connections not in use by an upload thread.  Connections are opened on first use, at most one per thread.
+  private final BlockingQueue<Database> idle = new LinkedBlockingQueue<>();
+
+  // Every connection opened, so they can all be closed
+  private final List<Database> connections = new ArrayList<>();
+
+  // The first error encountered by the upload thread, reported back to the step
+  private volatile Exception error;
+
+  /**
+   * @param step The step the files are being uploaded for
+   * @param databaseMeta The connection to use when putting the files
+   * @param uploadThreads The number of files to put at the same time, each on its own connection
+   * @param maxInFlightFiles The maximum number of files that may be waiting to be put
+   */
+  public SnowflakeStageUploader( SnowflakeBulkLoader step, DatabaseMeta databaseMeta, int uploadThreads,
+                                 int maxInFlightFiles ) {
+    this.step = step;
+    this.databaseMeta = databaseMeta;
+    this.maxInFlightFiles = Math.max( 1, maxInFlightFiles );
+    this.inFlight = new Semaphore( this.maxInFlightFiles );
+    this.executor = Executors.newFixedThreadPool( Math.max( 1, uploadThreads ), new ThreadFactory() {
+      @Override
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, SnowflakeStageUploader.this.step.getStepname() + " - stage uploader" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+  }
+
+  /**
+   * Queues a closed temp file to be put to the stage.  Blocks while the maximum number of files are in flight.
+   * @param filename The local file to put
+   * @throws KettleException An earlier upload failed, or the step was interrupted while waiting
+   */
+  public void submit( String filename ) throws KettleException {
+    submit( filename, null );
+  }
+
+  /**
+   * Queues a closed file to be uploaded to the stage.  Blocks while the maximum number of files are in flight.
+   * @param filename The name of the file to upload
+   * @param memoryFile The contents of the file when it is streamed from memory, released once it is uploaded.
+   * Null to put the local file.
+   * @throws KettleException An earlier upload failed, or the step was interrupted while waiting
+   */
+  public void submit( final String filename, final SnowflakeMemoryFile memoryFile ) throws KettleException {
+    try {
+      checkError();
+      inFlight.acquire();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      releaseMemory( memoryFile );
+      throw new KettleException( "Interrupted while waiting to upload file " + filename, e );
+    } catch ( KettleException e ) {
+      releaseMemory( memoryFile );
+      throw e;
+    }
+
+    executor.execute( new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if ( error == null ) {
+            Database db = getConnection();
+            try {
+              if ( memoryFile != null ) {
+                step.uploadStream( db, filename, memoryFile );
+              } else {
+                step.putFiles( db, filename );
+              }
+              step.fileStaged( filename );
+            } finally {
+              idle.offer( db );
+            }
+          }
+        } catch ( Exception e ) {
+          if ( error == null ) {
+            error = e;
+          }
+        } finally {
+          releaseMemory( memoryFile );
+          inFlight.release();
+        }
+      }
+    } );
+  }
+
+  /**
+   * Waits for the files submitted so far to finish uploading, keeping the upload connections open for more files.
+   * @throws KettleException One of the uploads failed
+   */
+  public void awaitUploads() throws KettleException {
+    try {
+      // Every permit is free once no file is queued or being put
+      while ( !inFlight.tryAcquire( maxInFlightFiles, 1, TimeUnit.SECONDS ) ) {
+        if ( step.isStopped() ) {
+          throw new KettleException( "Step stopped while waiting for files to be uploaded" );
+        }
+      }
+      inFlight.release( maxInFlightFiles );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( "Interrupted while waiting for files to be uploaded", e );
+    }
+    checkError();
+  }
+
+  /**
+   * Waits for all submitted files to finish uploading.
+   * @throws KettleException One of the uploads failed
+   */
+  public void finish() throws KettleException {
+    executor.shutdown();
+    try {
+      while ( !executor.awaitTermination( 1, TimeUnit.SECONDS ) ) {
+        if ( step.isStopped() ) {
+          executor.shutdownNow();
+          throw new KettleException( "Step stopped while waiting for files to be uploaded" );
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( "Interrupted while waiting for files to be uploaded", e );
+    } finally {
+      disconnect();
+    }
+    checkError();
+  }
+
+  /**
+   * Stops any pending uploads and closes the upload connection.
+   */
+  public void dispose() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination( 30, TimeUnit.SECONDS );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+    disconnect();
+  }
+
+  private void checkError() throws KettleException {
+    if ( error != null ) {
+      throw new KettleException( "Error uploading file to Snowflake stage", error );
+    }
+  }
+
+  /**
+   * Only called from the upload threads.  The connection must be returned to the idle queue when the put is done.
+   * @return A connection to put files on
+   * @throws KettleException
+   */
+  private Database getConnection() throws KettleException {
+    Database db = idle.poll();
+    if ( db == null ) {
+      db = new Database( step, databaseMeta );
+      db.shareVariablesWith( step );
+      db.connect();
+      synchronized ( connections ) {
+        connections.add( db );
+      }
+    }
+    return db;
+  }
+
+  private static void releaseMemory( SnowflakeMemoryFile memoryFile ) {
+    if ( memoryFile != null ) {
+      memoryFile.release();
+    }
+  }
+
+  private void disconnect() {
+    synchronized ( connections ) {
+      for ( Database db : connections ) {
+        db.disconnect();
+      }
+      connections.clear();
+      idle.clear();
+    }
+  }
+}
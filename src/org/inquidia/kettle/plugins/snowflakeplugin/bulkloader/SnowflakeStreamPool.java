@@ -0,0 +1,206 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps the buffers and Deflaters used to write temp files, so they are reused between files and between copies of
+ * the step instead of being allocated for every file.  One pool is shared by every bulk loader in the JVM.
+ *
+ * The pool never blocks.  Taking from an empty pool allocates a new buffer or Deflater, and anything released while
+ * the pool holds its maximum memory is dropped rather than kept, so the memory held by idle buffers is bounded.  The
+ * memory in use is not: it grows with the files open at once, their compression threads and the step copies, and a
+ * writer waiting for a buffer held by another could otherwise deadlock.
+ *
+ * Steps sharing the pool reserve the memory they are configured with while they run.  The maximum is the largest
+ * reservation still held, or the size the pool was created with, so it shrinks back when the steps asking for more
+ * memory are disposed.
+ */
+public class SnowflakeStreamPool {
+
+  /**
+   * The default maximum memory held by idle buffers and Deflaters
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  // The approximate native memory held by a Deflater at the default compression level
+  private static final int DEFLATER_BYTES = 256 * 1024;
+
+  private static final SnowflakeStreamPool INSTANCE = new SnowflakeStreamPool( DEFAULT_MAX_BYTES );
+
+  // Idle buffers, by size
+  private final Map<Integer, Deque<byte[]>> buffers = new HashMap<>();
+
+  // Idle Deflaters, all writing raw deflate data without a zlib wrapper
+  private final Deque<Deflater> deflaters = new ArrayDeque<>();
+
+  // The maximum when no step holds a reservation
+  private final long baseMaxBytes;
+
+  // The number of steps holding each reservation, by the bytes reserved
+  private final TreeMap<Long, Integer> reservations = new TreeMap<>();
+
+  private long maxBytes;
+
+  // The memory held by idle buffers and Deflaters
+  private long heldBytes;
+
+  /**
+   * @param maxBytes The maximum memory held by idle buffers and Deflaters
+   */
+  public SnowflakeStreamPool( long maxBytes ) {
+    this.baseMaxBytes = maxBytes;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return The pool shared by every bulk loader in the JVM
+   */
+  public static SnowflakeStreamPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Reserves memory for a step, raising the maximum memory held by the pool while the reservation is held.  Each
+   * reservation must be released once, with release, when the step is disposed.
+   * @param bytes The maximum memory the step wants the pool to hold
+   */
+  public synchronized void reserve( long bytes ) {
+    Integer count = reservations.get( bytes );
+    reservations.put( bytes, count == null ? 1 : count + 1 );
+    updateMaxBytes();
+  }
+
+  /**
+   * Releases a reservation made with reserve.  When it was the largest, the maximum falls to the next largest and
+   * idle buffers and Deflaters over it are dropped.
+   * @param bytes The bytes that were reserved
+   */
+  public synchronized void release( long bytes ) {
+    Integer count = reservations.get( bytes );
+    if ( count == null ) {
+      return;
+    }
+    if ( count == 1 ) {
+      reservations.remove( bytes );
+    } else {
+      reservations.put( bytes, count - 1 );
+    }
+    updateMaxBytes();
+  }
+
+  /**
+   * @return The maximum memory held by idle buffers and Deflaters
+   */
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return The memory held by idle buffers and Deflaters
+   */
+  public synchronized long getHeldBytes() {
+    return heldBytes;
+  }
+
+  private void updateMaxBytes() {
+    maxBytes = reservations.isEmpty() ? baseMaxBytes : Math.max( baseMaxBytes, reservations.lastKey() );
+
+    // Drop what no longer fits, Deflaters first as they hold native memory
+    while ( heldBytes > maxBytes && !deflaters.isEmpty() ) {
+      deflaters.pollFirst().end();
+      heldBytes -= DEFLATER_BYTES;
+    }
+    Iterator<Deque<byte[]>> idle = buffers.values().iterator();
+    while ( heldBytes > maxBytes && idle.hasNext() ) {
+      Deque<byte[]> sized = idle.next();
+      while ( heldBytes > maxBytes && !sized.isEmpty() ) {
+        heldBytes -= sized.pollFirst().length;
+      }
+      if ( sized.isEmpty() ) {
+        idle.remove();
+      }
+    }
+  }
+
+  /**
+   * @param size The size of the buffer
+   * @return An idle buffer of the size, or a new one.  Its contents are undefined.
+   */
+  public synchronized byte[] takeBuffer( int size ) {
+    Deque<byte[]> idle = buffers.get( size );
+    byte[] buffer = idle == null ? null : idle.pollFirst();
+    if ( buffer == null ) {
+      return new byte[size];
+    }
+    heldBytes -= size;
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool.  The buffer must not be used afterwards.
+   * @param buffer The buffer, null is ignored
+   */
+  public synchronized void releaseBuffer( byte[] buffer ) {
+    if ( buffer == null || heldBytes + buffer.length > maxBytes ) {
+      return;
+    }
+    Deque<byte[]> idle = buffers.get( buffer.length );
+    if ( idle == null ) {
+      idle = new ArrayDeque<>();
+      buffers.put( buffer.length, idle );
+    }
+    idle.addFirst( buffer );
+    heldBytes += buffer.length;
+  }
+
+  /**
+   * @return An idle Deflater, or a new one, writing raw deflate data at the default compression level
+   */
+  public synchronized Deflater takeDeflater() {
+    Deflater deflater = deflaters.pollFirst();
+    if ( deflater == null ) {
+      return new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+    }
+    heldBytes -= DEFLATER_BYTES;
+    return deflater;
+  }
+
+  /**
+   * Resets a Deflater and returns it to the pool, or ends it when the pool is full.  The Deflater must not be used
+   * afterwards.
+   * @param deflater The Deflater taken from the pool
+   */
+  public synchronized void releaseDeflater( Deflater deflater ) {
+    if ( heldBytes + DEFLATER_BYTES > maxBytes ) {
+      deflater.end();
+      return;
+    }
+    deflater.reset();
+    deflaters.addFirst( deflater );
+    heldBytes += DEFLATER_BYTES;
+  }
+}
@@ -0,0 +1,189 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the columns of target tables, as returned by a desc table, so the step copies and the dialog don't each
+ * describe the table again.  One cache is shared by every bulk loader in the JVM, and entries expire after the time
+ * to live the step is configured with.
+ *
+ * Tables are keyed by the connection's host, database and user, and the schema and table names.  When several step
+ * copies ask for a table that is not cached, one of them describes it and the rest wait for its result.
+ */
+public class SnowflakeTableCache {
+
+  private static final SnowflakeTableCache INSTANCE = new SnowflakeTableCache();
+
+  // The cached tables, by key
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  // One lock per key, held while the table is described
+  private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+
+  /**
+   * @return The cache shared by every bulk loader in the JVM
+   */
+  public static SnowflakeTableCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Builds the key a table is cached under
+   * @param databaseMeta The connection to the database
+   * @param schema The schema of the table, variables already substituted
+   * @param table The name of the table, variables already substituted
+   * @return The key of the table
+   */
+  public static String getKey( DatabaseMeta databaseMeta, String schema, String table ) {
+    return databaseMeta.environmentSubstitute( databaseMeta.getHostname() ) + "|"
+      + databaseMeta.environmentSubstitute( databaseMeta.getDatabaseName() ) + "|"
+      + databaseMeta.environmentSubstitute( databaseMeta.getUsername() ) + "|"
+      + Const.NVL( schema, "" ) + "|" + Const.NVL( table, "" );
+  }
+
+  /**
+   * Gets the columns of a table, describing it if it is not cached or its entry has expired
+   * @param key The key of the table, from getKey
+   * @param ttlMillis How long the columns are kept, 0 or less to describe the table without caching it
+   * @param loader Describes the table when it is not cached
+   * @return The columns of the table, each the name in upper case and the Snowflake data type
+   * @throws KettleException The table could not be described
+   */
+  public List<String[]> getColumns( String key, long ttlMillis, Loader loader ) throws KettleException {
+    if ( ttlMillis <= 0 ) {
+      entries.remove( key );
+      return loader.load();
+    }
+
+    Entry entry = entries.get( key );
+    if ( entry != null && !entry.isExpired() ) {
+      return entry.columns;
+    }
+
+    Object lock = locks.computeIfAbsent( key, k -> new Object() );
+    synchronized ( lock ) {
+      // Another step copy may have described the table while this one waited
+      entry = entries.get( key );
+      if ( entry == null || entry.isExpired() ) {
+        entry = new Entry( Collections.unmodifiableList( loader.load() ), System.currentTimeMillis() + ttlMillis );
+        entries.put( key, entry );
+      }
+      return entry.columns;
+    }
+  }
+
+  /**
+   * Removes a table from the cache, so it is described again the next time it is used
+   * @param key The key of the table, from getKey
+   */
+  public void invalidate( String key ) {
+    entries.remove( key );
+  }
+
+  /**
+   * Removes every table from the cache
+   */
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+   * Runs a desc table to get the fields, and field types from the database.  Uses a desc table as opposed
+   * to the select * from table limit 0 that Pentaho normally uses to get the fields and types, due to the need
+   * to handle the Time type.  The select * method through Pentaho does not give us the ability to differentiate
+   * time from timestamp.
+   * @param db The connected database
+   * @param schema The schema of the table, empty for the default schema of the connection
+   * @param table The name of the table
+   * @return The columns of the table, each the name in upper case and the Snowflake data type
+   * @throws KettleException
+   */
+  public static List<String[]> describeTable( Database db, String schema, String table ) throws KettleException {
+    List<String[]> columns = new ArrayList<>();
+    String SQL = "desc table ";
+    if ( !Const.isEmpty( schema ) ) {
+      SQL += schema + ".";
+    }
+    SQL += table;
+    try {
+      ResultSet resultSet = db.openQuery( SQL, null, null, ResultSet.FETCH_FORWARD, false );
+
+      RowMetaInterface rowMeta = db.getReturnRowMeta();
+      int nameField = rowMeta.indexOfValue( "NAME" );
+      int typeField = rowMeta.indexOfValue( "TYPE" );
+      if ( nameField < 0 || typeField < 0 ) {
+        throw new KettleException( "Unable to get database fields" );
+      }
+
+      Object[] row = db.getRow( resultSet );
+      if ( row == null ) {
+        throw new KettleException( "No fields found in table" );
+      }
+      while ( row != null ) {
+        String[] field = new String[2];
+        field[0] = rowMeta.getString( row, nameField ).toUpperCase();
+        field[1] = rowMeta.getString( row, typeField );
+        columns.add( field );
+        row = db.getRow( resultSet );
+      }
+      db.closeQuery( resultSet );
+    } catch ( Exception ex ) {
+      throw new KettleException( "Error getting database fields", ex );
+    }
+    return columns;
+  }
+
+  /**
+   * Describes a table that is not cached
+   */
+  public interface Loader {
+    /**
+     * @return The columns of the table, each the name in upper case and the Snowflake data type
+     * @throws KettleException
+     */
+    List<String[]> load() throws KettleException;
+  }
+
+  private static class Entry {
+    private final List<String[]> columns;
+    private final long expires;
+
+    private Entry( List<String[]> columns, long expires ) {
+      this.columns = columns;
+      this.expires = expires;
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() >= expires;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.pentaho.di.core.exception.KettleException;
+
+import java.util.List;
+
+/**
+ * Registers staged files with a Snowflake pipe and reports on their loading.  The step uses SnowpipeRestClient,
+ * another client can be used by overriding SnowflakeBulkLoader.createSnowpipeClient, for example to load against a
+ * local stand-in for the Snowpipe service.
+ */
+public interface SnowpipeClient {
+
+  /**
+   * Asks the pipe to load files from its stage
+   * @param paths The paths of the files, relative to the stage location of the pipe
+   * @throws KettleException
+   */
+  void insertFiles( List<String> paths ) throws KettleException;
+
+  /**
+   * Gets the load history of the pipe
+   * @param startTime The earliest time, in milliseconds since the epoch, files were received by the pipe
+   * @return The files received by the pipe since the start time, and how far their loading has progressed
+   * @throws KettleException
+   */
+  List<FileLoad> loadHistory( long startTime ) throws KettleException;
+
+  /**
+   * The loading of a file by the pipe
+   */
+  class FileLoad {
+    public static final String STATUS_LOADED = "LOADED";
+    public static final String STATUS_LOAD_FAILED = "LOAD_FAILED";
+    public static final String STATUS_PARTIALLY_LOADED = "PARTIALLY_LOADED";
+
+    private final String path;
+    private final String status;
+    private final boolean complete;
+    private final long rowsInserted;
+    private final long errorsSeen;
+    private final String firstError;
+
+    /**
+     * @param path The path of the file, relative to the stage location of the pipe
+     * @param status The load status, LOADED, LOAD_FAILED or PARTIALLY_LOADED
+     * @param complete Has the pipe finished with the file
+     * @param rowsInserted The number of rows loaded from the file
+     * @param errorsSeen The number of rows of the file that could not be loaded
+     * @param firstError The first error seen loading the file, null if there was none
+     */
+    public FileLoad( String path, String status, boolean complete, long rowsInserted, long errorsSeen,
+                     String firstError ) {
+      this.path = path;
+      this.status = status;
+      this.complete = complete;
+      this.rowsInserted = rowsInserted;
+      this.errorsSeen = errorsSeen;
+      this.firstError = firstError;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public String getStatus() {
+      return status;
+    }
+
+    public boolean isComplete() {
+      return complete;
+    }
+
+    public long getRowsInserted() {
+      return rowsInserted;
+    }
+
+    public long getErrorsSeen() {
+      return errorsSeen;
+    }
+
+    public String getFirstError() {
+      return firstError;
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.pentaho.di.core.exception.KettleException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Calls the Snowpipe REST API: insertFiles to register staged files with a pipe, and loadHistoryScan to follow
+ * their loading.  Requests are authenticated with a JWT signed by the private key of a Snowflake user set up for
+ * key pair authentication.
+ *
+ * The base URL can be pointed at a local stand-in for the Snowpipe service, which sees the same requests.
+ */
+public class SnowpipeRestClient implements SnowpipeClient {
+
+  private static final int CONNECT_TIMEOUT = 30000;
+  private static final int READ_TIMEOUT = 60000;
+
+  // Snowflake accepts tokens for up to an hour, a new one is signed a few minutes before it expires
+  private static final long TOKEN_LIFETIME = 59 * 60 * 1000L;
+  private static final long TOKEN_RENEWAL = 5 * 60 * 1000L;
+
+  private final String baseUrl;
+  private final String pipeName;
+  private final String account;
+  private final String user;
+  private final RSAPrivateCrtKey privateKey;
+  private final String publicKeyFingerprint;
+
+  private String token;
+  private long tokenExpires;
+
+  /**
+   * @param baseUrl The URL of the Snowflake account, for example https://myaccount.snowflakecomputing.com
+   * @param pipeName The fully qualified name of the pipe, database.schema.pipe
+   * @param account The account name, used to identify the user in the JWT
+   * @param user The user the private key belongs to
+   * @param privateKeyPem The unencrypted PKCS#8 private key of the user, in PEM format
+   * @throws KettleException The private key could not be read
+   */
+  public SnowpipeRestClient( String baseUrl, String pipeName, String account, String user, String privateKeyPem )
+    throws KettleException {
+    this.baseUrl = baseUrl.endsWith( "/" ) ? baseUrl.substring( 0, baseUrl.length() - 1 ) : baseUrl;
+    this.pipeName = pipeName;
+    this.account = account.toUpperCase();
+    this.user = user.toUpperCase();
+    try {
+      String base64 = privateKeyPem.replaceAll( "-----[A-Z ]+-----", "" ).replaceAll( "\\s", "" );
+      KeyFactory keyFactory = KeyFactory.getInstance( "RSA" );
+      this.privateKey = (RSAPrivateCrtKey) keyFactory.generatePrivate(
+        new PKCS8EncodedKeySpec( Base64.getDecoder().decode( base64 ) ) );
+      PublicKey publicKey = keyFactory.generatePublic(
+        new RSAPublicKeySpec( privateKey.getModulus(), privateKey.getPublicExponent() ) );
+      this.publicKeyFingerprint = "SHA256:" + Base64.getEncoder().encodeToString(
+        MessageDigest.getInstance( "SHA-256" ).digest( publicKey.getEncoded() ) );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to read the private key, it must be an unencrypted PKCS#8 RSA key", e );
+    }
+  }
+
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public void insertFiles( List<String> paths ) throws KettleException {
+    JSONArray files = new JSONArray();
+    for ( String path : paths ) {
+      JSONObject file = new JSONObject();
+      file.put( "path", path );
+      files.add( file );
+    }
+    JSONObject body = new JSONObject();
+    body.put( "files", files );
+
+    JSONObject response = request( "POST", "insertFiles?requestId=" + UUID.randomUUID(), body.toJSONString() );
+    if ( !"SUCCESS".equalsIgnoreCase( String.valueOf( response.get( "responseCode" ) ) ) ) {
+      throw new KettleException( "Snowpipe did not accept the files: " + response.toJSONString() );
+    }
+  }
+
+  @Override
+  public List<FileLoad> loadHistory( long startTime ) throws KettleException {
+    SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" );
+    format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+    JSONObject response;
+    try {
+      response = request( "GET", "loadHistoryScan?requestId=" + UUID.randomUUID() + "&startTimeInclusive="
+        + URLEncoder.encode( format.format( new Date( startTime ) ), "UTF-8" ), null );
+    } catch ( IOException e ) {
+      throw new KettleException( "Unable to build the load history request", e );
+    }
+
+    List<FileLoad> loads = new ArrayList<>();
+    JSONArray files = (JSONArray) response.get( "files" );
+    if ( files != null ) {
+      for ( Object item : files ) {
+        JSONObject file = (JSONObject) item;
+        loads.add( new FileLoad( (String) file.get( "path" ), (String) file.get( "status" ),
+          Boolean.TRUE.equals( file.get( "complete" ) ), toLong( file.get( "rowsInserted" ) ),
+          toLong( file.get( "errorsSeen" ) ), (String) file.get( "firstError" ) ) );
+      }
+    }
+    return loads;
+  }
+
+  /**
+   * Sends a request to the pipe
+   * @param method The HTTP method
+   * @param endpoint The endpoint and query string, relative to the URL of the pipe
+   * @param body The JSON body to send, null for none
+   * @return The JSON response
+   * @throws KettleException
+   */
+  private JSONObject request( String method, String endpoint, String body ) throws KettleException {
+    String url = baseUrl + "/v1/data/pipes/" + pipeName + "/" + endpoint;
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL( url ).openConnection();
+      connection.setConnectTimeout( CONNECT_TIMEOUT );
+      connection.setReadTimeout( READ_TIMEOUT );
+      connection.setRequestMethod( method );
+      connection.setRequestProperty( "Authorization", "Bearer " + getToken() );
+      connection.setRequestProperty( "X-Snowflake-Authorization-Token-Type", "KEYPAIR_JWT" );
+      connection.setRequestProperty( "Accept", "application/json" );
+      if ( body != null ) {
+        connection.setDoOutput( true );
+        connection.setRequestProperty( "Content-Type", "application/json" );
+        try ( OutputStream out = connection.getOutputStream() ) {
+          out.write( body.getBytes( StandardCharsets.UTF_8 ) );
+        }
+      }
+
+      int status = connection.getResponseCode();
+      String response = read( status < 400 ? connection.getInputStream() : connection.getErrorStream() );
+      if ( status < 200 || status >= 300 ) {
+        throw new KettleException( "Snowpipe request " + method + " " + url + " failed with HTTP status " + status
+          + ": " + response );
+      }
+      return (JSONObject) new JSONParser().parse( response );
+    } catch ( KettleException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new KettleException( "Snowpipe request " + method + " " + url + " failed", e );
+    } finally {
+      if ( connection != null ) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * @return A JWT for the user, signed with their private key
+   * @throws Exception
+   */
+  @SuppressWarnings( "unchecked" )
+  private synchronized String getToken() throws Exception {
+    long now = System.currentTimeMillis();
+    if ( token != null && now < tokenExpires - TOKEN_RENEWAL ) {
+      return token;
+    }
+
+    JSONObject header = new JSONObject();
+    header.put( "alg", "RS256" );
+    header.put( "typ", "JWT" );
+    JSONObject claims = new JSONObject();
+    claims.put( "iss", account + "." + user + "." + publicKeyFingerprint );
+    claims.put( "sub", account + "." + user );
+    claims.put( "iat", now / 1000 );
+    claims.put( "exp", ( now + TOKEN_LIFETIME ) / 1000 );
+
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    String unsigned = encoder.encodeToString( header.toJSONString().getBytes( StandardCharsets.UTF_8 ) ) + "."
+      + encoder.encodeToString( claims.toJSONString().getBytes( StandardCharsets.UTF_8 ) );
+    Signature signature = Signature.getInstance( "SHA256withRSA" );
+    signature.initSign( privateKey );
+    signature.update( unsigned.getBytes( StandardCharsets.UTF_8 ) );
+
+    token = unsigned + "." + encoder.encodeToString( signature.sign() );
+    tokenExpires = now + TOKEN_LIFETIME;
+    return token;
+  }
+
+  private static String read( InputStream in ) throws IOException {
+    if ( in == null ) {
+      return "";
+    }
+    try ( InputStream input = in ) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ( ( count = input.read( buffer ) ) > 0 ) {
+        out.write( buffer, 0, count );
+      }
+      return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+  }
+
+  private static long toLong( Object value ) {
+    return value instanceof Number ? ( (Number) value ).longValue() : 0;
+  }
+}
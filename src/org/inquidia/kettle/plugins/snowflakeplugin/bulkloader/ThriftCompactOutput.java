@@ -0,0 +1,159 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes the Thrift compact protocol used by the Parquet page headers and file footer.  Only the parts of the
+ * protocol needed by SnowflakeParquetWriter are supported.
+ */
+class ThriftCompactOutput {
+
+  static final byte TYPE_BOOLEAN_TRUE = 1;
+  static final byte TYPE_BOOLEAN_FALSE = 2;
+  static final byte TYPE_I32 = 5;
+  static final byte TYPE_I64 = 6;
+  static final byte TYPE_BINARY = 8;
+  static final byte TYPE_LIST = 9;
+  static final byte TYPE_STRUCT = 12;
+
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+  // The id of the last field written in each open struct, used for the field id deltas
+  private final Deque<Short> lastFieldIds = new ArrayDeque<>();
+  private short lastFieldId;
+
+  /**
+   * Writes a field header for a field of the current struct
+   * @param id The Thrift field id
+   * @param type The compact protocol type of the field
+   */
+  void fieldBegin( int id, byte type ) {
+    int delta = id - lastFieldId;
+    if ( delta > 0 && delta <= 15 ) {
+      out.write( ( delta << 4 ) | type );
+    } else {
+      out.write( type );
+      writeVarint( zigzag( id ) );
+    }
+    lastFieldId = (short) id;
+  }
+
+  /**
+   * Writes a boolean field, the value is held by the type of the field header
+   */
+  void boolField( int id, boolean value ) {
+    fieldBegin( id, value ? TYPE_BOOLEAN_TRUE : TYPE_BOOLEAN_FALSE );
+  }
+
+  void i32Field( int id, int value ) {
+    fieldBegin( id, TYPE_I32 );
+    writeVarint( zigzag( value ) );
+  }
+
+  void i64Field( int id, long value ) {
+    fieldBegin( id, TYPE_I64 );
+    writeVarint( zigzag( value ) );
+  }
+
+  void stringField( int id, String value ) {
+    fieldBegin( id, TYPE_BINARY );
+    writeString( value );
+  }
+
+  /**
+   * Starts a struct field.  Must be followed by the fields of the struct and structEnd.
+   */
+  void structFieldBegin( int id ) {
+    fieldBegin( id, TYPE_STRUCT );
+    structBegin();
+  }
+
+  /**
+   * Starts a list field.  Must be followed by the elements of the list.
+   */
+  void listFieldBegin( int id, byte elementType, int size ) {
+    fieldBegin( id, TYPE_LIST );
+    listBegin( elementType, size );
+  }
+
+  /**
+   * Starts a struct, either at the top level or as a list element
+   */
+  void structBegin() {
+    lastFieldIds.push( lastFieldId );
+    lastFieldId = 0;
+  }
+
+  void structEnd() {
+    out.write( 0 );
+    lastFieldId = lastFieldIds.isEmpty() ? 0 : lastFieldIds.pop();
+  }
+
+  void listBegin( byte elementType, int size ) {
+    if ( size < 15 ) {
+      out.write( ( size << 4 ) | elementType );
+    } else {
+      out.write( 0xf0 | elementType );
+      writeVarint( size );
+    }
+  }
+
+  /**
+   * Writes an i32 list element
+   */
+  void writeI32( int value ) {
+    writeVarint( zigzag( value ) );
+  }
+
+  /**
+   * Writes a string list element
+   */
+  void writeString( String value ) {
+    byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+    writeVarint( bytes.length );
+    out.write( bytes, 0, bytes.length );
+  }
+
+  byte[] toByteArray() {
+    return out.toByteArray();
+  }
+
+  void reset() {
+    out.reset();
+    lastFieldIds.clear();
+    lastFieldId = 0;
+  }
+
+  private void writeVarint( long value ) {
+    while ( ( value & ~0x7fL ) != 0 ) {
+      out.write( (int) ( ( value & 0x7f ) | 0x80 ) );
+      value >>>= 7;
+    }
+    out.write( (int) value );
+  }
+
+  private static long zigzag( long value ) {
+    return ( value << 1 ) ^ ( value >> 63 );
+  }
+}
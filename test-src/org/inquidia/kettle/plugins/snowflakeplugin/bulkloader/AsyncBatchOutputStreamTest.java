@@ -0,0 +1,131 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AsyncBatchOutputStreamTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test( timeout = 10000 )
+  public void everythingWrittenIsWrittenByClose() throws Exception {
+    ByteArrayOutputStream target = new ByteArrayOutputStream();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    AsyncBatchOutputStream out = new AsyncBatchOutputStream( target, executor, 16, 2 );
+    for ( int i = 0; i < 1000; i++ ) {
+      byte[] row = ( "row " + i + "\n" ).getBytes( "UTF-8" );
+      out.write( row, 0, row.length );
+      expected.write( row, 0, row.length );
+      out.write( ';' );
+      expected.write( ';' );
+    }
+    out.close();
+
+    assertArrayEquals( expected.toByteArray(), target.toByteArray() );
+  }
+
+  /**
+   * When the target fails, the failure surfaces on a later write or on close, and the writer thread is given back
+   * to the executor either way.  Otherwise every failed file would keep a thread until the step is disposed.
+   */
+  @Test( timeout = 10000 )
+  public void failedWriteGivesBackTheWriterThread() throws Exception {
+    AsyncBatchOutputStream out = new AsyncBatchOutputStream( new FailingOutputStream(), executor, 16, 2 );
+    try {
+      byte[] data = new byte[100];
+      for ( int i = 0; i < 10; i++ ) {
+        out.write( data, 0, data.length );
+        Thread.sleep( 10 );
+      }
+      out.close();
+      fail( "The failed write was not reported" );
+    } catch ( IOException e ) {
+      // The write, or the flush in close, found the error
+      try {
+        out.close();
+      } catch ( IOException ignored ) {
+        // The error again, if the first failure was on a write
+      }
+    }
+
+    assertEquals( "free", executor.submit( new Callable<String>() {
+      @Override
+      public String call() {
+        return "free";
+      }
+    } ).get( 5, TimeUnit.SECONDS ) );
+  }
+
+  /**
+   * The flush in close fails on the error of an earlier batch, before the end of the file is handed over
+   */
+  @Test( timeout = 10000 )
+  public void failedFlushOnCloseGivesBackTheWriterThread() throws Exception {
+    AsyncBatchOutputStream out = new AsyncBatchOutputStream( new FailingOutputStream(), executor, 16, 4 );
+    out.write( new byte[16], 0, 16 );
+    out.write( 1 );
+    Thread.sleep( 200 );
+    try {
+      out.close();
+      fail( "The failed write was not reported" );
+    } catch ( IOException e ) {
+      assertEquals( "Error writing file", e.getMessage() );
+    }
+
+    assertEquals( "free", executor.submit( new Callable<String>() {
+      @Override
+      public String call() {
+        return "free";
+      }
+    } ).get( 5, TimeUnit.SECONDS ) );
+  }
+
+  private static class FailingOutputStream extends OutputStream {
+    @Override
+    public void write( int b ) throws IOException {
+      throw new IOException( "Disk full" );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      throw new IOException( "Disk full" );
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SnowflakeBulkLoaderDataTest {
+
+  private final List<ExecutorService> executors = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    for ( ExecutorService executor : executors ) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void routesShareTheStepStateButNotTheWriterThread() {
+    SnowflakeBulkLoaderData data = new SnowflakeBulkLoaderData();
+    data.writerExecutor = newExecutor();
+    data.streamPool = new SnowflakeStreamPool( 0 );
+    data.metrics = new SnowflakeLoadMetrics();
+
+    SnowflakeBulkLoaderData route = data.newRoute( newExecutor() );
+
+    assertSame( data.streamPool, route.streamPool );
+    assertSame( data.metrics, route.metrics );
+    assertNotSame( data.writerExecutor, route.writerExecutor );
+  }
+
+  /**
+   * Rows routed to two tables are written to two files open at the same time.  Each file's writer task holds its
+   * thread until the file is closed, so with a shared writer thread the second file could never be written.
+   */
+  @Test( timeout = 30000 )
+  public void routesToTwoTablesWriteTheirFilesAtTheSameTime() throws Exception {
+    SnowflakeBulkLoaderData data = new SnowflakeBulkLoaderData();
+    data.writerExecutor = newExecutor();
+    data.streamPool = new SnowflakeStreamPool( 0 );
+
+    SnowflakeBulkLoaderData first = data.newRoute( newExecutor() );
+    SnowflakeBulkLoaderData second = data.newRoute( newExecutor() );
+    ByteArrayOutputStream firstFile = new ByteArrayOutputStream();
+    ByteArrayOutputStream secondFile = new ByteArrayOutputStream();
+    first.writer = new AsyncBatchOutputStream( firstFile, first.writerExecutor, first.streamPool );
+    second.writer = new AsyncBatchOutputStream( secondFile, second.writerExecutor, second.streamPool );
+
+    // More rows than the batches of either file hold, alternating between the tables
+    ByteArrayOutputStream expectedFirst = new ByteArrayOutputStream();
+    ByteArrayOutputStream expectedSecond = new ByteArrayOutputStream();
+    for ( int i = 0; i < 100000; i++ ) {
+      byte[] firstRow = ( "first," + i + ",a row routed to the first table\n" ).getBytes( "UTF-8" );
+      byte[] secondRow = ( "second," + i + ",a row routed to the second table\n" ).getBytes( "UTF-8" );
+      first.writer.write( firstRow );
+      second.writer.write( secondRow );
+      expectedFirst.write( firstRow );
+      expectedSecond.write( secondRow );
+    }
+    first.writer.close();
+    second.writer.close();
+
+    assertArrayEquals( expectedFirst.toByteArray(), firstFile.toByteArray() );
+    assertArrayEquals( expectedSecond.toByteArray(), secondFile.toByteArray() );
+  }
+
+  private ExecutorService newExecutor() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executors.add( executor );
+    return executor;
+  }
+}
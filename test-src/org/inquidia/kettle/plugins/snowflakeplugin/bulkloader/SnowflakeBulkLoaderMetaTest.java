@@ -0,0 +1,54 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.Test;
+import org.pentaho.di.core.variables.Variables;
+
+import static org.junit.Assert.assertEquals;
+
+public class SnowflakeBulkLoaderMetaTest {
+
+  @Test
+  public void mergeTableOfUnquotedTableIsUpperCase() {
+    assertEquals( "PUBLIC.\"MYTABLE_MERGE_TEMP\"", getMergeTable( "PUBLIC", "MyTable" ) );
+  }
+
+  @Test
+  public void mergeTableOfQuotedTableKeepsItsCase() {
+    assertEquals( "\"My \"\"Table\"\"_MERGE_TEMP\"", getMergeTable( "", "\"My \"\"Table\"\"\"" ) );
+  }
+
+  @Test
+  public void mergeTableIsDroppedByName() {
+    SnowflakeBulkLoaderMeta meta = new SnowflakeBulkLoaderMeta();
+    meta.setTargetSchema( "PUBLIC" );
+    meta.setTargetTable( "\"Orders\"" );
+    assertEquals( "DROP TABLE IF EXISTS PUBLIC.\"Orders_MERGE_TEMP\";",
+      meta.getDropMergeTableStatement( new Variables() ) );
+  }
+
+  private static String getMergeTable( String schema, String table ) {
+    SnowflakeBulkLoaderMeta meta = new SnowflakeBulkLoaderMeta();
+    meta.setTargetSchema( schema );
+    meta.setTargetTable( table );
+    return meta.getMergeTable( new Variables() );
+  }
+}
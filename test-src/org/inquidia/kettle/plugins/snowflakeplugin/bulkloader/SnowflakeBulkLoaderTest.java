@@ -0,0 +1,128 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.Test;
+import org.pentaho.di.core.BlockingRowSet;
+import org.pentaho.di.core.RowSet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnowflakeBulkLoaderTest {
+
+  private static final long MB = 1024 * 1024;
+
+  /**
+   * Parquet files can only be split between row groups, so the row groups are a fraction of the split size
+   */
+  @Test
+  public void parquetRowGroupsFitTheSplitSize() {
+    assertEquals( SnowflakeParquetWriter.DEFAULT_ROW_GROUP_SIZE, SnowflakeBulkLoader.getParquetRowGroupSize( 0 ) );
+    assertEquals( SnowflakeParquetWriter.DEFAULT_ROW_GROUP_SIZE,
+      SnowflakeBulkLoader.getParquetRowGroupSize( 1024 * MB ) );
+    assertEquals( 25 * MB, SnowflakeBulkLoader.getParquetRowGroupSize( 100 * MB ) );
+    assertEquals( MB / 4, SnowflakeBulkLoader.getParquetRowGroupSize( MB ) );
+  }
+
+  /**
+   * An idle stream lets the micro-batch interval pass, so the batch is loaded without waiting for the next row
+   */
+  @Test( timeout = 10000 )
+  public void idleInputTimesOut() {
+    RowSet rowSet = new BlockingRowSet( 10 );
+
+    long start = System.nanoTime();
+    assertFalse( SnowflakeBulkLoader.waitForInput( Collections.singletonList( rowSet ),
+      TimeUnit.MILLISECONDS.toNanos( 200 ) ) );
+    assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 200 ) );
+  }
+
+  @Test( timeout = 10000 )
+  public void rowArrivingWhileIdleEndsTheWait() throws Exception {
+    final RowSet rowSet = new BlockingRowSet( 10 );
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep( 100 );
+        } catch ( InterruptedException e ) {
+          return;
+        }
+        rowSet.putRow( null, new Object[] { "row" } );
+      }
+    };
+    producer.start();
+
+    long start = System.nanoTime();
+    assertTrue( SnowflakeBulkLoader.waitForInput( Arrays.asList( new BlockingRowSet( 10 ), rowSet ),
+      TimeUnit.SECONDS.toNanos( 5 ) ) );
+    assertTrue( System.nanoTime() - start < TimeUnit.SECONDS.toNanos( 5 ) );
+    producer.join();
+  }
+
+  /**
+   * While the rows of a file the failed run staged are read, an idle pause must not close the file.  The rest of its
+   * rows would be written to a new file and loaded twice.
+   */
+  @Test( timeout = 10000 )
+  public void idleInputDoesNotLoadAResumedFile() throws Exception {
+    File manifestFile = File.createTempFile( "snowflake", ".manifest" );
+    manifestFile.delete();
+    try {
+      SnowflakeLoadManifest manifest = SnowflakeLoadManifest.open( manifestFile.getPath(), "PUBLIC.ORDERS CSV @~" );
+      manifest.resume();
+      manifest.closed( "a.csv.gz", 0, 10, 0x1234 );
+      manifest.staged( Collections.singletonList( "a.csv.gz" ) );
+
+      SnowflakeBulkLoaderData data = new SnowflakeBulkLoaderData();
+      data.microBatchNanos = TimeUnit.MILLISECONDS.toNanos( 100 );
+      data.resumeEntry = SnowflakeLoadManifest.open( manifestFile.getPath(), "PUBLIC.ORDERS CSV @~" ).resume().get( 0 );
+      data.outputCount = 4;
+
+      assertFalse( SnowflakeBulkLoader.waitForInput( Collections.singletonList( new BlockingRowSet( 10 ) ),
+        data.microBatchNanos ) );
+      assertFalse( SnowflakeBulkLoader.isMicroBatchWaiting( data ) );
+
+      // The rows after the resumed file are loaded when the stream is idle
+      data.resumeEntry = null;
+      data.fileFirstRow = 10;
+      data.outputCount = 12;
+      assertTrue( SnowflakeBulkLoader.isMicroBatchWaiting( data ) );
+    } finally {
+      manifestFile.delete();
+    }
+  }
+
+  @Test( timeout = 10000 )
+  public void finishedInputEndsTheWait() {
+    RowSet rowSet = new BlockingRowSet( 10 );
+    rowSet.setDone();
+
+    assertTrue( SnowflakeBulkLoader.waitForInput( Collections.singletonList( rowSet ),
+      TimeUnit.SECONDS.toNanos( 5 ) ) );
+  }
+}
@@ -0,0 +1,317 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the encoder writes the same bytes as the step wrote before it, when every value was converted with
+ * String.getBytes and enclosed and escaped by writeField.
+ */
+public class SnowflakeCsvEncoderTest {
+
+  private static final byte[] SEPARATOR = bytes( SnowflakeBulkLoaderMeta.CSV_DELIMITER );
+  private static final byte[] ENCLOSURE = bytes( SnowflakeBulkLoaderMeta.ENCLOSURE );
+  private static final byte[] ESCAPE = bytes( SnowflakeBulkLoaderMeta.CSV_ESCAPE_CHAR );
+
+  private final SnowflakeCsvEncoder encoder = new SnowflakeCsvEncoder( SEPARATOR, ENCLOSURE, ESCAPE );
+
+  @Test
+  public void nullAndEmptyValuesWriteNothing() throws IOException {
+    assertEquals( 0, writeString( encoder, null, -1 ).length );
+    assertEquals( 0, writeString( encoder, "", -1 ).length );
+    assertEquals( 0, writeBytes( encoder, null, true ).length );
+    assertEquals( 0, writeBytes( encoder, new byte[0], true ).length );
+  }
+
+  @Test
+  public void plainValuesAreWrittenAsIs() throws IOException {
+    assertString( "a" );
+    assertString( "plain value" );
+    assertArrayEquals( bytes( "1,5" ), writeBytes( encoder, bytes( "1,5" ), false ) );
+  }
+
+  @Test
+  public void specialCharactersAreEnclosedAndEscaped() throws IOException {
+    assertString( "," );
+    assertString( "\"" );
+    assertString( "\\" );
+    assertString( "a,b" );
+    assertString( "say \"hi\"" );
+    assertString( "C:\\temp\\" );
+    assertString( "\"\\\"," );
+    assertArrayEquals( bytes( "\"a\\\"b\"" ), writeString( encoder, "a\"b", -1 ) );
+  }
+
+  @Test
+  public void multiByteCharactersAreEncodedAsUtf8() throws IOException {
+    assertString( "é" );
+    assertString( "naïve, café" );
+    assertString( "日本語" );
+    assertString( "\"引用\"" );
+    assertString( "€100" );
+    // Surrogate pairs become one four byte character
+    assertString( "😀" );
+    assertString( "a😀b,😀\"" );
+    assertString( "𝄞𝄞𝄞𝄞𝄞𝄞𝄞𝄞𝄞" );
+    // Unpaired surrogates become '?', as with String.getBytes
+    assertString( "\ud83d" );
+    assertString( "a\ude00b" );
+    assertString( "\ude00\ud83d" );
+  }
+
+  @Test
+  public void valuesAreTruncatedAndPaddedByCharacters() throws IOException {
+    for ( String value : new String[] { "abc", "a,b", "é\"ü", "a😀b" } ) {
+      for ( int length = -1; length <= 6; length++ ) {
+        assertString( value, length );
+      }
+    }
+    // Cutting a surrogate pair in half leaves an unpaired surrogate
+    assertString( "😀😀", 1 );
+    assertString( "😀😀", 3 );
+  }
+
+  @Test
+  public void longValuesGrowTheBuffers() throws IOException {
+    StringBuilder value = new StringBuilder();
+    for ( int i = 0; i < 2000; i++ ) {
+      value.append( i % 10 == 0 ? "\"" : i % 7 == 0 ? "é" : "x" );
+    }
+    assertString( value.toString() );
+    assertString( value.toString(), 3000 );
+  }
+
+  @Test
+  public void multiByteMarkersAreMatchedWhole() throws IOException {
+    SnowflakeCsvEncoder multi = new SnowflakeCsvEncoder( bytes( "||" ), bytes( "'" ), bytes( "\\\\" ) );
+    for ( String value : new String[] { "a|b", "a||b", "||", "it's", "a\\b", "a\\\\b", "\\\\'x", "plain" } ) {
+      byte[] expected = baseline( bytes( value ), true, bytes( "||" ), bytes( "'" ), bytes( "\\\\" ) );
+      assertArrayEquals( value, expected, writeString( multi, value, -1 ) );
+    }
+  }
+
+  /**
+   * Values are scanned a word of eight bytes at a time, then the rest a byte at a time.  Every special byte, and the
+   * newline which is not special, is placed at every position of the first and second words and of the rest.
+   */
+  @Test
+  public void specialBytesAreFoundAtEveryPositionOfAWord() throws IOException {
+    char[] specials = { ',', '"', '\\', '\n' };
+    for ( int length = 1; length <= 19; length++ ) {
+      for ( char special : specials ) {
+        for ( int position = 0; position < length; position++ ) {
+          char[] value = filler( length );
+          value[position] = special;
+          assertString( new String( value ) );
+
+          // With a second special byte of another kind later in the value
+          for ( char other : specials ) {
+            for ( int second = position + 1; second < length; second += 3 ) {
+              value = filler( length );
+              value[position] = special;
+              value[second] = other;
+              assertString( new String( value ) );
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void everyByteOfAWordCanBeSpecial() throws IOException {
+    assertString( "\"\"\"\"\"\"\"\"" );
+    assertString( "\\\\\\\\\\\\\\\\\\" );
+    assertString( ",,,,,,,,,,,,,,,," );
+    assertString( "\n\n\n\n\n\n\n\n" );
+    assertString( ",\"\\,\"\\,\"\\" );
+  }
+
+  /**
+   * Bytes one away from a special byte, and bytes with the high bit set, must not be taken for it.  The carries of a
+   * careless zero byte test flag the byte above a match, or bytes above 0x80.
+   */
+  @Test
+  public void neighbouringBytesAreNotMatched() throws IOException {
+    for ( char special : new char[] { ',', '"', '\\' } ) {
+      for ( int position = 0; position < 16; position++ ) {
+        char[] value = filler( 16 );
+        value[position] = (char) ( special + 1 );
+        assertString( new String( value ) );
+        value[position] = (char) ( special - 1 );
+        assertString( new String( value ) );
+        value[position] = (char) ( special | 0x80 );
+        assertString( new String( value ) );
+      }
+    }
+    for ( int b = 0; b < 256; b++ ) {
+      byte[] value = new byte[16];
+      for ( int i = 0; i < value.length; i++ ) {
+        value[i] = (byte) ( i % 2 == 0 ? b : b ^ 1 );
+      }
+      byte[] expected = baseline( value, true, SEPARATOR, ENCLOSURE, ESCAPE );
+      assertArrayEquals( "byte " + b, expected, writeBytes( encoder, value, true ) );
+    }
+  }
+
+  @Test
+  public void multiByteCharactersAcrossWords() throws IOException {
+    for ( int offset = 0; offset < 8; offset++ ) {
+      StringBuilder value = new StringBuilder();
+      for ( int i = 0; i < offset; i++ ) {
+        value.append( 'x' );
+      }
+      assertString( value + "é\"日😀,\\é" );
+      assertString( value + "😀😀😀😀" );
+    }
+  }
+
+  @Test
+  public void valuesInsideALargerBufferAreScannedFromTheirOffset() throws IOException {
+    byte[] buffer = bytes( "\",\\abcdefghijklmnop,\"\\" );
+    for ( int offset = 0; offset < 4; offset++ ) {
+      for ( int length = 0; offset + length <= buffer.length - 3; length++ ) {
+        byte[] value = new byte[length];
+        System.arraycopy( buffer, offset, value, 0, length );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeBytes( out, buffer, offset, length, true );
+        assertArrayEquals( offset + "+" + length, baseline( value, true, SEPARATOR, ENCLOSURE, ESCAPE ),
+          out.toByteArray() );
+      }
+    }
+  }
+
+  private static char[] filler( int length ) {
+    char[] value = new char[length];
+    for ( int i = 0; i < length; i++ ) {
+      value[i] = (char) ( 'a' + i );
+    }
+    return value;
+  }
+
+  private void assertString( String value ) throws IOException {
+    assertString( value, -1 );
+  }
+
+  /**
+   * Checks a string value, written as a string and as the bytes of a binary string
+   */
+  private void assertString( String value, int length ) throws IOException {
+    byte[] expected = baseline( baselineBytes( value, length ), true, SEPARATOR, ENCLOSURE, ESCAPE );
+    assertArrayEquals( value + " (" + length + ")", expected, writeString( encoder, value, length ) );
+    if ( length < 0 ) {
+      assertArrayEquals( value, expected, writeBytes( encoder, bytes( value ), true ) );
+    }
+  }
+
+  private static byte[] writeString( SnowflakeCsvEncoder encoder, String value, int length ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.writeString( out, value, length );
+    return out.toByteArray();
+  }
+
+  private static byte[] writeBytes( SnowflakeCsvEncoder encoder, byte[] value, boolean enclose ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.writeBytes( out, value, enclose );
+    return out.toByteArray();
+  }
+
+  private static byte[] bytes( String value ) {
+    return value.getBytes( StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * The bytes of a string value as the step converted them, truncated or padded with spaces to the length
+   */
+  private static byte[] baselineBytes( String value, int length ) {
+    if ( length > -1 && length < value.length() ) {
+      return bytes( value.substring( 0, length ) );
+    }
+    StringBuilder padded = new StringBuilder( value );
+    while ( padded.length() < length ) {
+      padded.append( ' ' );
+    }
+    return bytes( padded.toString() );
+  }
+
+  /**
+   * The bytes the step wrote for a value, enclosing strings containing a separator, enclosure or escape, with the
+   * escape written before every enclosure and escape.
+   */
+  static byte[] baseline( byte[] str, boolean isString, byte[] separator, byte[] enclosure, byte[] escape ) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if ( str == null || str.length == 0 ) {
+      return out.toByteArray();
+    }
+    if ( !isString || !( contains( str, separator ) || contains( str, enclosure ) || contains( str, escape ) ) ) {
+      out.write( str, 0, str.length );
+      return out.toByteArray();
+    }
+
+    List<Integer> positions = new ArrayList<>();
+    for ( int i = 0; i < str.length; i++ ) {
+      if ( startsWith( str, i, enclosure ) || startsWith( str, i, escape ) ) {
+        positions.add( i );
+      }
+    }
+    out.write( enclosure, 0, enclosure.length );
+    int from = 0;
+    for ( int position : positions ) {
+      out.write( str, from, position - from );
+      out.write( escape, 0, escape.length );
+      from = position;
+    }
+    out.write( str, from, str.length - from );
+    out.write( enclosure, 0, enclosure.length );
+    return out.toByteArray();
+  }
+
+  private static boolean contains( byte[] str, byte[] marker ) {
+    for ( int i = 0; i < str.length; i++ ) {
+      if ( startsWith( str, i, marker ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean startsWith( byte[] str, int position, byte[] marker ) {
+    if ( marker.length == 0 || position + marker.length > str.length ) {
+      return false;
+    }
+    for ( int i = 0; i < marker.length; i++ ) {
+      if ( str[position + i] != marker[i] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,198 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks the writer renders dates as SimpleDateFormat does, and leaves the dates it can't render to it
+ */
+public class SnowflakeDateWriterTest {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone( "UTC" );
+  private static final TimeZone NEW_YORK = TimeZone.getTimeZone( "America/New_York" );
+  private static final TimeZone KOLKATA = TimeZone.getTimeZone( "Asia/Kolkata" );
+
+  private static final long HOUR = 60 * 60 * 1000L;
+
+  // The first and last local times the writer renders, 1582-10-15 00:00:00.000 and 9999-12-31 23:59:59.999
+  private static final long MIN_LOCAL_MILLIS = -12219292800000L;
+  private static final long MAX_LOCAL_MILLIS = 253402300799999L;
+
+  @Test
+  public void firstGregorianDayIsRendered() throws IOException {
+    for ( TimeZone timeZone : new TimeZone[] { UTC, NEW_YORK, KOLKATA } ) {
+      long first = MIN_LOCAL_MILLIS - timeZone.getOffset( MIN_LOCAL_MILLIS );
+      assertRendered( timeZone, first );
+      assertRendered( timeZone, first + 1 );
+      assertEquals( "1582-10-15 00:00:00.000", write( timeZone, first, SnowflakeDateWriter.FORMAT_TIMESTAMP ) );
+    }
+  }
+
+  /**
+   * Before the Gregorian cutover SimpleDateFormat uses the Julian calendar, so those dates are left to it
+   */
+  @Test
+  public void datesBeforeTheGregorianCutoverAreLeftToSimpleDateFormat() throws IOException {
+    for ( TimeZone timeZone : new TimeZone[] { UTC, NEW_YORK, KOLKATA } ) {
+      long first = MIN_LOCAL_MILLIS - timeZone.getOffset( MIN_LOCAL_MILLIS );
+      assertNotRendered( timeZone, first - 1 );
+      assertNotRendered( timeZone, first - 24 * HOUR );
+      assertNotRendered( timeZone, Long.MIN_VALUE / 2 );
+    }
+  }
+
+  @Test
+  public void lastFourDigitYearIsRendered() throws IOException {
+    for ( TimeZone timeZone : new TimeZone[] { UTC, NEW_YORK, KOLKATA } ) {
+      long last = MAX_LOCAL_MILLIS - timeZone.getOffset( MAX_LOCAL_MILLIS );
+      assertRendered( timeZone, last );
+      assertRendered( timeZone, last - 1 );
+      assertEquals( "9999-12-31 23:59:59.999", write( timeZone, last, SnowflakeDateWriter.FORMAT_TIMESTAMP ) );
+    }
+  }
+
+  @Test
+  public void yearsWithMoreThanFourDigitsAreLeftToSimpleDateFormat() throws IOException {
+    for ( TimeZone timeZone : new TimeZone[] { UTC, NEW_YORK, KOLKATA } ) {
+      long last = MAX_LOCAL_MILLIS - timeZone.getOffset( MAX_LOCAL_MILLIS );
+      assertNotRendered( timeZone, last + 1 );
+      assertNotRendered( timeZone, Long.MAX_VALUE / 2 );
+    }
+  }
+
+  @Test
+  public void daylightSavingTransitions() throws IOException {
+    // Spring forward on 2021-03-14 at 02:00 and fall back on 2021-11-07 at 02:00 in New York
+    long springForward = 1615705200000L;
+    long fallBack = 1636264800000L;
+    for ( long transition : new long[] { springForward, fallBack } ) {
+      for ( long millis = transition - 3 * HOUR; millis <= transition + 3 * HOUR; millis += 15 * 60 * 1000L + 7 ) {
+        assertRendered( NEW_YORK, millis );
+      }
+      assertRendered( NEW_YORK, transition - 1 );
+      assertRendered( NEW_YORK, transition );
+      assertRendered( NEW_YORK, transition + 1 );
+    }
+    int timestamp = SnowflakeDateWriter.FORMAT_TIMESTAMP;
+    assertEquals( "2021-03-14 01:59:59.999", write( NEW_YORK, springForward - 1, timestamp ) );
+    assertEquals( "2021-03-14 03:00:00.000", write( NEW_YORK, springForward, timestamp ) );
+    assertEquals( "2021-11-07 01:59:59.999", write( NEW_YORK, fallBack - 1, timestamp ) );
+    assertEquals( "2021-11-07 01:00:00.000", write( NEW_YORK, fallBack, timestamp ) );
+  }
+
+  @Test
+  public void leapDays() throws IOException {
+    String[] days = { "1600-02-28", "1600-02-29", "1600-03-01", "1700-02-28", "1700-03-01", "1900-02-28", "1900-03-01",
+      "1904-02-29", "1969-12-31", "1970-01-01", "2000-02-29", "2000-03-01", "2020-02-29", "2023-02-28", "2023-03-01",
+      "2100-02-28", "2100-03-01", "2400-02-29", "9996-02-29" };
+    for ( TimeZone timeZone : new TimeZone[] { UTC, NEW_YORK, KOLKATA } ) {
+      SimpleDateFormat parser = format( "yyyy-MM-dd HH:mm:ss.SSS", timeZone );
+      for ( String day : days ) {
+        for ( String time : new String[] { "00:00:00.000", "12:34:56.789", "23:59:59.999" } ) {
+          long millis = parse( parser, day + " " + time );
+          assertRendered( timeZone, millis );
+          assertEquals( day + " " + time, write( timeZone, millis, SnowflakeDateWriter.FORMAT_TIMESTAMP ) );
+        }
+      }
+    }
+  }
+
+  /**
+   * Random times across the whole range, written one after the other so the cached day changes and is reused
+   */
+  @Test
+  public void randomDatesMatchSimpleDateFormat() throws IOException {
+    Random random = new Random( 20200229L );
+    for ( TimeZone timeZone : new TimeZone[] { UTC, NEW_YORK, KOLKATA } ) {
+      SnowflakeDateWriter writer = new SnowflakeDateWriter( timeZone );
+      long last = 0;
+      for ( int i = 0; i < 20000; i++ ) {
+        long millis = i % 4 == 0 ? last + random.nextInt( 1000000 )
+          : MIN_LOCAL_MILLIS + 2 * 24 * HOUR + (long) ( random.nextDouble() * ( MAX_LOCAL_MILLIS - MIN_LOCAL_MILLIS
+          - 4 * 24 * HOUR ) );
+        for ( int format = SnowflakeDateWriter.FORMAT_TIMESTAMP; format <= SnowflakeDateWriter.FORMAT_TIME;
+              format++ ) {
+          assertEquals( expected( timeZone, millis, format ), write( writer, millis, format ) );
+        }
+        last = millis;
+      }
+    }
+  }
+
+  private static void assertRendered( TimeZone timeZone, long millis ) throws IOException {
+    SnowflakeDateWriter writer = new SnowflakeDateWriter( timeZone );
+    for ( int format = SnowflakeDateWriter.FORMAT_TIMESTAMP; format <= SnowflakeDateWriter.FORMAT_TIME; format++ ) {
+      assertEquals( expected( timeZone, millis, format ), write( writer, millis, format ) );
+    }
+  }
+
+  private static void assertNotRendered( TimeZone timeZone, long millis ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertFalse( new SnowflakeDateWriter( timeZone ).write( out, new Date( millis ),
+      SnowflakeDateWriter.FORMAT_TIMESTAMP ) );
+    assertEquals( 0, out.size() );
+  }
+
+  private static String write( TimeZone timeZone, long millis, int format ) throws IOException {
+    return write( new SnowflakeDateWriter( timeZone ), millis, format );
+  }
+
+  private static String write( SnowflakeDateWriter writer, long millis, int format ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if ( !writer.write( out, new Date( millis ), format ) ) {
+      return null;
+    }
+    return new String( out.toByteArray(), StandardCharsets.US_ASCII );
+  }
+
+  private static String expected( TimeZone timeZone, long millis, int format ) {
+    String pattern = format == SnowflakeDateWriter.FORMAT_TIMESTAMP ? "yyyy-MM-dd HH:mm:ss.SSS"
+      : format == SnowflakeDateWriter.FORMAT_DATE ? SnowflakeBulkLoaderMeta.DATE_FORMAT_STRING : "HH:mm:ss.SSS";
+    return format( pattern, timeZone ).format( new Date( millis ) );
+  }
+
+  private static SimpleDateFormat format( String pattern, TimeZone timeZone ) {
+    SimpleDateFormat format = new SimpleDateFormat( pattern );
+    format.setTimeZone( timeZone );
+    return format;
+  }
+
+  private static long parse( SimpleDateFormat parser, String value ) {
+    try {
+      return parser.parse( value ).getTime();
+    } catch ( ParseException e ) {
+      throw new IllegalArgumentException( value, e );
+    }
+  }
+}
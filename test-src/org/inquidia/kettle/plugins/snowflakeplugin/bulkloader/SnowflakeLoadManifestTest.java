@@ -0,0 +1,129 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnowflakeLoadManifestTest {
+
+  private static final String SIGNATURE = "PUBLIC.ORDERS CSV @~";
+
+  private File manifestFile;
+
+  @Before
+  public void setUp() throws IOException {
+    manifestFile = File.createTempFile( "snowflake", ".manifest" );
+    manifestFile.delete();
+  }
+
+  @After
+  public void tearDown() {
+    manifestFile.delete();
+    new File( manifestFile.getPath() + ".tmp" ).delete();
+  }
+
+  @Test
+  public void statusChangesAreAppended() throws Exception {
+    SnowflakeLoadManifest manifest = SnowflakeLoadManifest.open( manifestFile.getPath(), SIGNATURE );
+    manifest.resume();
+    manifest.closed( "a.csv.gz", 0, 10, 0x1234 );
+    manifest.closed( "b.csv.gz", 10, 5, 0x5678 );
+    manifest.staged( Arrays.asList( "a.csv.gz", "b.csv.gz" ) );
+    manifest.loaded( Collections.singletonList( "a.csv.gz" ) );
+
+    assertEquals( Arrays.asList( SIGNATURE,
+      "a.csv.gz\t0\t10\t1234\tPENDING\tPENDING",
+      "b.csv.gz\t10\t5\t5678\tPENDING\tPENDING",
+      "STAGED\ta.csv.gz",
+      "STAGED\tb.csv.gz",
+      "LOADED\ta.csv.gz" ), readLines() );
+  }
+
+  @Test
+  public void resumeReplaysTheStatusesAndCompacts() throws Exception {
+    SnowflakeLoadManifest manifest = SnowflakeLoadManifest.open( manifestFile.getPath(), SIGNATURE );
+    manifest.resume();
+    manifest.closed( "a.csv.gz", 0, 10, 0x1234 );
+    manifest.closed( "b.csv.gz", 10, 5, 0x5678 );
+    manifest.closed( "c.csv.gz", 15, 5, 0x9abc );
+    manifest.staged( Arrays.asList( "a.csv.gz", "b.csv.gz" ) );
+
+    List<SnowflakeLoadManifest.Entry> staged =
+      SnowflakeLoadManifest.open( manifestFile.getPath(), SIGNATURE ).resume();
+
+    assertEquals( 2, staged.size() );
+    assertEquals( "b.csv.gz", staged.get( 1 ).getFilename() );
+    assertEquals( 0x5678, staged.get( 1 ).getChecksum() );
+    assertEquals( Arrays.asList( SIGNATURE,
+      "a.csv.gz\t0\t10\t1234\tSTAGED\tPENDING",
+      "b.csv.gz\t10\t5\t5678\tSTAGED\tPENDING" ), readLines() );
+  }
+
+  @Test
+  public void closeCompactsAndALineCutShortIsIgnored() throws Exception {
+    SnowflakeLoadManifest manifest = SnowflakeLoadManifest.open( manifestFile.getPath(), SIGNATURE );
+    manifest.resume();
+    manifest.closed( "a.csv.gz", 0, 10, 0x1234 );
+    manifest.staged( Collections.singletonList( "a.csv.gz" ) );
+    manifest.close();
+    assertEquals( Arrays.asList( SIGNATURE, "a.csv.gz\t0\t10\t1234\tSTAGED\tPENDING" ), readLines() );
+
+    // A failure while appending the next file
+    try ( OutputStream out = new FileOutputStream( manifestFile, true ) ) {
+      out.write( "b.csv.gz\t10\t5\t56".getBytes( StandardCharsets.UTF_8 ) );
+    }
+    List<SnowflakeLoadManifest.Entry> staged =
+      SnowflakeLoadManifest.open( manifestFile.getPath(), SIGNATURE ).resume();
+    assertEquals( 1, staged.size() );
+    assertFalse( staged.get( 0 ).isLoaded() );
+  }
+
+  @Test
+  public void deletedManifestIsNotWrittenAgain() throws Exception {
+    SnowflakeLoadManifest manifest = SnowflakeLoadManifest.open( manifestFile.getPath(), SIGNATURE );
+    manifest.resume();
+    manifest.closed( "a.csv.gz", 0, 10, 0x1234 );
+    assertTrue( manifestFile.exists() );
+
+    manifest.delete();
+    manifest.close();
+    assertFalse( manifestFile.exists() );
+  }
+
+  private List<String> readLines() throws IOException {
+    return Files.readAllLines( manifestFile.toPath(), StandardCharsets.UTF_8 );
+  }
+}
@@ -0,0 +1,292 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnowflakeParquetWriterTest {
+
+  // 2020-06-01 12:00:00 UTC, 08:00:00 in New York
+  private static final long INSTANT = 1591012800000L;
+
+  private TimeZone defaultTimeZone;
+
+  @Before
+  public void setUp() {
+    defaultTimeZone = TimeZone.getDefault();
+    TimeZone.setDefault( TimeZone.getTimeZone( "America/New_York" ) );
+  }
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault( defaultTimeZone );
+  }
+
+  @Test
+  public void ntzTimestampsAreWrittenAsWallClockTime() throws IOException {
+    byte[] file = writeTimestamp( SnowflakeParquetWriter.TYPE_TIMESTAMP );
+
+    assertEquals( INSTANT + TimeZone.getDefault().getOffset( INSTANT ), readFirstLong( file ) );
+    Map<Integer, Object> column = readColumnSchema( file );
+    assertEquals( 9, column.get( 6 ) );
+    assertNull( column.get( 10 ) );
+  }
+
+  @Test
+  public void tzTimestampsAreWrittenAsUtcInstants() throws IOException {
+    byte[] file = writeTimestamp( SnowflakeParquetWriter.TYPE_TIMESTAMP_TZ );
+
+    assertEquals( INSTANT, readFirstLong( file ) );
+    Map<Integer, Object> column = readColumnSchema( file );
+    assertEquals( 9, column.get( 6 ) );
+    Map<?, ?> logicalType = (Map<?, ?>) column.get( 10 );
+    assertNotNull( logicalType );
+    Map<?, ?> timestamp = (Map<?, ?>) logicalType.get( 8 );
+    assertEquals( Boolean.TRUE, timestamp.get( 1 ) );
+    assertNotNull( ( (Map<?, ?>) timestamp.get( 2 ) ).get( 1 ) );
+  }
+
+  /**
+   * Every page of the file is compressed with the same pooled Deflater, reset between pages
+   */
+  @Test
+  public void pagesAreCompressedWithADeflaterFromThePool() throws IOException {
+    SnowflakeStreamPool pool = new SnowflakeStreamPool( SnowflakeStreamPool.DEFAULT_MAX_BYTES );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SnowflakeParquetWriter writer = new SnowflakeParquetWriter( out, new SnowflakeParquetWriter.Column[] {
+      new SnowflakeParquetWriter.Column( "ID", SnowflakeParquetWriter.TYPE_INTEGER ) },
+      SnowflakeParquetWriter.DEFAULT_ROW_GROUP_SIZE, null, pool );
+    int rows = 300000;
+    for ( int i = 0; i < rows; i++ ) {
+      writer.write( 0, i % 7 == 0 ? null : (long) i );
+      writer.endRow();
+    }
+    writer.finish();
+    byte[] file = out.toByteArray();
+
+    // One Deflater was taken and returned to the pool, however many pages were compressed
+    assertTrue( pool.getHeldBytes() > 0 );
+    pool.takeDeflater().end();
+    assertEquals( 0, pool.getHeldBytes() );
+
+    CompactReader reader = new CompactReader( file, 4 );
+    int pages = 0;
+    long values = 0;
+    while ( values < rows ) {
+      Map<Integer, Object> header = reader.readStruct();
+      int uncompressedSize = (Integer) header.get( 2 );
+      int compressedSize = (Integer) header.get( 3 );
+      int pageValues = (Integer) ( (Map<?, ?>) header.get( 5 ) ).get( 1 );
+      byte[] page = gunzip( file, reader.position, compressedSize );
+      assertEquals( uncompressedSize, page.length );
+      if ( pages == 0 ) {
+        // The first row is null, so the first value is from the second row
+        int levelsLength = (int) readLittleEndian( page, 0, 4 );
+        assertEquals( 1L, readLittleEndian( page, 4 + levelsLength, 8 ) );
+      }
+      reader.position += compressedSize;
+      values += pageValues;
+      pages++;
+    }
+    assertEquals( rows, values );
+    assertTrue( pages > 1 );
+  }
+
+  /**
+   * Each row group is written to the stream once it reaches its size, so a file split by size is split close to it
+   */
+  @Test
+  public void rowGroupsAreWrittenAsTheyFill() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long rowGroupSize = 256 * 1024;
+    SnowflakeParquetWriter writer = new SnowflakeParquetWriter( out, new SnowflakeParquetWriter.Column[] {
+      new SnowflakeParquetWriter.Column( "ID", SnowflakeParquetWriter.TYPE_INTEGER ),
+      new SnowflakeParquetWriter.Column( "NAME", SnowflakeParquetWriter.TYPE_STRING ) }, rowGroupSize );
+
+    int rowGroups = 0;
+    int lastSize = out.size();
+    for ( int i = 0; i < 200000; i++ ) {
+      writer.write( 0, (long) i * 7919 );
+      writer.write( 1, "name " + i * 7919 );
+      writer.endRow();
+      if ( out.size() != lastSize ) {
+        // A row group was written, no larger than its size and the rows checked with it
+        assertTrue( out.size() - lastSize < rowGroupSize * 2 );
+        lastSize = out.size();
+        rowGroups++;
+      }
+    }
+    writer.finish();
+
+    assertTrue( rowGroups > 2 );
+    assertEquals( rowGroups + 1, ( (List<?>) readFooter( out.toByteArray() ).get( 4 ) ).size() );
+  }
+
+  private static byte[] writeTimestamp( int type ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SnowflakeParquetWriter writer = new SnowflakeParquetWriter( out, new SnowflakeParquetWriter.Column[] {
+      new SnowflakeParquetWriter.Column( "TS", type ) } );
+    writer.write( 0, new Date( INSTANT ) );
+    writer.endRow();
+    writer.finish();
+    return out.toByteArray();
+  }
+
+  /**
+   * @return The schema element of the first column, from the footer
+   */
+  @SuppressWarnings( "unchecked" )
+  private static Map<Integer, Object> readColumnSchema( byte[] file ) {
+    return (Map<Integer, Object>) ( (List<Object>) readFooter( file ).get( 2 ) ).get( 1 );
+  }
+
+  /**
+   * @return The FileMetaData footer
+   */
+  private static Map<Integer, Object> readFooter( byte[] file ) {
+    int footerLength = (int) readLittleEndian( file, file.length - 8, 4 );
+    return new CompactReader( file, file.length - 8 - footerLength ).readStruct();
+  }
+
+  /**
+   * @return The first value of the first page, a plain encoded int64
+   */
+  private static long readFirstLong( byte[] file ) throws IOException {
+    CompactReader reader = new CompactReader( file, 4 );
+    Map<Integer, Object> header = reader.readStruct();
+    int compressedSize = (Integer) header.get( 3 );
+
+    byte[] bytes = gunzip( file, reader.position, compressedSize );
+    int levelsLength = (int) readLittleEndian( bytes, 0, 4 );
+    return readLittleEndian( bytes, 4 + levelsLength, 8 );
+  }
+
+  private static byte[] gunzip( byte[] file, int offset, int length ) throws IOException {
+    ByteArrayOutputStream page = new ByteArrayOutputStream();
+    try ( GZIPInputStream in = new GZIPInputStream( new ByteArrayInputStream( file, offset, length ) ) ) {
+      byte[] buffer = new byte[4096];
+      for ( int n = in.read( buffer ); n > 0; n = in.read( buffer ) ) {
+        page.write( buffer, 0, n );
+      }
+    }
+    return page.toByteArray();
+  }
+
+  private static long readLittleEndian( byte[] bytes, int offset, int length ) {
+    long value = 0;
+    for ( int i = length - 1; i >= 0; i-- ) {
+      value = ( value << 8 ) | ( bytes[offset + i] & 0xff );
+    }
+    return value;
+  }
+
+  /**
+   * Reads the parts of the Thrift compact protocol the writer uses, structs as maps of field id to value
+   */
+  private static class CompactReader {
+    private final byte[] bytes;
+    private int position;
+
+    private CompactReader( byte[] bytes, int position ) {
+      this.bytes = bytes;
+      this.position = position;
+    }
+
+    private Map<Integer, Object> readStruct() {
+      Map<Integer, Object> fields = new HashMap<>();
+      int lastId = 0;
+      while ( true ) {
+        int header = bytes[position++] & 0xff;
+        if ( header == 0 ) {
+          return fields;
+        }
+        int type = header & 0x0f;
+        int delta = header >> 4;
+        int id = delta != 0 ? lastId + delta : (int) unzigzag( readVarint() );
+        lastId = id;
+        if ( type == ThriftCompactOutput.TYPE_BOOLEAN_TRUE || type == ThriftCompactOutput.TYPE_BOOLEAN_FALSE ) {
+          fields.put( id, type == ThriftCompactOutput.TYPE_BOOLEAN_TRUE );
+        } else {
+          fields.put( id, readValue( type ) );
+        }
+      }
+    }
+
+    private Object readValue( int type ) {
+      switch ( type ) {
+        case ThriftCompactOutput.TYPE_I32:
+          return (int) unzigzag( readVarint() );
+        case ThriftCompactOutput.TYPE_I64:
+          return unzigzag( readVarint() );
+        case ThriftCompactOutput.TYPE_BINARY:
+          int length = (int) readVarint();
+          position += length;
+          return new String( bytes, position - length, length );
+        case ThriftCompactOutput.TYPE_LIST:
+          int header = bytes[position++] & 0xff;
+          int size = header >> 4 == 15 ? (int) readVarint() : header >> 4;
+          List<Object> list = new ArrayList<>();
+          for ( int i = 0; i < size; i++ ) {
+            list.add( readValue( header & 0x0f ) );
+          }
+          return list;
+        case ThriftCompactOutput.TYPE_STRUCT:
+          return readStruct();
+        default:
+          throw new IllegalStateException( "Unexpected Thrift type " + type );
+      }
+    }
+
+    private long readVarint() {
+      long value = 0;
+      int shift = 0;
+      while ( true ) {
+        int b = bytes[position++] & 0xff;
+        value |= (long) ( b & 0x7f ) << shift;
+        if ( ( b & 0x80 ) == 0 ) {
+          return value;
+        }
+        shift += 7;
+      }
+    }
+
+    private static long unzigzag( long value ) {
+      return ( value >>> 1 ) ^ -( value & 1 );
+    }
+  }
+}
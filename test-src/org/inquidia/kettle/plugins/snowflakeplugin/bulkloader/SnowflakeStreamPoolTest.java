@@ -0,0 +1,74 @@
+/*! ******************************************************************************
+ *
+ * Copyright 2016 Inquidia Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.inquidia.kettle.plugins.snowflakeplugin.bulkloader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SnowflakeStreamPoolTest {
+
+  private static final int MB = 1024 * 1024;
+
+  @Test
+  public void maximumIsTheLargestReservationHeld() {
+    SnowflakeStreamPool pool = new SnowflakeStreamPool( 4 * MB );
+    pool.reserve( 16 * MB );
+    pool.reserve( 64 * MB );
+    pool.reserve( 64 * MB );
+    assertEquals( 64 * MB, pool.getMaxBytes() );
+
+    pool.release( 64 * MB );
+    assertEquals( 64 * MB, pool.getMaxBytes() );
+    pool.release( 64 * MB );
+    assertEquals( 16 * MB, pool.getMaxBytes() );
+    pool.release( 16 * MB );
+    assertEquals( 4 * MB, pool.getMaxBytes() );
+  }
+
+  @Test
+  public void releasingTheLargestReservationDropsIdleBuffers() {
+    SnowflakeStreamPool pool = new SnowflakeStreamPool( 0 );
+    pool.reserve( 8 * MB );
+    byte[][] buffers = new byte[6][];
+    for ( int i = 0; i < buffers.length; i++ ) {
+      buffers[i] = pool.takeBuffer( MB );
+    }
+    for ( byte[] buffer : buffers ) {
+      pool.releaseBuffer( buffer );
+    }
+    assertEquals( 6 * MB, pool.getHeldBytes() );
+
+    pool.reserve( 2 * MB );
+    pool.release( 8 * MB );
+    assertEquals( 2 * MB, pool.getHeldBytes() );
+
+    pool.release( 2 * MB );
+    assertEquals( 0, pool.getHeldBytes() );
+  }
+
+  @Test
+  public void releasingAnUnknownReservationChangesNothing() {
+    SnowflakeStreamPool pool = new SnowflakeStreamPool( MB );
+    pool.reserve( 2 * MB );
+    pool.release( 3 * MB );
+    assertEquals( 2 * MB, pool.getMaxBytes() );
+  }
+}